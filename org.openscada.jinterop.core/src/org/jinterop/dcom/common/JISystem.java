@@ -35,11 +35,19 @@ import java.util.MissingResourceException;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
+import org.jinterop.dcom.core.JIComServer;
+import org.jinterop.dcom.transport.JIComTransportFactory;
+
+import rpc.ConnectionOrientedEndpoint;
+
 /**
  * <p>
  * Class implemented for defining system wide changes.
@@ -82,6 +90,12 @@ public final class JISystem
 
     private static boolean autoCollection = true;
 
+    private static int selectorThreadCount = 2;
+
+    private static ThreadFactory threadFactory = null;
+
+    private static boolean statisticsMBeans = false;
+
     private static final Logger logger = Logger.getLogger ( "org.jinterop" );
 
     private static final Map mapOfHostnamesVsIPs = new HashMap ();
@@ -472,6 +486,164 @@ public final class JISystem
         return autoCollection;
     }
 
+    /**
+     * <p>
+     * Sets the number of I/O threads serving the connections of all sessions
+     * with non blocking I/O enabled (default is 2). Has to be set before the
+     * first such connection is opened, later changes have no effect.
+     * </p>
+     * 
+     * @param count
+     *            number of threads, at least 1.
+     * @see org.jinterop.dcom.core.JISession#useNonBlockingIO(boolean)
+     * @since 1.2.0
+     */
+    public static void setSelectorThreadCount ( final int count )
+    {
+        if ( count < 1 )
+        {
+            throw new IllegalArgumentException ( "At least one selector thread is required." );
+        }
+        selectorThreadCount = count;
+    }
+
+    /**
+     * Number of I/O threads serving non blocking connections.
+     * 
+     * @return
+     * @since 1.2.0
+     */
+    public static int getSelectorThreadCount ()
+    {
+        return selectorThreadCount;
+    }
+
+    /**
+     * <p>
+     * Sets the factory creating all threads j-Interop starts internally: the
+     * OXID resolver, RemUnknown and garbage collector threads, the threads
+     * running the timers, the workers and callbacks of asynchronous calls,
+     * the readers of multiplexed connections and the selector and delivery
+     * threads. The blocking I/O of these threads does not hold any monitors,
+     * so a factory of virtual threads lets each of them, and each calling
+     * thread, block without occupying a platform thread. Virtual threads
+     * share one bounded pool of I/O buffers instead of each keeping its own.
+     * </p>
+     * <p>
+     * Has to be set before the first <code>JISession</code> is created,
+     * threads started before keep running as they are. The threads get their
+     * usual names and are made daemon threads. <code>null</code> (the default)
+     * creates ordinary daemon threads.
+     * </p>
+     * 
+     * @param factory
+     *            factory of the internal threads, or <code>null</code>.
+     * @since 1.2.0
+     */
+    public static synchronized void setThreadFactory ( final ThreadFactory factory )
+    {
+        threadFactory = factory;
+        ConnectionOrientedEndpoint.setThreadFactory ( factory );
+    }
+
+    /**
+     * <p>
+     * Sets whether the traffic counters of each <code>JIComServer</code> are
+     * registered with the platform MBean server (default is disabled). They
+     * are registered as
+     * <code>org.jinterop:type=JIComServer,address=...,id=...</code> when the
+     * first connection to the COM server is made, and unregistered once the
+     * session is destroyed. The counters are always available through
+     * {@link org.jinterop.dcom.core.JIComServer#getStatistics()}.
+     * </p>
+     * 
+     * @param enable
+     *            <code>true</code> to enable.
+     * @since 1.2.0
+     */
+    public static void setStatisticsMBeansEnabled ( final boolean enable )
+    {
+        statisticsMBeans = enable;
+    }
+
+    /**
+     * Flag indicating whether the traffic counters are registered with JMX.
+     * 
+     * @return
+     * @since 1.2.0
+     */
+    public static boolean isStatisticsMBeansEnabled ()
+    {
+        return statisticsMBeans;
+    }
+
+    /**
+     * Factory of the internal threads, <code>null</code> if none is set.
+     * 
+     * @return
+     * @since 1.2.0
+     */
+    public static synchronized ThreadFactory getThreadFactory ()
+    {
+        return threadFactory;
+    }
+
+    /**
+     * <p>
+     * Stops the threads j-Interop shares among all sessions: the selector and
+     * delivery threads of the non blocking connections, the workers and the
+     * timer of asynchronous calls and the threads handing them their
+     * replies. Meant for an application going away while the JVM keeps
+     * running, e.g. on undeploy, after it destroyed its sessions. Connections
+     * still open are failed, asynchronous calls still waiting for their reply
+     * are no longer timed out.
+     * </p>
+     * <p>
+     * Called by the shutdown hook as well. A session created later starts the
+     * threads again.
+     * </p>
+     * 
+     * @since 1.2.0
+     */
+    public static void shutdown ()
+    {
+        JIComTransportFactory.internal_shutdown ();
+        JIComServer.internal_shutdown ();
+        ConnectionOrientedEndpoint.shutdown ();
+    }
+
+    /**
+     * Creates an unstarted daemon thread for <code>task</code>, from the
+     * thread factory if set.
+     * 
+     * @exclude
+     */
+    public static Thread internal_newThread ( final Runnable task, final String name )
+    {
+        final ThreadFactory factory = getThreadFactory ();
+        final Thread thread = factory != null ? factory.newThread ( task ) : new Thread ( task );
+        thread.setName ( name );
+        thread.setDaemon ( true );
+        return thread;
+    }
+
+    /**
+     * Creates a single threaded scheduler whose thread comes from the thread
+     * factory, in place of a <code>java.util.Timer</code>.
+     * 
+     * @exclude
+     */
+    public static ScheduledExecutorService internal_newScheduler ( final String name )
+    {
+        return Executors.newSingleThreadScheduledExecutor ( new ThreadFactory () {
+            @Override
+            public Thread newThread ( final Runnable task )
+            {
+                return internal_newThread ( task, name );
+            }
+        } );
+    }
+
     /**
      * Used to set the in built log handler.
      * 
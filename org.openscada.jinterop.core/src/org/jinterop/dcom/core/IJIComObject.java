@@ -208,6 +208,9 @@ public interface IJIComObject extends Serializable
      *            timeout for this call in milliseconds, overrides the instance
      *            level
      *            timeout. Passing 0 here will use the global socket timeout.
+     *            The timeout is the deadline of this call only, a call
+     *            exceeding it is cancelled at the server and the connection
+     *            remains usable for further calls.
      * @return Object[] array representing the results in the order expected or
      *         set in <code>JICallBuilder</code>.
      * @throws JIException
@@ -219,6 +222,74 @@ public interface IJIComObject extends Serializable
      */
     public Object[] call ( JICallBuilder obj, int timeout ) throws JIException;
 
+    /**
+     * <P>
+     * Executes a method call like {@link #call(JICallBuilder)} but does not
+     * wait for the reply. The returned handle completes with the
+     * <code>Object[]</code> results once the reply has been received.
+     * <p>
+     * With call multiplexing enabled on the session, many calls can be
+     * outstanding on the connection and the replies are decoded and the
+     * handles completed by a few shared callback threads, without a thread
+     * per call. Otherwise the call is executed on one of a fixed number of
+     * worker threads, calls beyond that wait for a free one. The handle
+     * fails if the reply does not arrive within the instance level or global
+     * socket timeout.
+     * </P>
+     * 
+     * @param obj
+     *            call builder carrying all information necessary to make the
+     *            call successfully.
+     * @return handle to the outstanding call.
+     * @throws JIException
+     *             if the call could not be sent.
+     * @throws IllegalStateException
+     *             if there is no session associated
+     *             with this object or this object represents a local java
+     *             reference.
+     * @see org.jinterop.dcom.core.JISession#useCallMultiplexing(boolean)
+     */
+    public JICallFuture callAsync ( JICallBuilder obj ) throws JIException;
+
+    /**
+     * <P>
+     * Queues a one-way call, executed by the COM server with MAYBE semantics:
+     * no reply is sent back, so neither results nor errors of the call are
+     * reported. The call is not sent before {@link #flushOneWayCalls()}. Meant
+     * for notifications, the <code>JICallBuilder</code> should not carry any
+     * <code>[out]</code> parameters.
+     * </P>
+     * 
+     * @param obj
+     *            call builder carrying all information necessary to make the
+     *            call.
+     * @throws JIException
+     * @throws IllegalStateException
+     *             if there is no session associated
+     *             with this object or this object represents a local java
+     *             reference.
+     * @since 1.2.0
+     */
+    public void queueOneWayCall ( JICallBuilder obj ) throws JIException;
+
+    /**
+     * <P>
+     * Sends the one-way calls queued on the COM server of this object, also
+     * those queued through other objects of the same server, as a burst of
+     * back to back requests with a single write on the connection. Returns
+     * once they have been written.
+     * </P>
+     * 
+     * @throws JIException
+     *             if the calls could not be sent.
+     * @throws IllegalStateException
+     *             if there is no session associated
+     *             with this object or this object represents a local java
+     *             reference.
+     * @since 1.2.0
+     */
+    public void flushOneWayCalls () throws JIException;
+
     /**
      * <p>
      * Sets a timeout for all socket level operations done on this object.
@@ -374,6 +445,18 @@ public interface IJIComObject extends Serializable
      */
     public void internal_setDeffered ( boolean deffered );
 
+    /**
+     * <i><u>Framework Internal</u></i> Issues the call asynchronously and
+     * completes the given handle.
+     * 
+     * @exclude
+     * @param obj
+     * @param future
+     * @return <code>future</code>
+     * @throws JIException
+     */
+    public JICallFuture internal_callAsync ( JICallBuilder obj, JICallFuture future ) throws JIException;
+
     /**
      * Returns <code>true</code> if this COM object represents a local Java
      * reference obtained by
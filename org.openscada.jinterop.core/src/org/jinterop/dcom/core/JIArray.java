@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+import ndr.NdrBuffer;
 import ndr.NetworkDataRepresentation;
 
 import org.jinterop.dcom.common.JIErrorCodes;
@@ -43,6 +44,16 @@ import org.jinterop.dcom.common.JISystem;
  * <p>
  * <b>Note</b>: Wrapped Arrays can be at most two dimensional in nature. Above
  * that is not supported by the library.
+ * </p>
+ * <p>
+ * Arrays of the primitive types <code>byte</code>,
+ * <code>short</code>, <code>int</code>, <code>long</code>, <code>float</code>
+ * and <code>double</code> may be wrapped as well, and a template created with
+ * e.g. <code>int.class</code> decodes into an <code>int[]</code>. Such arrays
+ * are encoded and decoded in one go, without an object per element, and are
+ * meant for plain parameters and members of structures. Arrays carried in a
+ * <code>JIVariant</code> (SAFEARRAYs) still have to use the wrapper classes.
+ * </p>
  * 
  * @since 1.0
  */
@@ -97,7 +108,8 @@ public final class JIArray implements Serializable
      * 
      * @param clazz
      *            class whose instances will be members of the deserialized
-     *            array.
+     *            array, or one of the primitive types listed above for a
+     *            primitive array.
      * @param upperBounds
      *            highest index for each dimension.
      * @param dimension
@@ -106,10 +118,12 @@ public final class JIArray implements Serializable
      *            declares whether the array is <i>conformant</i> or not.
      * @throws IllegalArgumentException
      *             if <code>upperBounds</code> is supplied and its length
-     *             is not equal to the <code>dimension</code> parameter.
+     *             is not equal to the <code>dimension</code> parameter, or
+     *             if <code>clazz</code> is a primitive type not listed above.
      */
     public JIArray ( final Class clazz, final int[] upperBounds, final int dimension, final boolean isConformant )
     {
+        checkComponentType ( clazz );
         this.clazz = clazz;
         init2 ( upperBounds, dimension, isConformant, false );
     }
@@ -131,10 +145,12 @@ public final class JIArray implements Serializable
      *            declares whether the array is <i>varying</i> or not.
      * @throws IllegalArgumentException
      *             if <code>upperBounds</code> is supplied and its length
-     *             is not equal to the <code>dimension</code> parameter.
+     *             is not equal to the <code>dimension</code> parameter, or
+     *             if <code>clazz</code> is a primitive type not supported.
      */
     public JIArray ( final Class clazz, final int[] upperBounds, final int dimension, final boolean isConformant, final boolean isVarying )
     {
+        checkComponentType ( clazz );
         this.clazz = clazz;
         init2 ( upperBounds, dimension, isConformant, isVarying );
     }
@@ -285,12 +301,15 @@ public final class JIArray implements Serializable
      * </code>
      * 
      * @param array
-     *            Array of any type. Primitive arrays are not allowed.
+     *            Array of any type. Of the primitive arrays only
+     *            <code>byte</code>, <code>short</code>, <code>int</code>,
+     *            <code>long</code>, <code>float</code> and <code>double</code>
+     *            arrays are allowed.
      * @param isConformant
      *            declares whether the array is <code>conformant</code> or not.
      * @throws IllegalArgumentException
      *             if the <code>array</code> is not an array or
-     *             is of primitive type or is an array of
+     *             is of an unsupported primitive type or is an array of
      *             <code>java.lang.Object</code>.
      */
     public JIArray ( final Object array, final boolean isConformant )
@@ -304,14 +323,17 @@ public final class JIArray implements Serializable
      * Refer {@link #JIArray(Object, boolean)}
      * 
      * @param array
-     *            Array of any type. Primitive arrays are not allowed.
+     *            Array of any type. Of the primitive arrays only
+     *            <code>byte</code>, <code>short</code>, <code>int</code>,
+     *            <code>long</code>, <code>float</code> and <code>double</code>
+     *            arrays are allowed.
      * @param isConformant
      *            declares whether the array is <code>conformant</code> or not.
      * @param isVarying
      *            declares whether the array is <code>varying</code> or not.
      * @throws IllegalArgumentException
      *             if the <code>array</code> is not an array or
-     *             is of primitive type or is an array of
+     *             is of an unsupported primitive type or is an array of
      *             <code>java.lang.Object</code>.
      */
     public JIArray ( final Object array, final boolean isConformant, final boolean isVarying )
@@ -335,10 +357,13 @@ public final class JIArray implements Serializable
      * </code>
      * 
      * @param array
-     *            Array of any type. Primitive arrays are not allowed.
+     *            Array of any type. Of the primitive arrays only
+     *            <code>byte</code>, <code>short</code>, <code>int</code>,
+     *            <code>long</code>, <code>float</code> and <code>double</code>
+     *            arrays are allowed.
      * @throws IllegalArgumentException
      *             if the <code>array</code> is not an array or
-     *             is of primitive type or is an array of
+     *             is of an unsupported primitive type or is an array of
      *             <code>java.lang.Object</code>.
      */
     public JIArray ( final Object array )
@@ -353,10 +378,12 @@ public final class JIArray implements Serializable
             throw new IllegalArgumentException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_ARRAY_PARAM_ONLY ) );
         }
 
-        if ( array.getClass ().isPrimitive () )
+        Class component = array.getClass ().getComponentType ();
+        while ( component.isArray () )
         {
-            throw new IllegalArgumentException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_ARRAY_PRIMITIVE_NOTACCEPT ) );
+            component = component.getComponentType ();
         }
+        checkComponentType ( component );
 
         //bad way...but what the heck...
         if ( array.getClass ().toString ().indexOf ( "java.lang.Object" ) != -1 )
@@ -373,7 +400,7 @@ public final class JIArray implements Serializable
         while ( name.startsWith ( "[" ) )
         {
             name = name.substring ( 1 );
-            final int x = ( (Object[])subArray ).length;
+            final int x = Array.getLength ( subArray );
             upperBounds2.add ( new Integer ( x ) );
             this.numElementsInAllDimensions = this.numElementsInAllDimensions * x;
             if ( this.isConformant )
@@ -408,6 +435,10 @@ public final class JIArray implements Serializable
     {
         int length = 0;
         final String name = array.getClass ().getName ();
+        if ( this.clazz.isPrimitive () && name.charAt ( 1 ) != '[' )
+        {
+            return Array.getLength ( array ) * getPrimitiveSize ( this.clazz );
+        }
         final Object o[] = (Object[])array;
         for ( int i = 0; i < o.length; i++ )
         {
@@ -512,14 +543,25 @@ public final class JIArray implements Serializable
         }
 
         final String name = array.getClass ().getName ();
+        if ( this.clazz.isPrimitive () && name.charAt ( 1 ) != '[' )
+        {
+            encodePrimitive ( ndr, array );
+            return;
+        }
         final Object o[] = (Object[])array;
         for ( int i = 0; i < o.length; i++ )
         {
             if ( name.charAt ( 1 ) != '[' )
             {
                 final Object o1[] = (Object[])array;
+                JIMarshalUnMarshalHelper.Plan plan = null;
                 for ( int j = 0; j < o1.length; j++ )
                 {
+                    if ( o1[j] instanceof JIStruct )
+                    {
+                        //structures of the same shape share one plan instead of each compiling its own.
+                        plan = ( (JIStruct)o1[j] ).getPlan ( plan );
+                    }
                     JIMarshalUnMarshalHelper.serialize ( ndr, this.clazz, o1[j], defferedPointers, FLAG | JIFlags.FLAG_REPRESENTATION_ARRAY );
                 }
                 return;
@@ -651,6 +693,12 @@ public final class JIArray implements Serializable
             c = array.getClass ();
         }
 
+        if ( dimension == 1 && arrayType.isPrimitive () )
+        {
+            decodePrimitive ( ndr, array );
+            return array;
+        }
+
         for ( int i = 0; i < retVal.upperBounds[retVal.upperBounds.length - dimension]; i++ )
         {
             if ( dimension == 1 )
@@ -675,6 +723,130 @@ public final class JIArray implements Serializable
         return array;
     }
 
+    /**
+     * Rejects the primitive types which have no wire format of their own,
+     * <code>char</code> and <code>boolean</code>.
+     */
+    private static void checkComponentType ( final Class c )
+    {
+        if ( c != null && c.isPrimitive () && getPrimitiveSize ( c ) == 0 )
+        {
+            throw new IllegalArgumentException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_ARRAY_PRIMITIVE_NOTACCEPT ) );
+        }
+    }
+
+    /**
+     * Size in bytes of an element of a primitive array on the wire, 0 for the
+     * primitive types which are not supported.
+     */
+    private static int getPrimitiveSize ( final Class c )
+    {
+        if ( c == byte.class )
+        {
+            return 1;
+        }
+        else if ( c == short.class )
+        {
+            return 2;
+        }
+        else if ( c == int.class || c == float.class )
+        {
+            return 4;
+        }
+        else if ( c == long.class || c == double.class )
+        {
+            return 8;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the elements of a primitive array in one go, aligning once for
+     * all of them just like the wrapper types would for each.
+     */
+    private void encodePrimitive ( final NetworkDataRepresentation ndr, final Object array )
+    {
+        final int length = Array.getLength ( array );
+        if ( length == 0 )
+        {
+            return;
+        }
+        JIMarshalUnMarshalHelper.alignWhileEncoding ( ndr, getPrimitiveSize ( this.clazz ) );
+        final NdrBuffer buffer = ndr.getBuffer ();
+        if ( this.clazz == byte.class )
+        {
+            buffer.writeOctetArray ( (byte[])array, 0, length );
+        }
+        else if ( this.clazz == short.class )
+        {
+            buffer.enc_ndr_short_array ( (short[])array, 0, length );
+        }
+        else if ( this.clazz == int.class )
+        {
+            buffer.enc_ndr_long_array ( (int[])array, 0, length );
+        }
+        else if ( this.clazz == long.class )
+        {
+            buffer.enc_ndr_hyper_array ( (long[])array, 0, length );
+        }
+        else if ( this.clazz == float.class )
+        {
+            buffer.enc_ndr_float_array ( (float[])array, 0, length );
+        }
+        else if ( this.clazz == double.class )
+        {
+            buffer.enc_ndr_double_array ( (double[])array, 0, length );
+        }
+        else
+        {
+            throw new IllegalArgumentException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_ARRAY_PRIMITIVE_NOTACCEPT ) );
+        }
+    }
+
+    /**
+     * Fills a freshly created primitive array in one go, the counterpart of
+     * {@link #encodePrimitive(NetworkDataRepresentation, Object)}.
+     */
+    private void decodePrimitive ( final NetworkDataRepresentation ndr, final Object array )
+    {
+        final int length = Array.getLength ( array );
+        if ( length == 0 )
+        {
+            return;
+        }
+        final Class c = array.getClass ().getComponentType ();
+        JIMarshalUnMarshalHelper.alignWhileDecoding ( ndr, getPrimitiveSize ( c ) );
+        final NdrBuffer buffer = ndr.getBuffer ();
+        if ( c == byte.class )
+        {
+            buffer.readOctetArray ( (byte[])array, 0, length );
+        }
+        else if ( c == short.class )
+        {
+            buffer.dec_ndr_short_array ( (short[])array, 0, length );
+        }
+        else if ( c == int.class )
+        {
+            buffer.dec_ndr_long_array ( (int[])array, 0, length );
+        }
+        else if ( c == long.class )
+        {
+            buffer.dec_ndr_hyper_array ( (long[])array, 0, length );
+        }
+        else if ( c == float.class )
+        {
+            buffer.dec_ndr_float_array ( (float[])array, 0, length );
+        }
+        else if ( c == double.class )
+        {
+            buffer.dec_ndr_double_array ( (double[])array, 0, length );
+        }
+        else
+        {
+            throw new IllegalArgumentException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_ARRAY_PRIMITIVE_NOTACCEPT ) );
+        }
+    }
+
     /**
      * Reverses Array elements for IJIDispatch.
      * 
@@ -687,6 +859,18 @@ public final class JIArray implements Serializable
             return 0;
         }
 
+        if ( this.memberArray.getClass ().getComponentType ().isPrimitive () )
+        {
+            final int length = Array.getLength ( this.memberArray );
+            for ( int i = 0, j = length - 1; i < j; i++, j-- )
+            {
+                final Object temp = Array.get ( this.memberArray, i );
+                Array.set ( this.memberArray, i, Array.get ( this.memberArray, j ) );
+                Array.set ( this.memberArray, j, temp );
+            }
+            return length;
+        }
+
         int i = 0;
         final Stack stack = new Stack ();
         for ( i = 0; i < ( (Object[])this.memberArray ).length; i++ )
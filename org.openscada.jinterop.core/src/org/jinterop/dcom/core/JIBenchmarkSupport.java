@@ -0,0 +1,264 @@
+/**j-Interop (Pure Java implementation of DCOM protocol)
+ * Copyright (C) 2006  Vikram Roopchand
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * Though a sincere effort has been made to deliver a professional,
+ * quality product,the library itself is distributed WITHOUT ANY WARRANTY;
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package org.jinterop.dcom.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ndr.NetworkDataRepresentation;
+
+import rpc.BufferPool;
+
+/**
+ * Lets the marshalling benchmark reach the package internals it times:
+ * attaching a session to a call which is never sent, and encoding or
+ * decoding single values either through the codec registry or through the
+ * chain of <code>Class.equals</code> tests the registry replaced.
+ *
+ * @exclude
+ * @since 1.2.0
+ */
+public final class JIBenchmarkSupport
+{
+    private JIBenchmarkSupport ()
+    {
+    }
+
+    public static void attachSession ( final JICallBuilder call, final JISession session )
+    {
+        call.attachSession ( session );
+    }
+
+    /**
+     * Encodes <code>values</code> one after the other, each followed by the
+     * pointers it deferred, into a buffer leased from the pool.
+     *
+     * @param byClassChain
+     *            resolves each value as the former
+     *            <code>JIMarshalUnMarshalHelper.serialize</code> did instead
+     *            of by the single registry lookup
+     */
+    public static void serialize ( final NetworkDataRepresentation ndr, final Object[] values, final boolean byClassChain )
+    {
+        int length = 0;
+        for ( int i = 0; i < values.length; i++ )
+        {
+            //the worst case of padding in front of each.
+            length += JIMarshalUnMarshalHelper.getLengthInBytes ( values[i].getClass (), values[i], JIFlags.FLAG_NULL ) + 8;
+        }
+        ndr.getBuffer ().buf = BufferPool.lease ( length );
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            final List defferedPointers = new ArrayList ();
+            if ( byClassChain )
+            {
+                serializeByClassChain ( ndr, values[i].getClass (), values[i], defferedPointers, JIFlags.FLAG_NULL );
+            }
+            else
+            {
+                JIMarshalUnMarshalHelper.serialize ( ndr, values[i].getClass (), values[i], defferedPointers, JIFlags.FLAG_NULL );
+            }
+            int x = 0;
+            while ( x < defferedPointers.size () )
+            {
+                final ArrayList newList = new ArrayList ();
+                JIMarshalUnMarshalHelper.serialize ( ndr, JIPointer.class, defferedPointers.get ( x ), newList, JIFlags.FLAG_NULL );
+                x++;
+                defferedPointers.addAll ( x, newList );
+            }
+        }
+    }
+
+    /**
+     * Decodes <code>count</code> values of the type of <code>template</code>
+     * written by {@link #serialize(NetworkDataRepresentation, Object[], boolean)}.
+     */
+    public static Object[] deSerialize ( final NetworkDataRepresentation ndr, final Object template, final int count, final boolean byClassChain )
+    {
+        final Map additionalData = new HashMap ();
+        additionalData.put ( JICallBuilder.COMOBJECTS, new ArrayList () );
+        final Object[] values = new Object[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            final List defferedPointers = new ArrayList ();
+            if ( byClassChain )
+            {
+                values[i] = deSerializeByClassChain ( ndr, template, defferedPointers, JIFlags.FLAG_NULL, additionalData );
+            }
+            else
+            {
+                values[i] = JIMarshalUnMarshalHelper.deSerialize ( ndr, template, defferedPointers, JIFlags.FLAG_NULL, additionalData );
+            }
+            int x = 0;
+            while ( x < defferedPointers.size () )
+            {
+                final ArrayList newList = new ArrayList ();
+                final JIPointer replacement = (JIPointer)JIMarshalUnMarshalHelper.deSerialize ( ndr, defferedPointers.get ( x ), newList, JIFlags.FLAG_NULL, additionalData );
+                ( (JIPointer)defferedPointers.get ( x ) ).replaceSelfWithNewPointer ( replacement );
+                x++;
+                defferedPointers.addAll ( x, newList );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The dispatch of the former <code>serialize</code>, the map being
+     * consulted only after every other type was ruled out. Values nested
+     * inside go through the registry either way.
+     */
+    private static void serializeByClassChain ( final NetworkDataRepresentation ndr, Class c, final Object value, final List defferedPointers, final int FLAG )
+    {
+        if ( c.equals ( JIArray.class ) )
+        {
+            JIMarshalUnMarshalHelper.serialize ( ndr, c, value, defferedPointers, FLAG );
+            return;
+        }
+
+        if ( value instanceof IJIComObject )
+        {
+            c = IJIComObject.class;
+        }
+
+        alignByClassChain ( ndr, c, value, true );
+
+        if ( c.equals ( JIString.class ) )
+        {
+            ( (JIString)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+        if ( c.equals ( JIPointer.class ) )
+        {
+            ( (JIPointer)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+        if ( c.equals ( JIStruct.class ) )
+        {
+            ( (JIStruct)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+        if ( c.equals ( JIUnion.class ) )
+        {
+            ( (JIUnion)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+        if ( c.equals ( JIInterfacePointer.class ) )
+        {
+            ( (JIInterfacePointer)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+        if ( c.equals ( JIVariant.class ) )
+        {
+            ( (JIVariant)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+        if ( c.equals ( VariantBody.class ) )
+        {
+            ( (VariantBody)value ).encode ( ndr, defferedPointers, FLAG );
+            return;
+        }
+
+        //aligned already, the registry adds no further padding.
+        JIMarshalUnMarshalHelper.serialize ( ndr, c, value, defferedPointers, FLAG );
+    }
+
+    private static Object deSerializeByClassChain ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final int FLAG, final Map additionalData )
+    {
+        final Class c = obj instanceof Class ? (Class)obj : obj.getClass ();
+        if ( c.equals ( JIArray.class ) )
+        {
+            return JIMarshalUnMarshalHelper.deSerialize ( ndr, obj, defferedPointers, FLAG, additionalData );
+        }
+
+        alignByClassChain ( ndr, c, obj, false );
+
+        if ( c.equals ( JIPointer.class ) )
+        {
+            return ( (JIPointer)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+        if ( c.equals ( JIStruct.class ) )
+        {
+            return ( (JIStruct)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+        if ( c.equals ( JIUnion.class ) )
+        {
+            return ( (JIUnion)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+        if ( c.equals ( JIString.class ) )
+        {
+            return ( (JIString)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+        if ( obj.equals ( JIInterfacePointer.class ) )
+        {
+            return JIInterfacePointer.decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+        if ( obj.equals ( JIVariant.class ) )
+        {
+            return JIVariant.decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+        if ( obj.equals ( VariantBody.class ) )
+        {
+            return VariantBody.decode ( ndr, defferedPointers, FLAG, additionalData );
+        }
+
+        return JIMarshalUnMarshalHelper.deSerialize ( ndr, obj, defferedPointers, FLAG, additionalData );
+    }
+
+    /**
+     * The former alignment, a chain of its own ahead of the one above. The
+     * padding is written as it is today, only the dispatch is the old one.
+     */
+    private static void alignByClassChain ( final NetworkDataRepresentation ndr, final Class c, final Object obj, final boolean encoding )
+    {
+        if ( c.equals ( JIStruct.class ) )
+        {
+            align ( ndr, ( (JIStruct)obj ).getAlignment (), encoding );
+        }
+        else if ( c.equals ( JIUnion.class ) )
+        {
+            align ( ndr, ( (JIUnion)obj ).getAlignment (), encoding );
+        }
+        else if ( c.equals ( Integer.class ) || c.equals ( Float.class ) || c.equals ( JIVariant.class ) || c.equals ( String.class ) || c.equals ( JIPointer.class ) )
+        {
+            align ( ndr, 4, encoding );
+        }
+        else if ( c.equals ( Double.class ) )
+        {
+            align ( ndr, 8, encoding );
+        }
+        else if ( c.equals ( Short.class ) )
+        {
+            align ( ndr, 2, encoding );
+        }
+    }
+
+    private static void align ( final NetworkDataRepresentation ndr, final int alignment, final boolean encoding )
+    {
+        if ( encoding )
+        {
+            JIMarshalUnMarshalHelper.alignWhileEncoding ( ndr, alignment );
+        }
+        else
+        {
+            JIMarshalUnMarshalHelper.alignWhileDecoding ( ndr, alignment );
+        }
+    }
+}
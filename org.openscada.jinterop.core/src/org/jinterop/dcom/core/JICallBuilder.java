@@ -33,6 +33,7 @@ import org.jinterop.dcom.common.JISystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rpc.BufferPool;
 import rpc.core.UUID;
 
 /**
@@ -1037,11 +1038,21 @@ public class JICallBuilder extends NdrObject implements Serializable
         //reset buffer size here...
         //calculate rough length required length + 16 for the last bytes
         //plus adding 30 more for the verifier etc. 
-        ndr.getBuffer ().buf = new byte[bufferLength () + 16 + 30];
+        ndr.getBuffer ().buf = new byte[bufferLength ( 0 ) + 16 + 30];
         JIOrpcThat.encode ( ndr );
         writePacket ( ndr );
     }
 
+    /**
+     * @exclude
+     */
+    @Override
+    public int getEncodedLengthHint ()
+    {
+        //write sizes the buffer itself.
+        return 0;
+    }
+
     /**
      * @exclude
      */
@@ -1052,7 +1063,7 @@ public class JICallBuilder extends NdrObject implements Serializable
         //reset buffer size here...
         //calculate rough length required length + 16 for the last bytes
         //plus adding 30 more for the verifier etc. 
-        ndr.getBuffer ().buf = new byte[bufferLength () + 16];
+        ndr.getBuffer ().buf = BufferPool.lease ( bufferLength ( ndr.getBuffer ().getChunk () ) + 16 );
 
         final JIOrpcThis orpcthis = new JIOrpcThis ();
         orpcthis.encode ( ndr );
@@ -1130,6 +1141,8 @@ public class JICallBuilder extends NdrObject implements Serializable
                     x++; //incrementing index
                     listOfDefferedPointers.addAll ( x, newList );
                 }
+                //nothing refers back to a completed parameter, whatever is complete may be sent when streaming.
+                ndr.getBuffer ().drain ();
                 index++;
             }
 
@@ -1290,9 +1303,15 @@ public class JICallBuilder extends NdrObject implements Serializable
         }
     }
 
-    private int bufferLength ()
+    /**
+     * The buffer needed for encoding the parameters. A buffer which is
+     * drained after each parameter only needs room for the largest one, on
+     * top of the chunk it keeps.
+     */
+    private int bufferLength ( final int chunk )
     {
         int length = 0;
+        int largest = 0;
         final Object[] inparams = this.inParams.toArray ();
         for ( int i = 0; i < inparams.length; i++ )
         {
@@ -1303,8 +1322,13 @@ public class JICallBuilder extends NdrObject implements Serializable
             }
             final int length2 = JIMarshalUnMarshalHelper.getLengthInBytes ( inparams[i].getClass (), inparams[i], JIFlags.FLAG_NULL );
             length = length + length2;
+            largest = Math.max ( largest, length2 );
         }
 
+        if ( chunk > 0 )
+        {
+            length = Math.min ( length, largest + chunk );
+        }
         return length + 2048; //2K extra for alignments, if any.
     }
 
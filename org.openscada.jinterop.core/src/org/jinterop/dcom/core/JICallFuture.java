@@ -0,0 +1,242 @@
+/**j-Interop (Pure Java implementation of DCOM protocol)  
+ * Copyright (C) 2006  Vikram Roopchand
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * Though a sincere effort has been made to deliver a professional, 
+ * quality product,the library itself is distributed WITHOUT ANY WARRANTY; 
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package org.jinterop.dcom.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jinterop.dcom.common.JIException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Handle to a call issued with {@link IJIComObject#callAsync(JICallBuilder)}
+ * (or one of the asynchronous <code>IJIDispatch</code> methods). The handle
+ * completes once the reply of the COM server has been received and decoded.
+ * If the call failed, {@link #get()} throws an
+ * <code>ExecutionException</code> whose cause is the <code>JIException</code>.
+ * </p>
+ * <p>
+ * Listeners registered via {@link #addListener(Runnable)} are run by the
+ * thread completing the call, which is one of the callback threads of the
+ * RPC layer shared by all connections when call multiplexing is in use. They
+ * should return quickly, other replies wait for these threads.
+ * </p>
+ * <p>
+ * A call on the wire cannot be taken back, hence {@link #cancel(boolean)}
+ * always returns <code>false</code>.
+ * </p>
+ *
+ * @since 1.2.0
+ */
+public class JICallFuture implements Future
+{
+    private final static Logger logger = LoggerFactory.getLogger ( JICallFuture.class );
+
+    private final JICallBuilder callBuilder;
+
+    private boolean done = false;
+
+    private Object result = null;
+
+    private JIException exception = null;
+
+    private List listeners = new ArrayList ();
+
+    /**
+     * @exclude
+     * @param callBuilder
+     */
+    protected JICallFuture ( final JICallBuilder callBuilder )
+    {
+        this.callBuilder = callBuilder;
+    }
+
+    /**
+     * Builds the value returned from {@link #get()} once the call has
+     * completed. Returns the results of the <code>JICallBuilder</code> by
+     * default.
+     *
+     * @exclude
+     * @param callBuilder
+     * @return
+     * @throws JIException
+     */
+    protected Object getResult ( final JICallBuilder callBuilder ) throws JIException
+    {
+        return callBuilder.getResults ();
+    }
+
+    /**
+     * Builds the exception reported from {@link #get()} if the call has
+     * failed. Returns <code>exception</code> by default.
+     *
+     * @exclude
+     * @param callBuilder
+     * @param exception
+     * @return
+     */
+    protected JIException getException ( final JICallBuilder callBuilder, final JIException exception )
+    {
+        return exception;
+    }
+
+    void completed ()
+    {
+        try
+        {
+            final Object result = getResult ( this.callBuilder );
+            synchronized ( this )
+            {
+                if ( this.done )
+                {
+                    return;
+                }
+                this.result = result;
+                this.done = true;
+                notifyAll ();
+            }
+        }
+        catch ( final JIException e )
+        {
+            failed ( e );
+            return;
+        }
+        runListeners ();
+    }
+
+    void failed ( final JIException e )
+    {
+        final JIException exception = getException ( this.callBuilder, e );
+        synchronized ( this )
+        {
+            if ( this.done )
+            {
+                return;
+            }
+            this.exception = exception;
+            this.done = true;
+            notifyAll ();
+        }
+        runListeners ();
+    }
+
+    /**
+     * Registers a listener which is run once the call completes, immediately
+     * if it already has.
+     *
+     * @param listener
+     */
+    public void addListener ( final Runnable listener )
+    {
+        synchronized ( this )
+        {
+            if ( !this.done )
+            {
+                this.listeners.add ( listener );
+                return;
+            }
+        }
+        runListener ( listener );
+    }
+
+    private void runListeners ()
+    {
+        List listeners = null;
+        synchronized ( this )
+        {
+            listeners = this.listeners;
+            this.listeners = new ArrayList ();
+        }
+        for ( final Iterator iterator = listeners.iterator (); iterator.hasNext (); )
+        {
+            runListener ( (Runnable)iterator.next () );
+        }
+    }
+
+    private void runListener ( final Runnable listener )
+    {
+        try
+        {
+            listener.run ();
+        }
+        catch ( final RuntimeException e )
+        {
+            logger.warn ( "Listener of asynchronous call failed", e );
+        }
+    }
+
+    @Override
+    public boolean cancel ( final boolean mayInterruptIfRunning )
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled ()
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone ()
+    {
+        return this.done;
+    }
+
+    @Override
+    public synchronized Object get () throws InterruptedException, ExecutionException
+    {
+        while ( !this.done )
+        {
+            wait ();
+        }
+        return report ();
+    }
+
+    @Override
+    public synchronized Object get ( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        final long deadline = System.currentTimeMillis () + unit.toMillis ( timeout );
+        while ( !this.done )
+        {
+            final long remaining = deadline - System.currentTimeMillis ();
+            if ( remaining <= 0 )
+            {
+                throw new TimeoutException ();
+            }
+            wait ( remaining );
+        }
+        return report ();
+    }
+
+    private Object report () throws ExecutionException
+    {
+        if ( this.exception != null )
+        {
+            throw new ExecutionException ( this.exception );
+        }
+        return this.result;
+    }
+}
@@ -296,6 +296,39 @@ final class JIComObjectImpl implements IJIComObject
         }
     }
 
+    @Override
+    public void queueOneWayCall ( final JICallBuilder obj ) throws JIException
+    {
+        checkLocal ();
+        obj.attachSession ( this.session );
+        obj.setParentIpid ( this.ptr.getIPID () );
+        this.session.getStub ().queueOneWay ( obj, this.ptr.getIID () );
+    }
+
+    @Override
+    public void flushOneWayCalls () throws JIException
+    {
+        checkLocal ();
+        this.session.getStub ().flushOneWay ();
+    }
+
+    @Override
+    public JICallFuture callAsync ( final JICallBuilder obj ) throws JIException
+    {
+        return internal_callAsync ( obj, new JICallFuture ( obj ) );
+    }
+
+    @Override
+    public JICallFuture internal_callAsync ( final JICallBuilder obj, final JICallFuture future ) throws JIException
+    {
+        checkLocal ();
+        obj.attachSession ( this.session );
+        obj.setParentIpid ( this.ptr.getIPID () );
+        final int socketTimeout = this.timeout != 0 ? this.timeout : this.session.getGlobalSocketTimeout ();
+        this.session.getStub ().callAsync ( obj, this.ptr.getIID (), socketTimeout, future );
+        return future;
+    }
+
     @Override
     public int getInstanceLevelSocketTimeout ()
     {
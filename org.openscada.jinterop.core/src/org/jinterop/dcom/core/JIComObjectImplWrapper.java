@@ -151,6 +151,30 @@ public class JIComObjectImplWrapper implements IJIComObject
         return this.comObject.call ( obj, timeout );
     }
 
+    @Override
+    public void queueOneWayCall ( final JICallBuilder obj ) throws JIException
+    {
+        this.comObject.queueOneWayCall ( obj );
+    }
+
+    @Override
+    public void flushOneWayCalls () throws JIException
+    {
+        this.comObject.flushOneWayCalls ();
+    }
+
+    @Override
+    public JICallFuture callAsync ( final JICallBuilder obj ) throws JIException
+    {
+        return this.comObject.callAsync ( obj );
+    }
+
+    @Override
+    public JICallFuture internal_callAsync ( final JICallBuilder obj, final JICallFuture future ) throws JIException
+    {
+        return this.comObject.internal_callAsync ( obj, future );
+    }
+
     @Override
     public int getInstanceLevelSocketTimeout ()
     {
@@ -17,6 +17,8 @@
 
 package org.jinterop.dcom.core;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,7 +50,7 @@ final class JIComOxidDetails
 
     private int protectionLevel = 2;
 
-    private ThreadGroup remUnknownThread = null;
+    private List remUnknownThreads = null;
 
     JIComOxidDetails ( final JILocalCoClass javaInstance, final JIOxid oxid, final JIObjectId oid, final String iid, final String ipid, final JIInterfacePointer ptr, final JIComOxidRuntimeHelper helper, final int protectionLevel )
     {
@@ -116,23 +118,26 @@ final class JIComOxidDetails
         return this.protectionLevel;
     }
 
-    void setRemUnknownThreadGroup ( final ThreadGroup remUnknown )
+    void setRemUnknownThreads ( final List remUnknownThreads )
     {
-        this.remUnknownThread = remUnknown;
+        this.remUnknownThreads = remUnknownThreads;
     }
 
-    void interruptRemUnknownThreadGroup ()
+    void interruptRemUnknownThreads ()
     {
-        if ( this.remUnknownThread != null )
+        if ( this.remUnknownThreads != null )
         {
             try
             {
-                this.remUnknownThread.interrupt ();
-                //				remUnknownThread.destroy();
+                final Object[] threads = this.remUnknownThreads.toArray ();
+                for ( int i = 0; i < threads.length; i++ )
+                {
+                    ( (Thread)threads[i] ).interrupt ();
+                }
             }
             catch ( final Exception e )
             {
-                logger.info ( "JIComOxidDetails interruptRemUnknownThreadGroup", e );
+                logger.info ( "JIComOxidDetails interruptRemUnknownThreads", e );
             }
         }
     }
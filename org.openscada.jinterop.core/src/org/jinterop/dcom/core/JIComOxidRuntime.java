@@ -28,8 +28,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
@@ -99,9 +99,9 @@ final class JIComOxidRuntime
 
     private static Random randomGen = new Random ( Double.doubleToRawLongBits ( Math.random () ) );
 
-    private static Timer pingTimer_2minutes = new Timer ( true );
+    private static ScheduledExecutorService pingTimer_2minutes = JISystem.internal_newScheduler ( "jI_ClientPingTimer" );
 
-    private static Timer pingTimer_8minutes = new Timer ( true );
+    private static ScheduledExecutorService pingTimer_8minutes = JISystem.internal_newScheduler ( "jI_ServerPingTimer" );
 
     //one per session.
     private static class PingSetHolder
@@ -137,7 +137,7 @@ final class JIComOxidRuntime
     //if that (currenttime - thattime) is < ping interval...all is okay, otherwise , all it's details are erased, thus 
     //removing any reference of the given java server from j-Interop library, after which if no one outside has references, this
     //object can be GCed.
-    private static class ServerPingTimerTask extends TimerTask
+    private static class ServerPingTimerTask implements Runnable
     {
         @Override
         public void run ()
@@ -171,7 +171,7 @@ final class JIComOxidRuntime
                         itr.remove ();
 
                         //the thread associated with this will also stop.
-                        details.interruptRemUnknownThreadGroup ();
+                        details.interruptRemUnknownThreads ();
 
                         component = null;
                         details = null;
@@ -211,7 +211,7 @@ final class JIComOxidRuntime
                 //the thread associated with this will also stop.
                 if ( details != null )
                 {
-                    details.interruptRemUnknownThreadGroup ();
+                    details.interruptRemUnknownThreads ();
                 }
                 component = null;
                 details = null;
@@ -222,7 +222,7 @@ final class JIComOxidRuntime
         }
     }
 
-    private static class ClientPingTimerTask extends TimerTask
+    private static class ClientPingTimerTask implements Runnable
     {
         @Override
         public void run ()
@@ -474,10 +474,10 @@ final class JIComOxidRuntime
     static synchronized void startResolverTimer ()
     {
         //schedule only 1 timer task , the task to ping the OIDs obtained.
-        pingTimer_2minutes.scheduleAtFixedRate ( new ClientPingTimerTask (), 0, 4 * 60 * 1000 );
+        pingTimer_2minutes.scheduleAtFixedRate ( new ClientPingTimerTask (), 0, 4 * 60 * 1000, TimeUnit.MILLISECONDS );
         if ( JISystem.isJavaCoClassAutoCollectionSet () )
         {
-            pingTimer_8minutes.scheduleAtFixedRate ( new ServerPingTimerTask (), 0, 8 * 60 * 1000 );
+            pingTimer_8minutes.scheduleAtFixedRate ( new ServerPingTimerTask (), 0, 8 * 60 * 1000, TimeUnit.MILLISECONDS );
         }
     }
 
@@ -536,8 +536,7 @@ final class JIComOxidRuntime
             }
         };
 
-        final Thread thread2 = new Thread ( thread, "jI_OxidResolver" );
-        thread2.setDaemon ( true );
+        final Thread thread2 = JISystem.internal_newThread ( thread, "jI_OxidResolver" );
         thread2.start ();
         resolverStarted = true;
     }
@@ -559,8 +558,8 @@ final class JIComOxidRuntime
         {
         }
 
-        pingTimer_2minutes.cancel ();
-        pingTimer_8minutes.cancel ();
+        pingTimer_2minutes.shutdown ();
+        pingTimer_8minutes.shutdown ();
 
         final Iterator itr = mapOfAddressVsStub.values ().iterator ();
         while ( itr.hasNext () )
@@ -24,6 +24,7 @@ import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -79,7 +80,7 @@ final class JIComOxidRuntimeHelper extends Stub
 
     void startOxid ( final int portNumLocal, final int portNumRemote ) throws IOException
     {
-        final Thread oxidResolverThread = new Thread ( new Runnable () {
+        final Thread oxidResolverThread = JISystem.internal_newThread ( new Runnable () {
             @Override
             public void run ()
             {
@@ -106,7 +107,6 @@ final class JIComOxidRuntimeHelper extends Stub
                 logger.info ( "terminating startOxid thread: {}", Thread.currentThread ().getName () );
             }
         }, "jI_OxidResolver_Client[" + portNumLocal + " , " + portNumRemote + "]" );
-        oxidResolverThread.setDaemon ( true );
         oxidResolverThread.start ();
     }
 
@@ -118,10 +118,9 @@ final class JIComOxidRuntimeHelper extends Stub
         //	    serverSocket.setSoTimeout(120*1000); //2 min timeout.
         serverSocket.bind ( null );
         final int remUnknownPort = serverSocket.getLocalPort ();
-        //have to pick up a random name so adding the ipid of remunknown this is a uuid so the string is quite random.
-        final ThreadGroup remUnknownForThisListener = new ThreadGroup ( "ThreadGroup - " + baseIID + "[" + ipidOfRemUnknown + "]" );
-        remUnknownForThisListener.setDaemon ( true );
-        final Thread remUnknownThread = new Thread ( remUnknownForThisListener, new Runnable () {
+        //the threads of this listener, interrupted together once the component goes away. Not a ThreadGroup, they may come from the thread factory.
+        final List remUnknownForThisListener = Collections.synchronizedList ( new ArrayList () );
+        final Thread remUnknownThread = JISystem.internal_newThread ( new Runnable () {
             @Override
             public void run ()
             {
@@ -143,7 +142,7 @@ final class JIComOxidRuntimeHelper extends Stub
                         }
 
                         //now start a new thread with this socket 
-                        final Thread remUnknown = new Thread ( remUnknownForThisListener, new Runnable () {
+                        final Thread remUnknown = JISystem.internal_newThread ( new Runnable () {
                             @Override
                             public void run ()
                             {
@@ -171,6 +170,7 @@ final class JIComOxidRuntimeHelper extends Stub
                                 }
                                 finally
                                 {
+                                    remUnknownForThisListener.remove ( Thread.currentThread () );
                                     try
                                     {
                                         remUnknownHelper.detach ();
@@ -182,7 +182,7 @@ final class JIComOxidRuntimeHelper extends Stub
 
                             }
                         }, "jI_RemUnknown[" + baseIID + " , L(" + socket.getLocalPort () + "):R(" + socket.getPort () + ")]" );
-                        remUnknown.setDaemon ( true );
+                        remUnknownForThisListener.add ( remUnknown );
                         remUnknown.start ();
                     }
                 }
@@ -203,7 +203,7 @@ final class JIComOxidRuntimeHelper extends Stub
             }
         }, "jI_RemUnknownListener[" + baseIID + " , " + remUnknownPort + "]" );
 
-        remUnknownThread.setDaemon ( true );
+        remUnknownForThisListener.add ( remUnknownThread );
         remUnknownThread.start ();
         return new Object[] { new Integer ( remUnknownPort ), remUnknownForThisListener };
     }
@@ -452,7 +452,7 @@ class OxidResolverImpl extends NdrObject implements IJICOMRuntimeWorker
                 final String remunknownipid = uuid.toString ();
                 final Object[] portandthread = details.getCOMRuntimeHelper ().startRemUnknown ( details.getIID (), remunknownipid, details.getIpid (), details.getReferent ().getSupportedInterfaces () );
                 port = ( (Integer)portandthread[0] ).intValue ();
-                details.setRemUnknownThreadGroup ( (ThreadGroup)portandthread[1] );
+                details.setRemUnknownThreads ( (List)portandthread[1] );
                 details.setRemUnknownIpid ( remunknownipid );
             }
             details.setPortForRemUnknown ( port );
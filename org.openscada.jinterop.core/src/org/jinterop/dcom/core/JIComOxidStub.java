@@ -30,6 +30,7 @@ import org.jinterop.dcom.transport.JIComTransportFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rpc.ConnectionOrientedEndpoint;
 import rpc.Endpoint;
 import rpc.Stub;
 
@@ -49,6 +50,12 @@ final class JIComOxidStub extends Stub
 
     private static Properties defaults = new Properties ();
 
+    //the pings are minutes apart, a connection idle for longer is checked before it is used again.
+    private static final int REVALIDATE_AFTER = 60 * 1000;
+
+    //bounds both the revalidation and the ping itself, a stale connection must not stall the ping thread.
+    private static final int TIMEOUT = 30 * 1000;
+
     static
     {
 
@@ -97,17 +104,35 @@ final class JIComOxidStub extends Stub
 
         try
         {
-            call ( Endpoint.IDEMPOTENT, pingObject );
+            attach ();
+            revalidate ();
+            ( (ConnectionOrientedEndpoint)getEndpoint () ).call ( Endpoint.IDEMPOTENT, null, pingObject.getOpnum (), pingObject, null, TIMEOUT );
         }
         catch ( final IOException e )
         {
             logger.warn ( "call", e );
+            //the next ping opens a fresh connection.
+            close ();
         }
 
         //returns setId.
         return pingObject.setId;
     }
 
+    /**
+     * Replaces the connection by a fresh one if it has been idle for long and
+     * does not answer any more.
+     */
+    private void revalidate () throws IOException
+    {
+        final ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)getEndpoint ();
+        if ( endpoint.getIdleTime () > REVALIDATE_AFTER && !JIConnectionManager.revalidate ( endpoint, TIMEOUT ) )
+        {
+            close ();
+            attach ();
+        }
+    }
+
     public void close ()
     {
         try
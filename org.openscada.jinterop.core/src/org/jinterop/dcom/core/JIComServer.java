@@ -18,9 +18,26 @@
 package org.jinterop.dcom.core;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.jinterop.dcom.common.JIDefaultAuthInfoImpl;
 import org.jinterop.dcom.common.JIErrorCodes;
@@ -37,9 +54,14 @@ import org.jinterop.winreg.JIWinRegFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rpc.CallListener;
+import rpc.ConnectionContext;
+import rpc.ConnectionOrientedEndpoint;
 import rpc.Endpoint;
+import rpc.EndpointStatistics;
 import rpc.FaultException;
 import rpc.Stub;
+import rpc.core.PresentationSyntax;
 
 /**
  * Startup class representing a COM Server.
@@ -96,9 +118,34 @@ public final class JIComServer extends Stub
 
     private String remunknownIPID = null;
 
-    private final Object mutex = new Object ();
+    //a lock rather than a monitor, blocking calls waiting on it do not pin virtual threads.
+    private final ReentrantLock mutex = new ReentrantLock ();
 
-    private boolean timeoutModifiedfrom0 = false;
+    private volatile JIConnectionPool connectionPool = null;
+
+    //IIDs obtained or called on this server, their contexts are offered with every bind and alter context.
+    private final Set interfaceIIDs = new LinkedHashSet ();
+
+    //one-way calls waiting for flushOneWay(), each entry is the builder and the IID of the target interface.
+    private final List oneWayCalls = new ArrayList ();
+
+    //workers of asynchronous calls on serialized connections, further calls queue up for them.
+    private static final int ASYNC_CALL_THREADS = 16;
+
+    //calls waiting for a worker, beyond that the caller runs the call itself.
+    private static final int ASYNC_CALL_QUEUE = 256;
+
+    private static ThreadPoolExecutor asyncCallExecutor = null;
+
+    //background idle eviction and keepalive, started with the first attach.
+    private ScheduledFuture connectionMaintenance = null;
+
+    private long lastKeepAlive = 0;
+
+    //shared by the main and the pooled connections, kept over reconnects.
+    private final EndpointStatistics statistics = new EndpointStatistics ();
+
+    private ObjectName statisticsName = null;
 
     private JIInterfacePointer interfacePtrCtor = null;
 
@@ -372,6 +419,39 @@ public final class JIComServer extends Stub
             super.getProperties ().setProperty ( "rpc.ntlm.ntlm2", "true" );
         }
 
+        //calls from several threads share the connection, deadlines are enforced per call then. The reader
+        //blocks without a socket timeout, context negotiations and the bind wait up to the global timeout instead.
+        if ( session.isCallMultiplexingEnabled () || session.isNonBlockingIOEnabled () )
+        {
+            super.getProperties ().setProperty ( "rpc.multiplex", "true" );
+            super.getProperties ().setProperty ( "rpc.socketTimeout", "0" );
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.NEGOTIATION_TIMEOUT, new Integer ( session.getGlobalSocketTimeout () ).toString () );
+        }
+        if ( session.isNonBlockingIOEnabled () )
+        {
+            super.getProperties ().setProperty ( "rpc.nonBlocking", "true" );
+        }
+        if ( session.isPipelinedConnectEnabled () )
+        {
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.PIPELINE_CONNECT, "true" );
+        }
+        if ( session.isStreamingRequestsEnabled () )
+        {
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.STREAM_REQUESTS, "true" );
+        }
+        if ( session.isIncrementalDecodeEnabled () )
+        {
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.INCREMENTAL_DECODE, "true" );
+        }
+        if ( session.getMaxTransmitFragmentSize () > 0 )
+        {
+            super.getProperties ().setProperty ( ConnectionContext.MAX_TRANSMIT_FRAGMENT, String.valueOf ( session.getMaxTransmitFragmentSize () ) );
+        }
+        if ( session.getMaxReceiveFragmentSize () > 0 )
+        {
+            super.getProperties ().setProperty ( ConnectionContext.MAX_RECEIVE_FRAGMENT, String.valueOf ( session.getMaxReceiveFragmentSize () ) );
+        }
+
         address = binding.getNetworkAddress (); //this will always have the port.
         final int index = address.indexOf ( "[" );
         final String hostname = binding.getNetworkAddress ().substring ( 0, index );
@@ -746,6 +826,39 @@ public final class JIComServer extends Stub
             super.getProperties ().setProperty ( "rpc.ntlm.ntlm2", "true" );
         }
 
+        //calls from several threads share the connection, deadlines are enforced per call then. The reader
+        //blocks without a socket timeout, context negotiations and the bind wait up to the global timeout instead.
+        if ( this.session.isCallMultiplexingEnabled () || this.session.isNonBlockingIOEnabled () )
+        {
+            super.getProperties ().setProperty ( "rpc.multiplex", "true" );
+            super.getProperties ().setProperty ( "rpc.socketTimeout", "0" );
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.NEGOTIATION_TIMEOUT, new Integer ( this.session.getGlobalSocketTimeout () ).toString () );
+        }
+        if ( this.session.isNonBlockingIOEnabled () )
+        {
+            super.getProperties ().setProperty ( "rpc.nonBlocking", "true" );
+        }
+        if ( this.session.isPipelinedConnectEnabled () )
+        {
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.PIPELINE_CONNECT, "true" );
+        }
+        if ( this.session.isStreamingRequestsEnabled () )
+        {
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.STREAM_REQUESTS, "true" );
+        }
+        if ( this.session.isIncrementalDecodeEnabled () )
+        {
+            super.getProperties ().setProperty ( ConnectionOrientedEndpoint.INCREMENTAL_DECODE, "true" );
+        }
+        if ( this.session.getMaxTransmitFragmentSize () > 0 )
+        {
+            super.getProperties ().setProperty ( ConnectionContext.MAX_TRANSMIT_FRAGMENT, String.valueOf ( this.session.getMaxTransmitFragmentSize () ) );
+        }
+        if ( this.session.getMaxReceiveFragmentSize () > 0 )
+        {
+            super.getProperties ().setProperty ( ConnectionContext.MAX_RECEIVE_FRAGMENT, String.valueOf ( this.session.getMaxReceiveFragmentSize () ) );
+        }
+
         String address = binding.getNetworkAddress (); //this will always have the port.
         final int index = address.indexOf ( "[" );
         final String hostname = binding.getNetworkAddress ().substring ( 0, index );
@@ -766,7 +879,8 @@ public final class JIComServer extends Stub
         IJIComObject retval = null;
         //this is still essentially serial, since all threads will have to wait for mutex before
         //entering addToSession.
-        synchronized ( this.mutex )
+        this.mutex.lock ();
+        try
         {
             //now also set the Object ID for IRemUnknown call this will be the IPID of the returned JIRemActivation
             setObject ( this.remunknownIPID );
@@ -793,6 +907,8 @@ public final class JIComServer extends Stub
             }
 
             retval = JIFrameworkHelper.instantiateComObject ( this.session, reqUnknown.getInterfacePointer () );
+            //calls on the new interface will follow, negotiate its context with the next one anyway.
+            offerInterface ( iid );
             //increasing the reference count.
             retval.addRef ();
             //for querying dispatch we can't send another call
@@ -829,6 +945,10 @@ public final class JIComServer extends Stub
                 }
             }
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
 
         return retval;
 
@@ -850,7 +970,8 @@ public final class JIComServer extends Stub
 
         //This method is still essentially serial, since all threads will have to stop at mutex and then
         //go to addToSession after it (since there is no condition).
-        synchronized ( this.mutex )
+        this.mutex.lock ();
+        try
         {
             if ( this.serverInstantiated )
             {
@@ -876,6 +997,10 @@ public final class JIComServer extends Stub
             comObject.addRef ();
             this.serverInstantiated = true;
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
 
         return comObject;
     }
@@ -899,7 +1024,8 @@ public final class JIComServer extends Stub
         IJIComObject comObject = null;
         //This method is still essentially serial, since all threads will have to stop at mutex and then
         //go to addToSession after it (since there is no condition).
-        synchronized ( this.mutex )
+        this.mutex.lock ();
+        try
         {
             if ( this.serverInstantiated )
             {
@@ -913,6 +1039,10 @@ public final class JIComServer extends Stub
             comObject.addRef ();
             this.serverInstantiated = true;
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
 
         return comObject;
     }
@@ -962,25 +1092,45 @@ public final class JIComServer extends Stub
      */
     Object[] call ( final JICallBuilder obj, final String targetIID, final int socketTimeout ) throws JIException
     {
-        synchronized ( this.mutex )
+        if ( this.session.getConnectionPoolSize () > 0 )
         {
+            return callPooled ( obj, targetIID, socketTimeout );
+        }
 
-            if ( this.session.isSessionInDestroy () && !obj.fromDestroySession )
+        if ( Boolean.valueOf ( getProperties ().getProperty ( "rpc.multiplex" ) ).booleanValue () )
+        {
+            final ConnectionOrientedEndpoint endpoint = getMultiplexedEndpoint ( obj );
+            if ( endpoint != null )
             {
-                throw new JIException ( JIErrorCodes.JI_SESSION_DESTROYED );
-            }
+                //the mutex is not held here, other threads may issue their calls while this one waits for its reply.
+                try
+                {
+                    call ( endpoint, obj, targetIID, socketTimeout );
+                }
+                catch ( final FaultException e )
+                {
+                    throw new JIException ( e.status, e );
+                }
+                catch ( final IOException e )
+                {
+                    throw new JIException ( JIErrorCodes.RPC_E_UNEXPECTED, e );
+                }
+                catch ( final JIRuntimeException e1 )
+                {
+                    throw new JIException ( e1 );
+                }
 
-            if ( socketTimeout != 0 )
-            {
-                setSocketTimeOut ( socketTimeout );
+                return obj.getResults ();
             }
-            else
-            //for cases where it was something earlier, but is now being set to 0.
+        }
+
+        this.mutex.lock ();
+        try
+        {
+
+            if ( this.session.isSessionInDestroy () && !obj.fromDestroySession )
             {
-                if ( this.timeoutModifiedfrom0 )
-                {
-                    setSocketTimeOut ( socketTimeout );
-                }
+                throw new JIException ( JIErrorCodes.JI_SESSION_DESTROYED );
             }
 
             try
@@ -989,14 +1139,16 @@ public final class JIComServer extends Stub
                 attach ();
                 if ( !getEndpoint ().getSyntax ().getUuid ().toString ().equalsIgnoreCase ( targetIID ) )
                 {
-                    //first send an AlterContext to the IID of the interface
+                    offerInterface ( targetIID );
+                    //first send an AlterContext to the IID of the interface, a context negotiated before is just switched to.
                     getEndpoint ().getSyntax ().setUuid ( new rpc.core.UUID ( targetIID ) );
                     getEndpoint ().getSyntax ().setVersion ( 0, 0 );
                     ( (JIComEndpoint)getEndpoint () ).rebindEndPoint ();
                 }
 
-                setObject ( obj.getParentIpid () );
-                call ( Endpoint.IDEMPOTENT, obj );
+                //the timeout is the deadline of this call alone, the socket timeout stays as it is.
+                final rpc.core.UUID object = obj.getParentIpid () == null ? null : new rpc.core.UUID ( obj.getParentIpid () );
+                ( (ConnectionOrientedEndpoint)getEndpoint () ).call ( Endpoint.IDEMPOTENT, object, obj.getOpnum (), obj, null, socketTimeout );
 
             }
             catch ( final FaultException e )
@@ -1014,7 +1166,538 @@ public final class JIComServer extends Stub
 
             return obj.getResults ();
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
+
+    }
+
+    /**
+     * Execute a Method on the COM Interface identified by the IID without
+     * waiting for the reply. On a multiplexed connection the future is
+     * completed by a callback thread of the RPC layer, otherwise the call is
+     * executed on one of a fixed number of worker threads. Either way the future fails if the reply
+     * has not arrived within <code>socketTimeout</code> millisecs, a
+     * multiplexed call is cancelled on the server then.
+     * 
+     * @exclude
+     * @param obj
+     * @param targetIID
+     * @param future
+     * @throws JIException
+     */
+    void callAsync ( final JICallBuilder obj, final String targetIID, final int socketTimeout, final JICallFuture future ) throws JIException
+    {
+        ConnectionOrientedEndpoint endpoint = null;
+        if ( this.session.getConnectionPoolSize () <= 0 && Boolean.valueOf ( getProperties ().getProperty ( "rpc.multiplex" ) ).booleanValue () )
+        {
+            endpoint = getMultiplexedEndpoint ( obj );
+        }
+
+        if ( endpoint == null )
+        {
+            getAsyncCallExecutor ().execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    try
+                    {
+                        call ( obj, targetIID, socketTimeout );
+                    }
+                    catch ( final JIException e )
+                    {
+                        future.failed ( e );
+                        return;
+                    }
+                    future.completed ();
+                }
+            } );
+            return;
+        }
+
+        final rpc.core.UUID object = obj.getParentIpid () == null ? null : new rpc.core.UUID ( obj.getParentIpid () );
+        try
+        {
+            endpoint.callAsync ( Endpoint.IDEMPOTENT, object, obj.getOpnum (), obj, new PresentationSyntax ( new rpc.core.UUID ( targetIID ), 0, 0 ), new CallListener () {
+                @Override
+                public void completed ()
+                {
+                    future.completed ();
+                }
+
+                @Override
+                public void failed ( final Exception ex )
+                {
+                    future.failed ( toJIException ( ex ) );
+                }
+            }, socketTimeout );
+        }
+        catch ( final IOException e )
+        {
+            throw toJIException ( e );
+        }
+    }
+
+    private static JIException toJIException ( final Exception e )
+    {
+        if ( e instanceof FaultException )
+        {
+            return new JIException ( ( (FaultException)e ).status, e );
+        }
+        if ( e instanceof JIRuntimeException )
+        {
+            return new JIException ( (JIRuntimeException)e );
+        }
+        return new JIException ( JIErrorCodes.RPC_E_UNEXPECTED, e );
+    }
+
+    private static synchronized Executor getAsyncCallExecutor ()
+    {
+        if ( asyncCallExecutor == null )
+        {
+            asyncCallExecutor = new ThreadPoolExecutor ( ASYNC_CALL_THREADS, ASYNC_CALL_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue ( ASYNC_CALL_QUEUE ), new ThreadFactory () {
+                private int counter = 0;
+
+                @Override
+                public synchronized Thread newThread ( final Runnable r )
+                {
+                    return JISystem.internal_newThread ( r, "jI_AsyncCall-" + counter++ );
+                }
+            }, new RejectedExecutionHandler () {
+                @Override
+                public void rejectedExecution ( final Runnable r, final ThreadPoolExecutor executor )
+                {
+                    //unlike CallerRunsPolicy also once shut down, the future must complete.
+                    r.run ();
+                }
+            } );
+            asyncCallExecutor.allowCoreThreadTimeOut ( true );
+        }
+        return asyncCallExecutor;
+    }
+
+    /**
+     * Stops the workers of asynchronous calls on serialized connections once
+     * the calls queued are done. The next asynchronous call starts them
+     * again.
+     * 
+     * @exclude
+     * @since 1.2.0
+     */
+    public static synchronized void internal_shutdown ()
+    {
+        if ( asyncCallExecutor != null )
+        {
+            asyncCallExecutor.shutdown ();
+            asyncCallExecutor = null;
+        }
+    }
+
+    /**
+     * Returns the endpoint if the server accepted call multiplexing on it,
+     * otherwise <code>null</code>.
+     */
+    private ConnectionOrientedEndpoint getMultiplexedEndpoint ( final JICallBuilder obj ) throws JIException
+    {
+        this.mutex.lock ();
+        try
+        {
+            if ( this.session.isSessionInDestroy () && !obj.fromDestroySession )
+            {
+                throw new JIException ( JIErrorCodes.JI_SESSION_DESTROYED );
+            }
+
+            try
+            {
+                attach ();
+                final ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)getEndpoint ();
+                //server did not agree, the serialized path has to be used.
+                return endpoint.isMultiplexed () ? endpoint : null;
+            }
+            catch ( final FaultException e )
+            {
+                throw new JIException ( e.status, e );
+            }
+            catch ( final IOException e )
+            {
+                throw new JIException ( JIErrorCodes.RPC_E_UNEXPECTED, e );
+            }
+        }
+        finally
+        {
+            this.mutex.unlock ();
+        }
+    }
+
+    /**
+     * Executes the call on one of the pooled connections, the mutex is only
+     * held for looking up the pool.
+     */
+    private Object[] callPooled ( final JICallBuilder obj, final String targetIID, final int socketTimeout ) throws JIException
+    {
+        final JIConnectionPool pool = getConnectionPool ( obj );
+        JIConnectionPool.Connection connection = null;
+        boolean broken = false;
+        try
+        {
+            connection = pool.acquire ();
+            call ( connection.endpoint, obj, targetIID, socketTimeout );
+        }
+        catch ( final FaultException e )
+        {
+            throw new JIException ( e.status, e );
+        }
+        catch ( final IOException e )
+        {
+            broken = true;
+            throw new JIException ( JIErrorCodes.RPC_E_UNEXPECTED, e );
+        }
+        catch ( final JIRuntimeException e1 )
+        {
+            throw new JIException ( e1 );
+        }
+        finally
+        {
+            if ( connection != null )
+            {
+                pool.release ( connection, broken );
+            }
+        }
+
+        return obj.getResults ();
+    }
+
+    private JIConnectionPool getConnectionPool ( final JICallBuilder obj ) throws JIException
+    {
+        this.mutex.lock ();
+        try
+        {
+            if ( this.session.isSessionInDestroy () && !obj.fromDestroySession )
+            {
+                throw new JIException ( JIErrorCodes.JI_SESSION_DESTROYED );
+            }
+
+            if ( this.connectionPool == null )
+            {
+                //more than one call per connection needs multiplexing, otherwise they would just queue up.
+                final boolean multiplex = Boolean.valueOf ( getProperties ().getProperty ( "rpc.multiplex" ) ).booleanValue ();
+                this.connectionPool = new JIConnectionPool ( this, this.session.getConnectionPoolSize (), multiplex ? this.session.getMaxCallsPerConnection () : 1, this.session.getConnectionIdleTimeout () );
+            }
+            return this.connectionPool;
+        }
+        finally
+        {
+            this.mutex.unlock ();
+        }
+    }
+
+    /**
+     * Queues a call to be sent with MAYBE semantics by the next
+     * {@link #flushOneWay()}.
+     * 
+     * @exclude
+     * @param obj
+     * @param targetIID
+     */
+    void queueOneWay ( final JICallBuilder obj, final String targetIID )
+    {
+        synchronized ( this.oneWayCalls )
+        {
+            this.oneWayCalls.add ( new Object[] { obj, targetIID } );
+        }
+    }
+
+    /**
+     * Sends all queued one-way calls back to back on one connection, with a
+     * single write. No replies are waited for.
+     * 
+     * @exclude
+     * @throws JIException
+     */
+    void flushOneWay () throws JIException
+    {
+        List calls = null;
+        synchronized ( this.oneWayCalls )
+        {
+            if ( this.oneWayCalls.isEmpty () )
+            {
+                return;
+            }
+            calls = new ArrayList ( this.oneWayCalls );
+            this.oneWayCalls.clear ();
+        }
+        final JICallBuilder first = (JICallBuilder) ( (Object[])calls.get ( 0 ) )[0];
+
+        try
+        {
+            if ( this.session.getConnectionPoolSize () > 0 )
+            {
+                final JIConnectionPool pool = getConnectionPool ( first );
+                JIConnectionPool.Connection connection = null;
+                boolean broken = false;
+                try
+                {
+                    connection = pool.acquire ();
+                    callOneWay ( connection.endpoint, calls );
+                }
+                catch ( final IOException e )
+                {
+                    broken = true;
+                    throw e;
+                }
+                finally
+                {
+                    if ( connection != null )
+                    {
+                        pool.release ( connection, broken );
+                    }
+                }
+                return;
+            }
+
+            if ( Boolean.valueOf ( getProperties ().getProperty ( "rpc.multiplex" ) ).booleanValue () )
+            {
+                final ConnectionOrientedEndpoint endpoint = getMultiplexedEndpoint ( first );
+                if ( endpoint != null )
+                {
+                    callOneWay ( endpoint, calls );
+                    return;
+                }
+            }
+
+            this.mutex.lock ();
+            try
+            {
+                if ( this.session.isSessionInDestroy () && !first.fromDestroySession )
+                {
+                    throw new JIException ( JIErrorCodes.JI_SESSION_DESTROYED );
+                }
+                attach ();
+                callOneWay ( (ConnectionOrientedEndpoint)getEndpoint (), calls );
+            }
+            finally
+            {
+                this.mutex.unlock ();
+            }
+        }
+        catch ( final FaultException e )
+        {
+            throw new JIException ( e.status, e );
+        }
+        catch ( final IOException e )
+        {
+            throw new JIException ( JIErrorCodes.RPC_E_UNEXPECTED, e );
+        }
+        catch ( final JIRuntimeException e1 )
+        {
+            throw new JIException ( e1 );
+        }
+    }
+
+    private void callOneWay ( final ConnectionOrientedEndpoint endpoint, final List calls ) throws IOException
+    {
+        final rpc.core.UUID[] objects = new rpc.core.UUID[calls.size ()];
+        final int[] opnums = new int[calls.size ()];
+        final JICallBuilder[] builders = new JICallBuilder[calls.size ()];
+        final PresentationSyntax[] syntaxes = new PresentationSyntax[calls.size ()];
+        for ( int i = 0; i < builders.length; i++ )
+        {
+            final Object[] call = (Object[])calls.get ( i );
+            builders[i] = (JICallBuilder)call[0];
+            final String targetIID = (String)call[1];
+            offerInterface ( targetIID );
+            objects[i] = builders[i].getParentIpid () == null ? null : new rpc.core.UUID ( builders[i].getParentIpid () );
+            opnums[i] = builders[i].getOpnum ();
+            syntaxes[i] = new PresentationSyntax ( new rpc.core.UUID ( targetIID ), 0, 0 );
+        }
+        endpoint.callOneWay ( objects, opnums, builders, syntaxes );
+    }
+
+    private void call ( final ConnectionOrientedEndpoint endpoint, final JICallBuilder obj, final String targetIID, final int timeout ) throws IOException
+    {
+        final rpc.core.UUID object = obj.getParentIpid () == null ? null : new rpc.core.UUID ( obj.getParentIpid () );
+        endpoint.call ( Endpoint.IDEMPOTENT, object, obj.getOpnum (), obj, new PresentationSyntax ( new rpc.core.UUID ( targetIID ), 0, 0 ), timeout );
+    }
+
+    /**
+     * Attaches the endpoint and offers the contexts of the known interfaces on
+     * it.
+     */
+    @Override
+    protected void attach () throws IOException
+    {
+        final boolean attached = getEndpoint () != null;
+        super.attach ();
+        if ( !attached )
+        {
+            ( (ConnectionOrientedEndpoint)getEndpoint () ).offerSyntaxes ( getInterfaceSyntaxes () );
+            ( (ConnectionOrientedEndpoint)getEndpoint () ).setStatistics ( this.statistics );
+            startConnectionMaintenance ();
+            registerStatistics ();
+        }
+    }
+
+    /**
+     * Counters of the traffic with the COM server: bytes and fragments sent
+     * and received, calls, binds and alter contexts, round trip times and
+     * the time spent waiting on the socket. They cover all connections of
+     * this <code>JIComServer</code>, including those of the connection pool,
+     * and are kept over reconnects.
+     * 
+     * @return
+     * @since 1.2.0
+     */
+    public EndpointStatistics getStatistics ()
+    {
+        return this.statistics;
+    }
+
+    private synchronized void registerStatistics ()
+    {
+        if ( this.statisticsName != null || !JISystem.isStatisticsMBeansEnabled () )
+        {
+            return;
+        }
+        try
+        {
+            final ObjectName name = new ObjectName ( "org.jinterop:type=JIComServer,address=" + ObjectName.quote ( getAddress () ) + ",id=" + System.identityHashCode ( this ) );
+            ManagementFactory.getPlatformMBeanServer ().registerMBean ( this.statistics, name );
+            this.statisticsName = name;
+        }
+        catch ( final JMException e )
+        {
+            logger.warn ( "Could not register the statistics of " + getAddress (), e );
+        }
+    }
+
+    private synchronized void unregisterStatistics ()
+    {
+        if ( this.statisticsName == null )
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer ().unregisterMBean ( this.statisticsName );
+        }
+        catch ( final JMException e )
+        {
+            logger.debug ( "Could not unregister " + this.statisticsName, e );
+        }
+        this.statisticsName = null;
+    }
 
+    private synchronized void startConnectionMaintenance ()
+    {
+        final long period = JIConnectionManager.getPeriod ( this.session );
+        if ( this.connectionMaintenance != null || period <= 0 )
+        {
+            return;
+        }
+        this.connectionMaintenance = JIConnectionManager.schedule ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                maintainConnections ();
+            }
+        }, period );
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout and
+     * revalidates those idle for longer than the keepalive interval, run by
+     * the {@link JIConnectionManager}.
+     */
+    private void maintainConnections ()
+    {
+        final int idleTimeout = this.session.getConnectionIdleTimeout ();
+        final int keepAliveInterval = this.session.getConnectionKeepAliveInterval ();
+        final int timeout = JIConnectionManager.getKeepAliveTimeout ( this.session );
+
+        final JIConnectionPool pool = this.connectionPool;
+        if ( pool != null )
+        {
+            pool.maintain ( keepAliveInterval, timeout );
+        }
+
+        this.mutex.lock ();
+        try
+        {
+            final ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)getEndpoint ();
+            if ( endpoint == null || this.session.isSessionInDestroy () )
+            {
+                return;
+            }
+            final long idle = endpoint.getIdleTime ();
+            final long now = System.currentTimeMillis ();
+            if ( idleTimeout > 0 && idle > idleTimeout )
+            {
+                if ( logger.isDebugEnabled () )
+                {
+                    logger.debug ( "Closing idle connection to " + getAddress () );
+                }
+            }
+            else if ( keepAliveInterval > 0 && idle > keepAliveInterval && now - this.lastKeepAlive > keepAliveInterval )
+            {
+                this.lastKeepAlive = now;
+                if ( JIConnectionManager.revalidate ( endpoint, timeout ) )
+                {
+                    return;
+                }
+            }
+            else
+            {
+                return;
+            }
+
+            try
+            {
+                detach ();
+            }
+            catch ( final IOException e )
+            {
+                //nothing to do, the connection is gone anyway.
+            }
+        }
+        finally
+        {
+            this.mutex.unlock ();
+        }
+    }
+
+    private void offerInterface ( final String iid )
+    {
+        synchronized ( this.interfaceIIDs )
+        {
+            if ( !this.interfaceIIDs.add ( iid.toUpperCase () ) )
+            {
+                return;
+            }
+        }
+        final ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)getEndpoint ();
+        if ( endpoint != null )
+        {
+            endpoint.offerSyntaxes ( new PresentationSyntax[] { new PresentationSyntax ( new rpc.core.UUID ( iid ), 0, 0 ) } );
+        }
+    }
+
+    /**
+     * Returns the syntaxes of the interfaces obtained or called on this server
+     * so far.
+     */
+    PresentationSyntax[] getInterfaceSyntaxes ()
+    {
+        synchronized ( this.interfaceIIDs )
+        {
+            final PresentationSyntax[] syntaxes = new PresentationSyntax[this.interfaceIIDs.size ()];
+            int i = 0;
+            for ( final Iterator iterator = this.interfaceIIDs.iterator (); iterator.hasNext (); )
+            {
+                syntaxes[i++] = new PresentationSyntax ( new rpc.core.UUID ( (String)iterator.next () ), 0, 0 );
+            }
+            return syntaxes;
+        }
     }
 
     /**
@@ -1029,7 +1712,8 @@ public final class JIComServer extends Stub
 
     void addRef_ReleaseRef ( final JICallBuilder obj ) throws JIException
     {
-        synchronized ( this.mutex )
+        this.mutex.lock ();
+        try
         {
 
             if ( this.remunknownIPID == null )
@@ -1049,10 +1733,29 @@ public final class JIComServer extends Stub
             }
 
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
     }
 
     void closeStub ()
     {
+        synchronized ( this )
+        {
+            if ( this.connectionMaintenance != null )
+            {
+                this.connectionMaintenance.cancel ( false );
+                this.connectionMaintenance = null;
+            }
+        }
+        unregisterStatistics ();
+        //not under the mutex, closing must abort calls which are still waiting for their reply.
+        final JIConnectionPool pool = this.connectionPool;
+        if ( pool != null )
+        {
+            pool.close ();
+        }
         try
         {
             detach ();
@@ -1063,19 +1766,4 @@ public final class JIComServer extends Stub
             //			e.printStackTrace();
         }
     }
-
-    void setSocketTimeOut ( final int timeout )
-    {
-        if ( timeout == 0 )
-        {
-            this.timeoutModifiedfrom0 = false;
-        }
-        else
-        {
-            this.timeoutModifiedfrom0 = true;
-        }
-
-        getProperties ().setProperty ( "rpc.socketTimeout", new Integer ( timeout ).toString () );
-    }
-
 }
@@ -0,0 +1,127 @@
+/**j-Interop (Pure Java implementation of DCOM protocol)  
+ * Copyright (C) 2006  Vikram Roopchand
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * Though a sincere effort has been made to deliver a professional, 
+ * quality product,the library itself is distributed WITHOUT ANY WARRANTY; 
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jinterop.dcom.common.JISystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rpc.ConnectionOrientedEndpoint;
+
+/**
+ * Keeps the connections to the COM servers healthy in the background.
+ * Connections unused for longer than the idle timeout of their session are
+ * closed, idle ones are revalidated with an alter context every keepalive
+ * interval and closed if the server does not answer in time. A closed
+ * connection is opened again by the next call, so that callers get a fresh
+ * connection instead of waiting out the socket timeout on a stale one.
+ *
+ * @exclude
+ * @since 1.2.0
+ * @see JISession#setConnectionIdleTimeout(int)
+ * @see JISession#setConnectionKeepAliveInterval(int)
+ */
+final class JIConnectionManager
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( JIConnectionManager.class );
+
+    private static ScheduledExecutorService timer = null;
+
+    private JIConnectionManager ()
+    {
+    }
+
+    /**
+     * Runs <code>task</code> every <code>period</code> millisecs on the
+     * thread of the manager, until the returned future is cancelled.
+     */
+    static synchronized ScheduledFuture schedule ( final Runnable task, final long period )
+    {
+        if ( timer == null )
+        {
+            timer = JISystem.internal_newScheduler ( "jI_ConnectionManager" );
+        }
+        final Runnable timerTask = new Runnable () {
+            @Override
+            public void run ()
+            {
+                try
+                {
+                    task.run ();
+                }
+                catch ( final RuntimeException e )
+                {
+                    //keep maintaining the other connections.
+                    logger.warn ( "Connection maintenance failed", e );
+                }
+            }
+        };
+        return timer.scheduleWithFixedDelay ( timerTask, period, period, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Returns the period the maintenance of a session's connections runs at,
+     * 0 if neither idle timeout nor keepalive are configured.
+     */
+    static long getPeriod ( final JISession session )
+    {
+        final long idleTimeout = session.getConnectionIdleTimeout ();
+        final long keepAlive = session.getConnectionKeepAliveInterval ();
+        if ( idleTimeout <= 0 || keepAlive <= 0 )
+        {
+            return Math.max ( Math.max ( idleTimeout, keepAlive ), 0 );
+        }
+        return Math.min ( idleTimeout, keepAlive );
+    }
+
+    /**
+     * Returns how long a keepalive may wait for the answer of the server,
+     * the global socket timeout of the session if set, else the keepalive
+     * interval.
+     */
+    static int getKeepAliveTimeout ( final JISession session )
+    {
+        final int timeout = session.getGlobalSocketTimeout ();
+        return timeout > 0 ? timeout : session.getConnectionKeepAliveInterval ();
+    }
+
+    /**
+     * Pings the server on <code>endpoint</code>, returns <code>false</code>
+     * if it did not answer within <code>timeout</code> millisecs and the
+     * connection has to be dropped.
+     */
+    static boolean revalidate ( final ConnectionOrientedEndpoint endpoint, final int timeout )
+    {
+        try
+        {
+            endpoint.ping ( timeout );
+            return true;
+        }
+        catch ( final IOException e )
+        {
+            logger.info ( "Connection failed revalidation, closing it", e );
+            return false;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/**j-Interop (Pure Java implementation of DCOM protocol)  
+ * Copyright (C) 2006  Vikram Roopchand
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * Though a sincere effort has been made to deliver a professional, 
+ * quality product,the library itself is distributed WITHOUT ANY WARRANTY; 
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rpc.ConnectionOrientedEndpoint;
+import rpc.core.PresentationSyntax;
+
+/**
+ * Physical connections of a <code>JIComServer</code> used for executing
+ * methods. Each connection has its own transport and NTLM context, calls are
+ * given to the connection with the fewest calls in flight, new connections are
+ * opened up to the pool size and connections idle for longer than the idle
+ * timeout are closed. {@link #maintain(long, int)} does the same in the
+ * background and revalidates idle connections.
+ *
+ * @since 1.2.0
+ */
+final class JIConnectionPool
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( JIConnectionPool.class );
+
+    private final JIComServer server;
+
+    private final int maxSize;
+
+    private final int maxInFlight;
+
+    private final long idleTimeout;
+
+    //guards the state below, a lock rather than the monitor so that a virtual thread waiting for a connection is not pinned.
+    private final ReentrantLock lock = new ReentrantLock ();
+
+    //signalled whenever a call completes, a connection was opened or removed, or the pool closed.
+    private final Condition changed = this.lock.newCondition ();
+
+    private final List connections = new ArrayList ();
+
+    //connections being opened right now, they count against the pool size.
+    private int opening = 0;
+
+    private boolean closed = false;
+
+    JIConnectionPool ( final JIComServer server, final int maxSize, final int maxInFlight, final long idleTimeout )
+    {
+        this.server = server;
+        this.maxSize = maxSize;
+        this.maxInFlight = maxInFlight <= 0 ? 1 : maxInFlight;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns a connection with room for one more call, opens a new one if
+     * all are busy and the pool is not full, otherwise waits for a call to
+     * complete. Must be paired with {@link #release(Connection, boolean)}.
+     */
+    Connection acquire () throws IOException
+    {
+        final List evicted = new ArrayList ();
+        try
+        {
+            this.lock.lock ();
+            try
+            {
+                while ( true )
+                {
+                    if ( this.closed )
+                    {
+                        throw new IOException ( "Connection pool closed." );
+                    }
+                    evictIdle ( evicted );
+
+                    Connection best = null;
+                    for ( final Iterator iterator = this.connections.iterator (); iterator.hasNext (); )
+                    {
+                        final Connection connection = (Connection)iterator.next ();
+                        if ( connection.inFlight < this.maxInFlight && ( best == null || connection.inFlight < best.inFlight ) )
+                        {
+                            best = connection;
+                        }
+                    }
+
+                    //prefer opening a new connection over sharing a busy one.
+                    if ( ( best == null || best.inFlight > 0 ) && this.connections.size () + this.opening < this.maxSize )
+                    {
+                        this.opening++;
+                        break;
+                    }
+
+                    if ( best != null )
+                    {
+                        best.inFlight++;
+                        return best;
+                    }
+
+                    try
+                    {
+                        this.changed.await ();
+                    }
+                    catch ( final InterruptedException e )
+                    {
+                        //the caller gets an IOException, the interrupt is kept for it to see.
+                        Thread.currentThread ().interrupt ();
+                        throw new InterruptedIOException ( "Interrupted while waiting for a pooled connection." );
+                    }
+                }
+            }
+            finally
+            {
+                this.lock.unlock ();
+            }
+        }
+        finally
+        {
+            close ( evicted );
+        }
+
+        //the connection is opened outside the lock, binding may take a while.
+        Connection connection = null;
+        try
+        {
+            connection = open ();
+        }
+        finally
+        {
+            this.lock.lock ();
+            try
+            {
+                this.opening--;
+                if ( connection != null )
+                {
+                    connection.inFlight++;
+                    this.connections.add ( connection );
+                }
+                this.changed.signalAll ();
+            }
+            finally
+            {
+                this.lock.unlock ();
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the connection to the pool, a <code>broken</code> connection is
+     * closed and removed.
+     */
+    void release ( final Connection connection, final boolean broken )
+    {
+        this.lock.lock ();
+        try
+        {
+            connection.inFlight--;
+            connection.lastUsed = System.currentTimeMillis ();
+            if ( broken )
+            {
+                this.connections.remove ( connection );
+            }
+            this.changed.signalAll ();
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        if ( broken )
+        {
+            connection.close ();
+        }
+    }
+
+    void close ()
+    {
+        final List all = new ArrayList ();
+        this.lock.lock ();
+        try
+        {
+            this.closed = true;
+            all.addAll ( this.connections );
+            this.connections.clear ();
+            this.changed.signalAll ();
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        close ( all );
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout and pings
+     * those idle for longer than <code>keepAliveInterval</code> (if not 0),
+     * connections not answering within <code>timeout</code> are closed.
+     */
+    void maintain ( final long keepAliveInterval, final int timeout )
+    {
+        final List evicted = new ArrayList ();
+        final List idle = new ArrayList ();
+        this.lock.lock ();
+        try
+        {
+            if ( this.closed )
+            {
+                return;
+            }
+            evictIdle ( evicted );
+            if ( keepAliveInterval > 0 )
+            {
+                final long now = System.currentTimeMillis ();
+                for ( final Iterator iterator = this.connections.iterator (); iterator.hasNext (); )
+                {
+                    final Connection connection = (Connection)iterator.next ();
+                    if ( connection.inFlight == 0 && now - connection.lastUsed > keepAliveInterval && now - connection.lastChecked > keepAliveInterval )
+                    {
+                        //reserved while being checked, calls go elsewhere meanwhile.
+                        connection.inFlight++;
+                        connection.lastChecked = now;
+                        idle.add ( connection );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        close ( evicted );
+
+        for ( final Iterator iterator = idle.iterator (); iterator.hasNext (); )
+        {
+            final Connection connection = (Connection)iterator.next ();
+            final boolean broken = !JIConnectionManager.revalidate ( connection.endpoint, timeout );
+            this.lock.lock ();
+            try
+            {
+                connection.inFlight--;
+                if ( broken )
+                {
+                    this.connections.remove ( connection );
+                }
+                this.changed.signalAll ();
+            }
+            finally
+            {
+                this.lock.unlock ();
+            }
+            if ( broken )
+            {
+                connection.close ();
+            }
+        }
+    }
+
+    int size ()
+    {
+        this.lock.lock ();
+        try
+        {
+            return this.connections.size ();
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * Must hold the lock.
+     */
+    private void evictIdle ( final List evicted )
+    {
+        if ( this.idleTimeout <= 0 )
+        {
+            return;
+        }
+        final long now = System.currentTimeMillis ();
+        for ( final Iterator iterator = this.connections.iterator (); iterator.hasNext (); )
+        {
+            final Connection connection = (Connection)iterator.next ();
+            if ( connection.inFlight == 0 && now - connection.lastUsed > this.idleTimeout )
+            {
+                iterator.remove ();
+                evicted.add ( connection );
+            }
+        }
+    }
+
+    private void close ( final List connections )
+    {
+        for ( final Iterator iterator = connections.iterator (); iterator.hasNext (); )
+        {
+            ( (Connection)iterator.next () ).close ();
+        }
+    }
+
+    private Connection open () throws IOException
+    {
+        //own copy, so that the per call socket timeout of one connection does not leak into the others.
+        final Properties properties = new Properties ( this.server.getProperties () );
+        final ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)this.server.getTransportFactory ().createTransport ( this.server.getAddress (), properties ).attach ( new PresentationSyntax ( this.server.getSyntax () ) );
+        //the bind carries the contexts of all interfaces known so far.
+        endpoint.offerSyntaxes ( this.server.getInterfaceSyntaxes () );
+        endpoint.setStatistics ( this.server.getStatistics () );
+        if ( logger.isDebugEnabled () )
+        {
+            logger.debug ( "Opened pooled connection to " + this.server.getAddress () );
+        }
+        return new Connection ( endpoint, properties );
+    }
+
+    /**
+     * One physical connection of the pool.
+     */
+    static final class Connection
+    {
+        final ConnectionOrientedEndpoint endpoint;
+
+        final Properties properties;
+
+        int inFlight = 0;
+
+        long lastUsed = System.currentTimeMillis ();
+
+        long lastChecked = 0;
+
+        Connection ( final ConnectionOrientedEndpoint endpoint, final Properties properties )
+        {
+            this.endpoint = endpoint;
+            this.properties = properties;
+        }
+
+        void close ()
+        {
+            try
+            {
+                this.endpoint.detach ();
+            }
+            catch ( final IOException e )
+            {
+                //nothing to do, the connection is gone anyway.
+            }
+        }
+    }
+}
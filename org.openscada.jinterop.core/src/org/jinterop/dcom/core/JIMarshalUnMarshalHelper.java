@@ -19,6 +19,7 @@ package org.jinterop.dcom.core;
 import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -26,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 
 import jcifs.util.Encdec;
+import ndr.NdrBuffer;
 import ndr.NdrException;
 import ndr.NetworkDataRepresentation;
 
@@ -52,6 +54,7 @@ final class JIMarshalUnMarshalHelper
     static
     {
 
+        mapOfSerializers.put ( JIArray.class, new JIMarshalUnMarshalHelper.ArrayImpl () );
         mapOfSerializers.put ( Date.class, new JIMarshalUnMarshalHelper.DateImpl () );
         mapOfSerializers.put ( JICurrency.class, new JIMarshalUnMarshalHelper.JICurrencyImpl () );
         mapOfSerializers.put ( VariantBody.class, new JIMarshalUnMarshalHelper.JIVariant2Impl () );
@@ -102,218 +105,213 @@ final class JIMarshalUnMarshalHelper
         }
     }
 
-    static void serialize ( final NetworkDataRepresentation ndr, Class c, final Object value, final List defferedPointers, final int FLAG )
+    /**
+     * The codec registered for <code>c</code>, each knows how to encode,
+     * decode, size and align the values of its type. Resolving it is a
+     * single lookup, the registry is complete once this class is loaded.
+     */
+    private static SerializerDeserializer getSerializer ( final Class c )
     {
-        if ( c.equals ( JIArray.class ) )
+        final SerializerDeserializer serializer = (SerializerDeserializer)mapOfSerializers.get ( c );
+        if ( serializer == null )
         {
-            ( (JIArray)value ).encode ( ndr, ( (JIArray)value ).getArrayInstance (), defferedPointers, FLAG );
+            throw new IllegalStateException ( MessageFormat.format ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_SERDESER_NOT_FOUND ), new String[] { c.toString () } ) );
         }
-        else
-        {
-            if ( ( c != IJIComObject.class || c != IJIDispatch.class ) && value instanceof IJIComObject )
-            {
-                c = IJIComObject.class;
-            }
+        return serializer;
+    }
 
-            alignMemberWhileEncoding ( ndr, c, value );
+    /**
+     * The class a member of a structure or union is marshalled as, members
+     * being values when encoding and values or classes when decoding.
+     */
+    private static Class getMemberClass ( final Object member )
+    {
+        if ( member instanceof IJIComObject )
+        {
+            return IJIComObject.class;
+        }
+        return member instanceof Class ? (Class)member : member.getClass ();
+    }
 
-            if ( c.equals ( JIString.class ) )
-            {
-                ( (JIString)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
-            }
+    /**
+     * The codecs and alignments of the members of a structure or union,
+     * resolved once for the classes of its members. A plan fits every
+     * structure with members of the same classes, so that instances of the
+     * same shape, like the elements of an array, can share it.
+     */
+    static final class Plan
+    {
+        private final Class[] classes;
 
-            if ( c.equals ( JIPointer.class ) )
-            {
-                ( (JIPointer)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
-            }
+        private final SerializerDeserializer[] codecs;
 
-            if ( c.equals ( JIStruct.class ) )
-            {
-                ( (JIStruct)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
-            }
+        private final int[] alignments;
 
-            if ( c.equals ( JIUnion.class ) )
-            {
-                ( (JIUnion)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
-            }
+        private int alignment = -1;
 
-            //			if (c.equals(JIDispatchImpl.class) || c.equals(IJIDispatch.class))
-            //			{
-            //				IJIComObject unknown = ((JIDispatchImpl)value).getCOMObject();
-            //				JIInterfacePointer interfacePointer = new JIInterfacePointer(IJIDispatch.IID,unknown.getInterfacePointer());
-            //				interfacePointer.encode(ndr,defferedPointers,FLAG);
-            //				return ;
-            //			}
-            //
-            //			if (c.equals(JIComObjectImpl.class) || c.equals(IJIComObject.class) || c.equals(IJIUnknown.class))
-            //			{
-            //				JIInterfacePointer interfacePointer = ((IJIComObject)value).getInterfacePointer();
-            //				interfacePointer.encode(ndr,defferedPointers,FLAG);
-            //				return ;
-            //			}
-
-            if ( c.equals ( JIInterfacePointer.class ) )
+        Plan ( final List members )
+        {
+            final int size = members.size ();
+            this.classes = new Class[size];
+            this.codecs = new SerializerDeserializer[size];
+            this.alignments = new int[size];
+            for ( int i = 0; i < size; i++ )
             {
-                ( (JIInterfacePointer)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
+                final Object member = members.get ( i );
+                this.classes[i] = getMemberClass ( member );
+                this.codecs[i] = getSerializer ( this.classes[i] );
+                //structures and unions align to their own members, these are asked every time.
+                this.alignments[i] = this.classes[i] == JIStruct.class || this.classes[i] == JIUnion.class ? -1 : this.codecs[i].getAlignment ( member );
             }
+        }
 
-            if ( c.equals ( JIVariant.class ) )
+        /**
+         * Whether the plan was compiled for members of these classes.
+         */
+        boolean matches ( final List members )
+        {
+            if ( members.size () != this.classes.length )
             {
-                ( (JIVariant)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
+                return false;
             }
-
-            if ( c.equals ( VariantBody.class ) )
+            for ( int i = 0; i < this.classes.length; i++ )
             {
-                ( (VariantBody)value ).encode ( ndr, defferedPointers, FLAG );
-                return;
+                if ( getMemberClass ( members.get ( i ) ) != this.classes[i] )
+                {
+                    return false;
+                }
             }
+            return true;
+        }
 
-            if ( mapOfSerializers.get ( c ) == null )
+        /**
+         * Whether the alignment of the owner is given by the classes of the
+         * members alone, that is none of them is a structure or union.
+         */
+        boolean isFixed ()
+        {
+            for ( int i = 0; i < this.alignments.length; i++ )
             {
-                throw new IllegalStateException ( MessageFormat.format ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_SERDESER_NOT_FOUND ), new String[] { c.toString () } ) );
+                if ( this.alignments[i] < 0 )
+                {
+                    return false;
+                }
             }
-            ( (SerializerDeserializer)mapOfSerializers.get ( c ) ).serializeData ( ndr, value, defferedPointers, FLAG );
+            return true;
         }
-    }
 
-    static void alignMemberWhileEncoding ( final NetworkDataRepresentation ndr, final Class c, final Object obj )
-    {
-        final double index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
-        if ( c.equals ( JIStruct.class ) )
+        /**
+         * The alignment of the owner recorded with {@link #setAlignment(int)},
+         * -1 if there is none yet.
+         */
+        int getAlignment ()
         {
-            final double align = new Integer ( ( (JIStruct)obj ).getAlignment () ).doubleValue ();
-            long i = (long) ( ( i = Math.round ( index % align ) ) == 0 ? 0 : align - i );
-            ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
+            return this.alignment;
         }
-        else if ( c.equals ( JIUnion.class ) )
+
+        void setAlignment ( final int alignment )
         {
-            final double align = new Integer ( ( (JIUnion)obj ).getAlignment () ).doubleValue ();
-            long i = (long) ( ( i = Math.round ( index % align ) ) == 0 ? 0 : align - i );
-            ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
+            this.alignment = alignment;
         }
-        else if ( /*c.equals(Character.class) || c.equals(Byte.class) ||*/c.equals ( Integer.class ) || c.equals ( Float.class ) || c.equals ( JIVariant.class ) || c.equals ( String.class ) || c.equals ( JIPointer.class ) )
+
+        void serialize ( final NetworkDataRepresentation ndr, final int member, final Object value, final List defferedPointers, final int FLAG )
         {
-            //align with 4 bytes
-            long i = ( i = Math.round ( index % 4.0 ) ) == 0 ? 0 : 4 - i;
-            ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
+            final SerializerDeserializer serializer = this.codecs[member];
+            alignWhileEncoding ( ndr, this.alignments[member] < 0 ? serializer.getAlignment ( value ) : this.alignments[member] );
+            serializer.serializeData ( ndr, value, defferedPointers, FLAG );
         }
-        else if ( c.equals ( Double.class ) )
+
+        Object deSerialize ( final NetworkDataRepresentation ndr, final int member, final Object obj, final List defferedPointers, final int FLAG, final Map additionalData )
         {
-            //align with 8
-            long i = ( i = Math.round ( index % 8.0 ) ) == 0 ? 0 : 8 - i;
-            ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
+            final SerializerDeserializer serializer = this.codecs[member];
+            alignWhileDecoding ( ndr, this.alignments[member] < 0 ? serializer.getAlignment ( obj ) : this.alignments[member] );
+            return serializer.deserializeData ( ndr, obj, defferedPointers, additionalData, FLAG );
         }
-        else if ( c.equals ( Short.class ) )
+    }
+
+    static void serialize ( final NetworkDataRepresentation ndr, Class c, final Object value, final List defferedPointers, final int FLAG )
+    {
+        if ( value instanceof IJIComObject )
         {
-            long i = ( i = Math.round ( index % 2.0 ) ) == 0 ? 0 : 2 - i;
-            ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
+            c = IJIComObject.class;
         }
+        final SerializerDeserializer serializer = getSerializer ( c );
+        alignWhileEncoding ( ndr, serializer.getAlignment ( value ) );
+        serializer.serializeData ( ndr, value, defferedPointers, FLAG );
     }
 
-    static void alignMemberWhileDecoding ( final NetworkDataRepresentation ndr, final Class c, final Object obj )
+    static void alignMemberWhileEncoding ( final NetworkDataRepresentation ndr, final Class c, final Object obj )
     {
-        final double index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
-        if ( c.equals ( JIStruct.class ) )
+        final SerializerDeserializer serializer = (SerializerDeserializer)mapOfSerializers.get ( c );
+        if ( serializer != null )
         {
-            final double align = new Integer ( ( (JIStruct)obj ).getAlignment () ).doubleValue ();
-            long i = (long) ( ( i = Math.round ( index % align ) ) == 0 ? 0 : align - i );
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
+            alignWhileEncoding ( ndr, serializer.getAlignment ( obj ) );
         }
-        else if ( c.equals ( JIUnion.class ) )
+    }
+
+    /**
+     * Pads with zeros up to the next multiple of <code>alignment</code>,
+     * written straight into the buffer.
+     */
+    static void alignWhileEncoding ( final NetworkDataRepresentation ndr, final int alignment )
+    {
+        final int i = getPadding ( ndr, alignment );
+        if ( i > 0 )
         {
-            final double align = new Integer ( ( (JIUnion)obj ).getAlignment () ).doubleValue ();
-            long i = (long) ( ( i = Math.round ( index % align ) ) == 0 ? 0 : align - i );
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
+            final NdrBuffer buffer = ndr.getBuffer ();
+            Arrays.fill ( buffer.getBuffer (), buffer.getIndex (), buffer.getIndex () + i, (byte)0 );
+            buffer.advance ( i );
         }
-        else if ( c.equals ( Integer.class ) || c.equals ( Float.class ) || c.equals ( JIVariant.class ) || c.equals ( String.class ) || c.equals ( JIPointer.class ) )
+    }
+
+    static void alignMemberWhileDecoding ( final NetworkDataRepresentation ndr, final Class c, final Object obj )
+    {
+        final SerializerDeserializer serializer = (SerializerDeserializer)mapOfSerializers.get ( c );
+        if ( serializer != null )
         {
-            //align with 4 bytes
-            long i = ( i = Math.round ( index % 4.0 ) ) == 0 ? 0 : 4 - i;
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
+            alignWhileDecoding ( ndr, serializer.getAlignment ( obj ) );
         }
-        else if ( c.equals ( Double.class ) )
+    }
+
+    /**
+     * Skips the padding up to the next multiple of <code>alignment</code>.
+     */
+    static void alignWhileDecoding ( final NetworkDataRepresentation ndr, final int alignment )
+    {
+        final int i = getPadding ( ndr, alignment );
+        if ( i > 0 )
         {
-            //align with 8
-            long i = ( i = Math.round ( index % 8.0 ) ) == 0 ? 0 : 8 - i;
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
+            ndr.getBuffer ().require ( i );
+            ndr.getBuffer ().advance ( i );
         }
-        else if ( c.equals ( Short.class ) )
+    }
+
+    /**
+     * The padding is relative to the start of the buffer, a received stub
+     * is decoded where it lies within the fragment.
+     */
+    private static int getPadding ( final NetworkDataRepresentation ndr, final int alignment )
+    {
+        if ( alignment <= 1 )
         {
-            long i = ( i = Math.round ( index % 2.0 ) ) == 0 ? 0 : 2 - i;
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
+            return 0;
         }
+        final NdrBuffer buffer = ndr.getBuffer ();
+        final int i = ( buffer.getIndex () - buffer.start ) % alignment;
+        return i == 0 ? 0 : alignment - i;
     }
 
+    /**
+     * Decodes a value of the type of <code>obj</code>. That is a class, or an
+     * instance serving as template for the types whose layout is not known
+     * from the class alone (arrays, pointers, structs, unions and strings).
+     */
     static Object deSerialize ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final int FLAG, final Map additionalData )
     {
         final Class c = obj instanceof Class ? (Class)obj : obj.getClass ();
-        if ( c.equals ( JIArray.class ) )
-        {
-            return ( (JIArray)obj ).decode ( ndr, ( (JIArray)obj ).getArrayClass (), ( (JIArray)obj ).getDimensions (), defferedPointers, FLAG, additionalData );
-        }
-        else
-        {
-
-            alignMemberWhileDecoding ( ndr, c, obj );
-
-            if ( c.equals ( JIPointer.class ) )
-            {
-                final JIPointer retVal = ( (JIPointer)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            if ( c.equals ( JIStruct.class ) )
-            {
-                final JIStruct retVal = ( (JIStruct)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            if ( c.equals ( JIUnion.class ) )
-            {
-                final JIUnion retVal = ( (JIUnion)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            if ( c.equals ( JIString.class ) )
-            {
-                final JIString retVal = ( (JIString)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            //This will always be a class
-            if ( obj.equals ( JIInterfacePointer.class ) )
-            {
-                final JIInterfacePointer retVal = JIInterfacePointer.decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            //This will always be a class
-            if ( obj.equals ( JIVariant.class ) )
-            {
-                final JIVariant retVal = JIVariant.decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            //This will always be a class
-            if ( obj.equals ( VariantBody.class ) )
-            {
-                final VariantBody retVal = VariantBody.decode ( ndr, defferedPointers, FLAG, additionalData );
-                return retVal;
-            }
-
-            if ( mapOfSerializers.get ( obj ) == null )
-            {
-                throw new IllegalStateException ( MessageFormat.format ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_SERDESER_NOT_FOUND ), new String[] { obj.toString () } ) );
-            }
-            return ( (SerializerDeserializer)mapOfSerializers.get ( obj ) ).deserializeData ( ndr, defferedPointers, additionalData, FLAG );
-        }
-
+        final SerializerDeserializer serializer = getSerializer ( c );
+        alignWhileDecoding ( ndr, serializer.getAlignment ( obj ) );
+        return serializer.deserializeData ( ndr, obj, defferedPointers, additionalData, FLAG );
     }
 
     static int getLengthInBytes ( Class c, final Object obj, final int FLAG )
@@ -322,44 +320,78 @@ final class JIMarshalUnMarshalHelper
         {
             return ( (JIArray)obj ).getSizeOfAllElementsInBytes ();
         }
-        else
+        if ( obj instanceof IJIComObject )
         {
-            if ( ( c != IJIComObject.class || c != IJIDispatch.class ) && obj instanceof IJIComObject )
-            {
-                c = IJIComObject.class;
-            }
-
-            if ( (SerializerDeserializer)mapOfSerializers.get ( c ) == null )
-            {
-                throw new IllegalStateException ( MessageFormat.format ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_SERDESER_NOT_FOUND ), new String[] { c.toString () } ) );
-            }
-            return ( (SerializerDeserializer)mapOfSerializers.get ( c ) ).getLengthInBytes ( obj, FLAG );
+            c = IJIComObject.class;
         }
-
+        return getSerializer ( c ).getLengthInBytes ( obj, FLAG );
     }
 
     private interface SerializerDeserializer
     {
         void serializeData ( NetworkDataRepresentation ndr, Object value, List defferedPointers, int FLAG );
 
-        Object deserializeData ( NetworkDataRepresentation ndr, List defferedPointers, Map additionalData, int FLAG );
+        /**
+         * @param obj
+         *            the class or the template passed to
+         *            {@link JIMarshalUnMarshalHelper#deSerialize(NetworkDataRepresentation, Object, List, int, Map)}
+         */
+        Object deserializeData ( NetworkDataRepresentation ndr, Object obj, List defferedPointers, Map additionalData, int FLAG );
 
         int getLengthInBytes ( Object value, int FLAG );
+
+        /**
+         * The boundary the value is aligned to before it is encoded or
+         * decoded, 0 if it aligns itself.
+         */
+        int getAlignment ( Object value );
+    }
+
+    private static abstract class AbstractSerializerDeserializer implements SerializerDeserializer
+    {
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 0;
+        }
     }
 
-    private static class PointerImpl implements SerializerDeserializer
+    private static class ArrayImpl extends AbstractSerializerDeserializer
     {
 
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIArray)value ).encode ( ndr, ( (JIArray)value ).getArrayInstance (), defferedPointers, FLAG );
+        }
+
+        @Override
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
+        {
+            return ( (JIArray)obj ).decode ( ndr, ( (JIArray)obj ).getArrayClass (), ( (JIArray)obj ).getDimensions (), defferedPointers, FLAG, additionalData );
+        }
+
+        @Override
+        public int getLengthInBytes ( final Object value, final int FLAG )
+        {
+            return ( (JIArray)value ).getSizeOfAllElementsInBytes ();
         }
 
+    }
+
+    private static class PointerImpl extends AbstractSerializerDeserializer
+    {
+
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIPointer)value ).encode ( ndr, defferedPointers, FLAG );
+        }
+
+        @Override
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
+        {
+            return ( (JIPointer)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -368,9 +400,15 @@ final class JIMarshalUnMarshalHelper
             return ( (JIPointer)value ).getLength ();
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 4;
+        }
+
     }
 
-    private static class JIUnsignedIntImpl implements SerializerDeserializer
+    private static class JIUnsignedIntImpl extends AbstractSerializerDeserializer
     {
 
         @Override
@@ -380,7 +418,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final Integer b = (Integer)JIMarshalUnMarshalHelper.deSerialize ( ndr, Integer.class, null, FLAG, additionalData );
             return JIUnsignedFactory.getUnsigned ( new Long ( b.intValue () & 0xFFFFFFFFL ), JIFlags.FLAG_REPRESENTATION_UNSIGNED_INT );
@@ -394,7 +432,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class JIUnsignedByteImpl implements SerializerDeserializer
+    private static class JIUnsignedByteImpl extends AbstractSerializerDeserializer
     {
 
         @Override
@@ -404,7 +442,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final Byte b = (Byte)JIMarshalUnMarshalHelper.deSerialize ( ndr, Byte.class, null, FLAG, additionalData );
             return JIUnsignedFactory.getUnsigned ( new Short ( (short) ( b.byteValue () & 0xFF ) ), JIFlags.FLAG_REPRESENTATION_UNSIGNED_BYTE );
@@ -418,7 +456,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class JIUnsignedShortImpl implements SerializerDeserializer
+    private static class JIUnsignedShortImpl extends AbstractSerializerDeserializer
     {
 
         @Override
@@ -428,7 +466,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final Short b = (Short)JIMarshalUnMarshalHelper.deSerialize ( ndr, Short.class, null, FLAG, additionalData );
             return JIUnsignedFactory.getUnsigned ( new Integer ( b.shortValue () & 0xFFFF ), JIFlags.FLAG_REPRESENTATION_UNSIGNED_SHORT );
@@ -441,7 +479,7 @@ final class JIMarshalUnMarshalHelper
         }
     }
 
-    //	private static class JIUnsignedImpl implements SerializerDeserializer {
+    //	private static class JIUnsignedImpl extends AbstractSerializerDeserializer {
     //
     //		public void serializeData(NetworkDataRepresentation ndr,Object value,List defferedPointers,int FLAG)
     //		{
@@ -556,19 +594,19 @@ final class JIMarshalUnMarshalHelper
     //
     //	}
 
-    private static class StructImpl implements SerializerDeserializer
+    private static class StructImpl extends AbstractSerializerDeserializer
     {
 
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIStruct)value ).encode ( ndr, defferedPointers, FLAG );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            return ( (JIStruct)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -577,21 +615,27 @@ final class JIMarshalUnMarshalHelper
             return ( (JIStruct)value ).getLength ();
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return ( (JIStruct)value ).getAlignment ();
+        }
+
     }
 
-    private static class UnionImpl implements SerializerDeserializer
+    private static class UnionImpl extends AbstractSerializerDeserializer
     {
 
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIUnion)value ).encode ( ndr, defferedPointers, FLAG );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            return ( (JIUnion)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -600,9 +644,15 @@ final class JIMarshalUnMarshalHelper
             return ( (JIUnion)value ).getLength ();
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return ( (JIUnion)value ).getAlignment ();
+        }
+
     }
 
-    private static class IJIComObjectSerDer implements SerializerDeserializer
+    private static class IJIComObjectSerDer extends AbstractSerializerDeserializer
     {
 
         @Override
@@ -612,7 +662,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final JISession session = (JISession)additionalData.get ( JICallBuilder.CURRENTSESSION );
             final IJIComObject comObject = new JIComObjectImpl ( session, (JIInterfacePointer)deSerialize ( ndr, JIInterfacePointer.class, defferedPointers, FLAG, additionalData ) );
@@ -629,7 +679,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    //	private static class IJIDispatchImpl implements SerializerDeserializer {
+    //	private static class IJIDispatchImpl extends AbstractSerializerDeserializer {
     //
     //
     //		public void serializeData(NetworkDataRepresentation ndr,Object value,List defferedPointers,int FLAG)
@@ -653,18 +703,18 @@ final class JIMarshalUnMarshalHelper
     //
     //	}
 
-    private static class JIVariant2Impl implements SerializerDeserializer
+    private static class JIVariant2Impl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (VariantBody)value ).encode ( ndr, defferedPointers, FLAG );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            return VariantBody.decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -675,19 +725,19 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class JIVariantImpl implements SerializerDeserializer
+    private static class JIVariantImpl extends AbstractSerializerDeserializer
     {
 
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIVariant)value ).encode ( ndr, defferedPointers, FLAG );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            return JIVariant.decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -704,9 +754,15 @@ final class JIMarshalUnMarshalHelper
             }
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 4;
+        }
+
     }
 
-    private static class CharacterImpl implements SerializerDeserializer
+    private static class CharacterImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
@@ -715,7 +771,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final Character c = new Character ( (char)ndr.readUnsignedSmall () );
             return c;
@@ -729,7 +785,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class ByteImpl implements SerializerDeserializer
+    private static class ByteImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
@@ -738,7 +794,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final Byte c = new Byte ( (byte)ndr.readUnsignedSmall () );
             return c;
@@ -752,7 +808,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class ShortImpl implements SerializerDeserializer
+    private static class ShortImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, Object value, final List defferedPointers, final int FLAG )
@@ -766,7 +822,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             final Short s = new Short ( (short)ndr.readUnsignedShort () );
             return s;
@@ -780,9 +836,15 @@ final class JIMarshalUnMarshalHelper
             }
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 2;
+        }
+
     }
 
-    private static class BooleanImpl implements SerializerDeserializer
+    private static class BooleanImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, Object value, final List defferedPointers, final int FLAG )
@@ -804,7 +866,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             Boolean b = null;
             if ( ( FLAG & JIFlags.FLAG_REPRESENTATION_VARIANT_BOOL ) == JIFlags.FLAG_REPRESENTATION_VARIANT_BOOL )
@@ -834,7 +896,7 @@ final class JIMarshalUnMarshalHelper
         }
     }
 
-    private static class IntegerImpl implements SerializerDeserializer
+    private static class IntegerImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, Object value, final List defferedPointers, final int FLAG )
@@ -847,7 +909,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             return new Integer ( ndr.readUnsignedLong () );
         }
@@ -860,9 +922,15 @@ final class JIMarshalUnMarshalHelper
             }
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 4;
+        }
+
     }
 
-    private static class LongImpl implements SerializerDeserializer
+    private static class LongImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, Object value, final List defferedPointers, final int FLAG )
@@ -871,13 +939,13 @@ final class JIMarshalUnMarshalHelper
             {
                 value = new Long ( Long.MIN_VALUE );
             }
-            ndr.getBuffer ().align ( 8 );
+            ndr.getBuffer ().align ( 8, (byte)0 );
             Encdec.enc_uint64le ( ( (Long)value ).longValue (), ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () );
             ndr.getBuffer ().advance ( 8 );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             ndr.getBuffer ().align ( 8 );
             final Long b = new Long ( Encdec.dec_uint64le ( ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () ) );
@@ -893,7 +961,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class DoubleImpl implements SerializerDeserializer
+    private static class DoubleImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, Object value, final List defferedPointers, final int FLAG )
@@ -903,14 +971,14 @@ final class JIMarshalUnMarshalHelper
                 value = new Double ( Double.NaN );
             }
 
-            ndr.getBuffer ().align ( 8 );
+            ndr.getBuffer ().align ( 8, (byte)0 );
             Encdec.enc_doublele ( ( (Double)value ).doubleValue (), ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () );
             ndr.getBuffer ().advance ( 8 );
 
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             ndr.getBuffer ().align ( 8 );
             final Double b = new Double ( Encdec.dec_doublele ( ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () ) );
@@ -927,9 +995,15 @@ final class JIMarshalUnMarshalHelper
             }
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 8;
+        }
+
     }
 
-    private static class JICurrencyImpl implements SerializerDeserializer
+    private static class JICurrencyImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
@@ -962,9 +1036,7 @@ final class JIMarshalUnMarshalHelper
             }
 
             //			now align by 8 bytes, since this is struct has a hyper, which I don't support yet
-            final double index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
-            long i = ( i = Math.round ( index % 8.0 ) ) == 0 ? 0 : 8 - i;
-            ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
+            alignWhileEncoding ( ndr, 8 );
 
             final JIStruct struct = new JIStruct ();
             try
@@ -981,12 +1053,10 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             //first align
-            final double index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
-            long i = ( i = Math.round ( index % 8.0 ) ) == 0 ? 0 : 8 - i;
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
+            alignWhileDecoding ( ndr, 8 );
 
             //now read the low byte
             int lowbyte = ndr.readUnsignedLong ();
@@ -1013,7 +1083,7 @@ final class JIMarshalUnMarshalHelper
     }
 
     //will only get called from a variant.
-    private static class DateImpl implements SerializerDeserializer
+    private static class DateImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
@@ -1023,14 +1093,14 @@ final class JIMarshalUnMarshalHelper
             //				value = new Double(Double.NaN);
             //			}
 
-            ndr.getBuffer ().align ( 8 );
+            ndr.getBuffer ().align ( 8, (byte)0 );
             Encdec.enc_doublele ( convertMillisecondsToWindowsTime ( ( (Date)value ).getTime () ), ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () );
             ndr.getBuffer ().advance ( 8 );
 
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             ndr.getBuffer ().align ( 8 );
             final Date b = new Date ( convertWindowsTimeToMilliseconds ( Encdec.dec_doublele ( ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () ) ) );
@@ -1099,7 +1169,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class FloatImpl implements SerializerDeserializer
+    private static class FloatImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, Object value, final List defferedPointers, final int FLAG )
@@ -1108,14 +1178,14 @@ final class JIMarshalUnMarshalHelper
             {
                 value = new Float ( Float.NaN );
             }
-            ndr.getBuffer ().align ( 4 );
+            ndr.getBuffer ().align ( 4, (byte)0 );
             Encdec.enc_floatle ( ( (Float)value ).floatValue (), ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () );
             ndr.getBuffer ().advance ( 4 );
 
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             ndr.getBuffer ().align ( 4 );
             final Float b = new Float ( Encdec.dec_floatle ( ndr.getBuffer ().getBuffer (), ndr.getBuffer ().getIndex () ) );
@@ -1133,9 +1203,15 @@ final class JIMarshalUnMarshalHelper
 
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 4;
+        }
+
     }
 
-    private static class StringImpl implements SerializerDeserializer
+    private static class StringImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
@@ -1248,7 +1324,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             if ( ( FLAG & JIFlags.FLAG_REPRESENTATION_VALID_STRING ) != JIFlags.FLAG_REPRESENTATION_VALID_STRING )
             {
@@ -1378,20 +1454,26 @@ final class JIMarshalUnMarshalHelper
             return length;
         }
 
+        @Override
+        public int getAlignment ( final Object value )
+        {
+            return 4;
+        }
+
     }
 
-    private static class JIStringImpl implements SerializerDeserializer
+    private static class JIStringImpl extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIString)value ).encode ( ndr, defferedPointers, FLAG );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            return ( (JIString)obj ).decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -1412,7 +1494,7 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class UUIDImpl implements SerializerDeserializer
+    private static class UUIDImpl extends AbstractSerializerDeserializer
     {
         private final static Logger logger = LoggerFactory.getLogger ( JIMarshalUnMarshalHelper.UUIDImpl.class );
 
@@ -1430,7 +1512,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             UUID ret = new UUID ();
             try
@@ -1453,19 +1535,19 @@ final class JIMarshalUnMarshalHelper
 
     }
 
-    private static class MInterfacePointerImpl implements SerializerDeserializer
+    private static class MInterfacePointerImpl extends AbstractSerializerDeserializer
     {
 
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            ( (JIInterfacePointer)value ).encode ( ndr, defferedPointers, FLAG );
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
-            throw new IllegalStateException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_UTIL_INCORRECT_CALL ) );
+            return JIInterfacePointer.decode ( ndr, defferedPointers, FLAG, additionalData );
         }
 
         @Override
@@ -1475,7 +1557,7 @@ final class JIMarshalUnMarshalHelper
         }
     }
 
-    private static class MInterfacePointerImpl2 implements SerializerDeserializer
+    private static class MInterfacePointerImpl2 extends AbstractSerializerDeserializer
     {
         @Override
         public void serializeData ( final NetworkDataRepresentation ndr, final Object value, final List defferedPointers, final int FLAG )
@@ -1484,7 +1566,7 @@ final class JIMarshalUnMarshalHelper
         }
 
         @Override
-        public Object deserializeData ( final NetworkDataRepresentation ndr, final List defferedPointers, final Map additionalData, final int FLAG )
+        public Object deserializeData ( final NetworkDataRepresentation ndr, final Object obj, final List defferedPointers, final Map additionalData, final int FLAG )
         {
             return JIInterfacePointerBody.decode ( ndr, FLAG );
         }
@@ -19,6 +19,7 @@ package org.jinterop.dcom.core;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
@@ -26,6 +27,7 @@ import org.jinterop.dcom.common.JIRuntimeException;
 import org.jinterop.dcom.transport.JIComEndpoint;
 import org.jinterop.dcom.transport.JIComTransportFactory;
 
+import rpc.ConnectionOrientedEndpoint;
 import rpc.Endpoint;
 import rpc.FaultException;
 import rpc.Stub;
@@ -51,9 +53,7 @@ final class JIRemUnknownServer extends Stub
 
     private String remunknownIPID = null;
 
-    private final Object mutex = new Object ();
-
-    private boolean timeoutModifiedfrom0 = false;
+    private final ReentrantLock mutex = new ReentrantLock ();
 
     /**
      * Interface pointer to the initialized COM server , must be called
@@ -127,7 +127,8 @@ final class JIRemUnknownServer extends Stub
      */
     Object[] call ( final JICallBuilder obj, final String targetIID, final int socketTimeout ) throws JIException
     {
-        synchronized ( this.mutex )
+        this.mutex.lock ();
+        try
         {
 
             if ( this.session.isSessionInDestroy () && !obj.fromDestroySession )
@@ -135,19 +136,6 @@ final class JIRemUnknownServer extends Stub
                 throw new JIException ( JIErrorCodes.JI_SESSION_DESTROYED );
             }
 
-            if ( socketTimeout != 0 )
-            {
-                setSocketTimeOut ( socketTimeout );
-            }
-            else
-            //for cases where it was something earlier, but is now being set to 0.
-            {
-                if ( this.timeoutModifiedfrom0 )
-                {
-                    setSocketTimeOut ( socketTimeout );
-                }
-            }
-
             try
             {
 
@@ -160,8 +148,9 @@ final class JIRemUnknownServer extends Stub
                     ( (JIComEndpoint)getEndpoint () ).rebindEndPoint ();
                 }
 
-                setObject ( obj.getParentIpid () );
-                call ( Endpoint.IDEMPOTENT, obj );
+                //the timeout is the deadline of this call alone, the socket timeout stays as it is.
+                final rpc.core.UUID object = obj.getParentIpid () == null ? null : new rpc.core.UUID ( obj.getParentIpid () );
+                ( (ConnectionOrientedEndpoint)getEndpoint () ).call ( Endpoint.IDEMPOTENT, object, obj.getOpnum (), obj, null, socketTimeout );
 
             }
             catch ( final FaultException e )
@@ -179,12 +168,17 @@ final class JIRemUnknownServer extends Stub
 
             return obj.getResults ();
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
 
     }
 
     void addRef_ReleaseRef ( final JICallBuilder obj ) throws JIException
     {
-        synchronized ( this.mutex )
+        this.mutex.lock ();
+        try
         {
 
             if ( this.remunknownIPID == null )
@@ -204,6 +198,10 @@ final class JIRemUnknownServer extends Stub
             }
 
         }
+        finally
+        {
+            this.mutex.unlock ();
+        }
     }
 
     void closeStub ()
@@ -217,19 +215,4 @@ final class JIRemUnknownServer extends Stub
             //			e.printStackTrace();
         }
     }
-
-    void setSocketTimeOut ( final int timeout )
-    {
-        if ( timeout == 0 )
-        {
-            this.timeoutModifiedfrom0 = false;
-        }
-        else
-        {
-            this.timeoutModifiedfrom0 = true;
-        }
-
-        getProperties ().setProperty ( "rpc.socketTimeout", new Integer ( timeout ).toString () );
-    }
-
 }
@@ -31,8 +31,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.jinterop.dcom.common.IJIAuthInfo;
 import org.jinterop.dcom.common.IJIUnreferenced;
@@ -98,7 +98,7 @@ public final class JISession
 
     private final List listOfDeferencedIpids = new ArrayList ();
 
-    private static Timer releaseRefsTimer = new Timer ( true );
+    private static ScheduledExecutorService releaseRefsTimer = JISystem.internal_newScheduler ( "jI_ReleaseRefsTimer" );
 
     private final Map mapOfUnreferencedHandlers = new HashMap ();
 
@@ -108,6 +108,28 @@ public final class JISession
 
     private boolean useNTLMv2 = false;
 
+    private boolean useCallMultiplexing = false;
+
+    private boolean useNonBlockingIO = false;
+
+    private boolean usePipelinedConnect = false;
+
+    private boolean useStreamingRequests = false;
+
+    private boolean useIncrementalDecode = false;
+
+    private int connectionPoolSize = 0;
+
+    private int maxCallsPerConnection = 1;
+
+    private int connectionIdleTimeout = 0;
+
+    private int connectionKeepAliveInterval = 0;
+
+    private int maxTransmitFragmentSize = 0;
+
+    private int maxReceiveFragmentSize = 0;
+
     private boolean isSSO = false;
 
     private final ArrayList links = new ArrayList ();
@@ -140,7 +162,7 @@ public final class JISession
     //to each session for clean up.
     static ReferenceQueue referenceQueueOfCOMObjects = new ReferenceQueue ();
 
-    static Thread cleanUpThread = new Thread ( new Runnable () {
+    static Thread cleanUpThread = JISystem.internal_newThread ( new Runnable () {
         @Override
         public void run ()
         {
@@ -260,14 +282,13 @@ public final class JISession
 
         //start the cleanup thread.
         // and create a shutdown hook also.
-        cleanUpThread.setDaemon ( true );
         //cleanUpThread.setPriority(Thread.MIN_PRIORITY);
         cleanUpThread.start ();
 
         JIComOxidRuntime.startResolver ();
         JIComOxidRuntime.startResolverTimer ();
         oxidResolverPort = JIComOxidRuntime.getOxidResolverPort ();
-        releaseRefsTimer.scheduleAtFixedRate ( new Release_References_TimerTask (), 0, 3 * 60 * 1000 );
+        releaseRefsTimer.scheduleAtFixedRate ( new Release_References_TimerTask (), 0, 3 * 60 * 1000, TimeUnit.MILLISECONDS );
 
         Runtime.getRuntime ().addShutdownHook ( new Thread ( new Runnable () {
             @Override
@@ -289,7 +310,8 @@ public final class JISession
                 }
                 JISystem.internal_writeProgIdsToFile ();
                 JIComOxidRuntime.stopResolver ();
-                releaseRefsTimer.cancel ();
+                releaseRefsTimer.shutdown ();
+                JISystem.shutdown ();
                 mapOfSessionIdsVsSessions.clear ();
                 mapOfObjects.clear ();
                 listOfSessions.clear ();
@@ -298,7 +320,7 @@ public final class JISession
 
     }
 
-    private static class Release_References_TimerTask extends TimerTask
+    private static class Release_References_TimerTask implements Runnable
     {
         @Override
         public void run ()
@@ -1104,6 +1126,368 @@ public final class JISession
         return !this.isSSO & this.useNTLMv2;
     }
 
+    /**
+     * <p>
+     * Sets the use of concurrent call multiplexing (default is disabled). When
+     * enabled, the <code>JIComServer</code> asks the COM server to accept
+     * several outstanding calls on the same connection. Calls from different
+     * threads are then no longer serialized, each reply is routed to its
+     * caller by the call id. If the COM server does not agree, calls are
+     * serialized as before. Once the <code>JIComServer</code> is bound to this
+     * session (using any of the <code>JIComServer</code> constructors) this
+     * setting <b>cannot</b> be changed.
+     * <p>
+     * 
+     * @param enable
+     *            <code>true</code> to enable.
+     */
+    public void useCallMultiplexing ( final boolean enable )
+    {
+        this.useCallMultiplexing = enable;
+    }
+
+    /**
+     * <p>
+     * Flag indicating whether concurrent call multiplexing is enabled.
+     * </p>
+     * 
+     * @return <code>true</code> for enabled.
+     */
+    public boolean isCallMultiplexingEnabled ()
+    {
+        return this.useCallMultiplexing;
+    }
+
+    /**
+     * <p>
+     * Sets the use of non blocking I/O (default is disabled). When enabled,
+     * the connections of the <code>JIComServer</code> are served by the shared
+     * selector threads (see {@link JISystem#setSelectorThreadCount(int)})
+     * instead of one reader thread each. Replies are routed to the waiting
+     * calls by their call id, hence this setting implies call multiplexing.
+     * Once the
+     * <code>JIComServer</code> is bound to this session (using any of the
+     * <code>JIComServer</code> constructors) this setting <b>cannot</b> be
+     * changed.
+     * <p>
+     * 
+     * @param enable
+     *            <code>true</code> to enable.
+     * @see #useCallMultiplexing(boolean)
+     */
+    public void useNonBlockingIO ( final boolean enable )
+    {
+        this.useNonBlockingIO = enable;
+    }
+
+    /**
+     * <p>
+     * Flag indicating whether non blocking I/O is enabled.
+     * </p>
+     * 
+     * @return <code>true</code> for enabled.
+     */
+    public boolean isNonBlockingIOEnabled ()
+    {
+        return this.useNonBlockingIO;
+    }
+
+    /**
+     * <p>
+     * Sets the use of pipelined connects (default is disabled). When enabled,
+     * the final NTLM message of the bind handshake (AUTH3), which the COM
+     * server does not answer, is not written on its own but together with the
+     * first PDU sent on the new connection. This saves a write and any delay
+     * the network stack adds to small consecutive writes, which matters when
+     * many short lived sessions are created. Once the <code>JIComServer</code>
+     * is bound to this session (using any of the <code>JIComServer</code>
+     * constructors) this setting <b>cannot</b> be changed.
+     * <p>
+     * 
+     * @param enable
+     *            <code>true</code> to enable.
+     * @since 1.2.0
+     */
+    public void usePipelinedConnect ( final boolean enable )
+    {
+        this.usePipelinedConnect = enable;
+    }
+
+    /**
+     * <p>
+     * Flag indicating whether pipelined connects are enabled.
+     * </p>
+     * 
+     * @return <code>true</code> for enabled.
+     * @since 1.2.0
+     */
+    public boolean isPipelinedConnectEnabled ()
+    {
+        return this.usePipelinedConnect;
+    }
+
+    /**
+     * <p>
+     * Sets the use of streamed requests (default is disabled). When enabled,
+     * the parameters of a call are sent in fragments while the call is still
+     * being encoded, a fragment goes out as soon as it is full. Calls carrying
+     * large parameters, such as big arrays, then no longer need a buffer
+     * holding all of them at once and the transmission overlaps with the
+     * encoding. Small calls are not affected. On a connection where the
+     * server accepted call multiplexing requests are never streamed, a
+     * streamed call would keep the other calling threads off the connection
+     * until its last fragment is out. Once the <code>JIComServer</code>
+     * is bound to this session (using any of the <code>JIComServer</code>
+     * constructors) this setting <b>cannot</b> be changed.
+     * <p>
+     * 
+     * @param enable
+     *            <code>true</code> to enable.
+     * @since 1.2.0
+     */
+    public void useStreamingRequests ( final boolean enable )
+    {
+        this.useStreamingRequests = enable;
+    }
+
+    /**
+     * <p>
+     * Flag indicating whether streamed requests are enabled.
+     * </p>
+     * 
+     * @return <code>true</code> for enabled.
+     * @since 1.2.0
+     */
+    public boolean isStreamingRequestsEnabled ()
+    {
+        return this.useStreamingRequests;
+    }
+
+    /**
+     * <p>
+     * Sets the use of incremental decoding (default is disabled). When
+     * enabled, the results of a call start being decoded as soon as the first
+     * fragment of the reply has arrived, instead of after the last one. This
+     * lowers the latency of calls returning large results, such as
+     * <code>IEnumVARIANT::Next</code> or big SAFEARRAYs. It applies to calls
+     * on connections without call multiplexing, see
+     * {@link #useCallMultiplexing(boolean)}. Once the <code>JIComServer</code>
+     * is bound to this session (using any of the <code>JIComServer</code>
+     * constructors) this setting <b>cannot</b> be changed.
+     * <p>
+     * 
+     * @param enable
+     *            <code>true</code> to enable.
+     * @since 1.2.0
+     */
+    public void useIncrementalDecode ( final boolean enable )
+    {
+        this.useIncrementalDecode = enable;
+    }
+
+    /**
+     * <p>
+     * Flag indicating whether incremental decoding is enabled.
+     * </p>
+     * 
+     * @return <code>true</code> for enabled.
+     * @since 1.2.0
+     */
+    public boolean isIncrementalDecodeEnabled ()
+    {
+        return this.useIncrementalDecode;
+    }
+
+    /**
+     * <p>
+     * Sets the number of physical connections the <code>JIComServer</code>
+     * may open for executing methods (default is 0, all calls share the one
+     * connection of the <code>JIComServer</code>). Each pooled connection is
+     * authenticated on its own and calls are spread across them, which only
+     * pays off if the COM server executes calls in parallel (MTA). Once the
+     * <code>JIComServer</code> is bound to this session (using any of the
+     * <code>JIComServer</code> constructors) this setting <b>cannot</b> be
+     * changed.
+     * </p>
+     * 
+     * @param size
+     *            maximum number of pooled connections, 0 to disable pooling.
+     */
+    public void setConnectionPoolSize ( final int size )
+    {
+        this.connectionPoolSize = size;
+    }
+
+    /**
+     * Returns the maximum number of pooled connections, 0 if pooling is
+     * disabled.
+     * 
+     * @return
+     */
+    public int getConnectionPoolSize ()
+    {
+        return this.connectionPoolSize;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of calls in flight on one pooled connection
+     * (default is 1). Values above 1 only take effect if call multiplexing is
+     * enabled and accepted by the COM server, otherwise calls sharing a
+     * connection are executed one after the other.
+     * </p>
+     * 
+     * @param max
+     * @see #useCallMultiplexing(boolean)
+     */
+    public void setMaxCallsPerConnection ( final int max )
+    {
+        this.maxCallsPerConnection = max;
+    }
+
+    /**
+     * Returns the maximum number of calls in flight on one pooled connection.
+     * 
+     * @return
+     */
+    public int getMaxCallsPerConnection ()
+    {
+        return this.maxCallsPerConnection;
+    }
+
+    /**
+     * <p>
+     * Sets the time after which an unused connection is closed (default is 0,
+     * never). This applies to the pooled connections and, from 3.0 on, to the
+     * connection of the <code>JIComServer</code> itself, which is opened
+     * again by the next call.
+     * </p>
+     * 
+     * @param timeout
+     *            in millisecs
+     */
+    public void setConnectionIdleTimeout ( final int timeout )
+    {
+        this.connectionIdleTimeout = timeout;
+    }
+
+    /**
+     * Returns the time after which an unused pooled connection is closed.
+     * 
+     * @return
+     */
+    public int getConnectionIdleTimeout ()
+    {
+        return this.connectionIdleTimeout;
+    }
+
+    /**
+     * <p>
+     * Sets the interval at which connections of the <code>JIComServer</code>
+     * which have been idle for at least as long are revalidated in the
+     * background (default is 0, never). The revalidation is an alter context
+     * without any effect on the server, it waits at most the global socket
+     * timeout (or the interval if there is none) for the answer. A connection
+     * which fails it is closed, the next call opens a fresh one instead of
+     * hanging on a connection dropped by the network. Once the
+     * <code>JIComServer</code> is bound to this session this setting
+     * <b>cannot</b> be changed.
+     * </p>
+     * 
+     * @param interval
+     *            in millisecs
+     * @since 1.2.0
+     */
+    public void setConnectionKeepAliveInterval ( final int interval )
+    {
+        this.connectionKeepAliveInterval = interval;
+    }
+
+    /**
+     * Returns the interval at which idle connections are revalidated, 0 if
+     * they are not.
+     * 
+     * @return
+     * @since 1.2.0
+     */
+    public int getConnectionKeepAliveInterval ()
+    {
+        return this.connectionKeepAliveInterval;
+    }
+
+    /**
+     * <p>
+     * Sets the largest fragment the <code>JIComServer</code> offers to send
+     * (default is 0, meaning 4280 bytes). Larger fragments need fewer headers,
+     * signatures and round trips for big arguments. The COM server may accept
+     * less during the bind, the smaller value is used then. Once the
+     * <code>JIComServer</code> is bound to this session (using any of the
+     * <code>JIComServer</code> constructors) this setting <b>cannot</b> be
+     * changed.
+     * </p>
+     * 
+     * @param size
+     *            fragment size in bytes, between 1432 and 65535, 0 for the
+     *            default.
+     */
+    public void setMaxTransmitFragmentSize ( final int size )
+    {
+        this.maxTransmitFragmentSize = checkFragmentSize ( size );
+    }
+
+    /**
+     * <p>
+     * Largest fragment the <code>JIComServer</code> offers to send, 0 for the
+     * default.
+     * </p>
+     * 
+     * @return
+     */
+    public int getMaxTransmitFragmentSize ()
+    {
+        return this.maxTransmitFragmentSize;
+    }
+
+    /**
+     * <p>
+     * Sets the largest fragment the <code>JIComServer</code> offers to
+     * receive (default is 0, meaning 4280 bytes). Large results such as
+     * arrays then arrive in fewer fragments. Once the <code>JIComServer</code>
+     * is bound to this session (using any of the <code>JIComServer</code>
+     * constructors) this setting <b>cannot</b> be changed.
+     * </p>
+     * 
+     * @param size
+     *            fragment size in bytes, between 1432 and 65535, 0 for the
+     *            default.
+     */
+    public void setMaxReceiveFragmentSize ( final int size )
+    {
+        this.maxReceiveFragmentSize = checkFragmentSize ( size );
+    }
+
+    /**
+     * <p>
+     * Largest fragment the <code>JIComServer</code> offers to receive, 0 for
+     * the default.
+     * </p>
+     * 
+     * @return
+     */
+    public int getMaxReceiveFragmentSize ()
+    {
+        return this.maxReceiveFragmentSize;
+    }
+
+    private static int checkFragmentSize ( final int size )
+    {
+        if ( size != 0 && ( size < 1432 || size > 65535 ) )
+        {
+            throw new IllegalArgumentException ( "Fragment size must be between 1432 and 65535 bytes: " + size );
+        }
+        return size;
+    }
+
     /**
      * <p>
      * Links the src with target. These two sessions can now be destroyed in a
@@ -50,6 +50,8 @@ public final class JIStruct implements Serializable
 
     private boolean arrayAdded = false;
 
+    private transient JIMarshalUnMarshalHelper.Plan plan = null;
+
     public static final JIStruct MEMBER_IS_EMPTY = new JIStruct ();
 
     /**
@@ -241,8 +243,25 @@ public final class JIStruct implements Serializable
         return this.listOfMembers.size ();
     }
 
+    /**
+     * The marshalling plan for the current members. It is compiled on first
+     * use and kept as long as the classes of the members stay the same,
+     * <code>hint</code> is taken over instead of compiling a new one if it
+     * fits.
+     */
+    JIMarshalUnMarshalHelper.Plan getPlan ( final JIMarshalUnMarshalHelper.Plan hint )
+    {
+        if ( this.plan == null || !this.plan.matches ( this.listOfMembers ) )
+        {
+            this.plan = hint != null && hint.matches ( this.listOfMembers ) ? hint : new JIMarshalUnMarshalHelper.Plan ( this.listOfMembers );
+        }
+        return this.plan;
+    }
+
     void encode ( final NetworkDataRepresentation ndr, final List defferedPointers, final int FLAG )
     {
+        final JIMarshalUnMarshalHelper.Plan plan = getPlan ( null );
+
         //first write all Max counts and then the rest of the structs
         for ( int i = 0; i < this.listOfMaxCounts.size (); i++ )
         {
@@ -260,7 +279,7 @@ public final class JIStruct implements Serializable
                     //written before.
                     ( (JIArray)o ).setConformant ( false );
                 }
-                JIMarshalUnMarshalHelper.serialize ( ndr, o.getClass (), o, defferedPointers, FLAG );
+                plan.serialize ( ndr, i, o, defferedPointers, FLAG );
                 if ( o instanceof JIArray )
                 {
                     //noew reset this, so that next time when the same struct is written everything goes proper.
@@ -273,6 +292,7 @@ public final class JIStruct implements Serializable
 
     JIStruct decode ( final NetworkDataRepresentation ndr, final List defferedPointers, final int FLAG, final Map additionalData )
     {
+        final JIMarshalUnMarshalHelper.Plan plan = getPlan ( null );
         final JIStruct retVal = new JIStruct ();
         final ArrayList listOfMaxCounts2 = new ArrayList ();
         //first read all Max counts and then the rest of the structs
@@ -302,7 +322,7 @@ public final class JIStruct implements Serializable
                     j++;
                 }
             }
-            final Object o1 = JIMarshalUnMarshalHelper.deSerialize ( ndr, o, defferedPointers, FLAG, additionalData );
+            final Object o1 = plan.deSerialize ( ndr, i, o, defferedPointers, FLAG, additionalData );
             if ( o instanceof JIArray )
             {
                 if ( ( (JIArray)o ).isConformant () || ( (JIArray)o ).isVarying () )
@@ -324,6 +344,8 @@ public final class JIStruct implements Serializable
         }
 
         //do not copy other members since the addMember above will take care of all the conditions.
+        //the decoded members have the classes of the template, so it can use the same plan.
+        retVal.plan = plan;
         return retVal;
     }
 
@@ -354,6 +376,12 @@ public final class JIStruct implements Serializable
 
     int getAlignment ()
     {
+        final JIMarshalUnMarshalHelper.Plan plan = getPlan ( null );
+        if ( plan.getAlignment () >= 0 )
+        {
+            return plan.getAlignment ();
+        }
+
         int alignment = 0;
 
         for ( int i = 0; i < this.listOfMembers.size (); i++ )
@@ -411,6 +439,10 @@ public final class JIStruct implements Serializable
             }
         }
 
+        if ( plan.isFixed () )
+        {
+            plan.setAlignment ( alignment );
+        }
         return alignment;
     }
 
@@ -18,6 +18,7 @@
 package org.jinterop.dcom.core;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -60,6 +61,8 @@ public final class JIUnion implements Serializable
 
     private Class discriminantClass = null;
 
+    private transient Layout layout = null;
+
     //private int length = 0;
     //private int lengthOfDisc = 0;
     //private Union clone = null;
@@ -125,6 +128,7 @@ public final class JIUnion implements Serializable
         }
 
         this.dsVsMember.put ( discriminant, member );
+        this.layout = null;
     }
 
     /**
@@ -156,6 +160,7 @@ public final class JIUnion implements Serializable
         }
 
         this.dsVsMember.put ( discriminant, member );
+        this.layout = null;
         //do not need a seperate list of pointers like the struct , since based on the discriminant only 1 pointer
         //(if present) can be deserialized\serialized.
     }
@@ -169,6 +174,7 @@ public final class JIUnion implements Serializable
     public void removeMember ( final Object discriminant )
     {
         this.dsVsMember.remove ( discriminant );
+        this.layout = null;
     }
 
     /**
@@ -181,6 +187,61 @@ public final class JIUnion implements Serializable
         return this.dsVsMember;
     }
 
+    /**
+     * The marshalling plan of a union, the discriminant is member 0 and the
+     * members follow at the index kept per discriminant.
+     */
+    private static final class Layout
+    {
+        private final JIMarshalUnMarshalHelper.Plan plan;
+
+        private final Map indexes;
+
+        private final Object[] members;
+
+        private Layout ( final Class discriminantClass, final Map dsVsMember )
+        {
+            final List members = new ArrayList ();
+            this.indexes = new HashMap ();
+            members.add ( discriminantClass );
+            final Iterator itr = dsVsMember.entrySet ().iterator ();
+            while ( itr.hasNext () )
+            {
+                final Map.Entry entry = (Map.Entry)itr.next ();
+                this.indexes.put ( entry.getKey (), new Integer ( members.size () ) );
+                members.add ( entry.getValue () );
+            }
+            this.members = members.toArray ();
+            this.plan = new JIMarshalUnMarshalHelper.Plan ( members );
+        }
+
+        /**
+         * Index of the member of <code>discriminant</code> in the plan, -1 if
+         * the plan was not compiled for <code>member</code>.
+         */
+        private int indexOf ( final Object discriminant, final Object member )
+        {
+            final Integer index = (Integer)this.indexes.get ( discriminant );
+            return index != null && this.members[index.intValue ()] == member ? index.intValue () : -1;
+        }
+    }
+
+    /**
+     * The layout for the current members, compiled on first use and again
+     * after the members have changed, also if they were changed through
+     * {@link #getMembers()}.
+     */
+    private Layout getLayout ( final Object discriminant, final Object member )
+    {
+        Layout layout = this.layout;
+        if ( layout == null || member != null && layout.indexOf ( discriminant, member ) < 0 )
+        {
+            layout = new Layout ( this.discriminantClass, this.dsVsMember );
+            this.layout = layout;
+        }
+        return layout;
+    }
+
     void encode ( final NetworkDataRepresentation ndr, final List listOfDefferedPointers, final int FLAGS )
     {
         if ( this.dsVsMember.size () == 0 || this.dsVsMember.size () > 1 )
@@ -189,16 +250,15 @@ public final class JIUnion implements Serializable
         }
 
         //first write the discriminant and then the member
-        Iterator keys = this.dsVsMember.keySet ().iterator ();
-        JIMarshalUnMarshalHelper.serialize ( ndr, this.discriminantClass, keys.next (), listOfDefferedPointers, FLAGS );
-
-        keys = this.dsVsMember.values ().iterator ();
-        final Object value = keys.next ();
+        final Map.Entry entry = (Map.Entry)this.dsVsMember.entrySet ().iterator ().next ();
+        final Object value = entry.getValue ();
+        final Layout layout = getLayout ( entry.getKey (), value );
+        layout.plan.serialize ( ndr, 0, entry.getKey (), listOfDefferedPointers, FLAGS );
 
         //will not write empty union members
         if ( !value.equals ( JIStruct.MEMBER_IS_EMPTY ) )
         {
-            JIMarshalUnMarshalHelper.serialize ( ndr, value.getClass (), value, listOfDefferedPointers, FLAGS );
+            layout.plan.serialize ( ndr, layout.indexOf ( entry.getKey (), value ), value, listOfDefferedPointers, FLAGS );
         }
 
     }
@@ -216,7 +276,7 @@ public final class JIUnion implements Serializable
         final JIUnion retVal = new JIUnion ();
         retVal.discriminantClass = this.discriminantClass;
 
-        final Object key = JIMarshalUnMarshalHelper.deSerialize ( ndr, this.discriminantClass, listOfDefferedPointers, FLAGS, additionalData );
+        final Object key = getLayout ( null, null ).plan.deSerialize ( ndr, 0, this.discriminantClass, listOfDefferedPointers, FLAGS, additionalData );
 
         //next thing to be deserialized is the member
         Object value = this.dsVsMember.get ( key );
@@ -230,7 +290,8 @@ public final class JIUnion implements Serializable
         //will not write empty union members
         if ( !value.equals ( JIStruct.MEMBER_IS_EMPTY ) )
         {
-            retVal.dsVsMember.put ( key, JIMarshalUnMarshalHelper.deSerialize ( ndr, value, listOfDefferedPointers, FLAGS, additionalData ) );
+            final Layout layout = getLayout ( key, value );
+            retVal.dsVsMember.put ( key, layout.plan.deSerialize ( ndr, layout.indexOf ( key, value ), value, listOfDefferedPointers, FLAGS, additionalData ) );
         }
         else
         {
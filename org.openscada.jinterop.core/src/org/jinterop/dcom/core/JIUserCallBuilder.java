@@ -48,6 +48,16 @@ public abstract class JIUserCallBuilder extends JICallBuilder
         super ();
     }
 
+    /**
+     * Reserves 1024 bytes for {@link #writeObject(NetworkDataRepresentation)},
+     * override if more are needed.
+     */
+    @Override
+    public int getEncodedLengthHint ()
+    {
+        return 1024;
+    }
+
     @Override
     public void write ( final NetworkDataRepresentation ndr )
     {
@@ -1133,6 +1133,9 @@ public final class JIVariant implements Serializable
      * @param array
      * @param FLAG
      *            JIFlag value
+     * @throws IllegalArgumentException
+     *             if <code>array</code> holds a primitive array, use the
+     *             wrapper types instead.
      */
     public JIVariant ( final JIArray array, final int FLAG )
     {
@@ -1148,6 +1151,9 @@ public final class JIVariant implements Serializable
      * @param isByRef
      * @param FLAG
      *            JIFlag value
+     * @throws IllegalArgumentException
+     *             if <code>array</code> holds a primitive array, use the
+     *             wrapper types instead.
      */
     public JIVariant ( final JIArray array, final boolean isByRef, final int FLAG )
     {
@@ -1161,6 +1167,9 @@ public final class JIVariant implements Serializable
      * 
      * @param array
      * @param isByRef
+     * @throws IllegalArgumentException
+     *             if <code>array</code> holds a primitive array, use the
+     *             wrapper types instead.
      */
     public JIVariant ( final JIArray array, final boolean isByRef )
     {
@@ -1193,6 +1202,12 @@ public final class JIVariant implements Serializable
             return;
         }
 
+        //a SAFEARRAY is marshalled member by member, the members must be objects.
+        if ( array.getArrayClass () != null && array.getArrayClass ().isPrimitive () )
+        {
+            throw new IllegalArgumentException ( JISystem.getLocalizedMessage ( JIErrorCodes.JI_ARRAY_PRIMITIVE_NOTACCEPT ) );
+        }
+
         switch ( array.getDimensions () )
         {
             case 1:
@@ -2214,12 +2229,7 @@ class VariantBody implements Serializable
         {
             FLAG |= this.FLAG;
             //align with 8 boundary
-            final double index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
-            if ( index % 8.0 != 0 )
-            {
-                long i = ( i = Math.round ( index % 8.0 ) ) == 0 ? 0 : 8 - i;
-                ndr.writeOctetArray ( new byte[(int)i], 0, (int)i );
-            }
+            JIMarshalUnMarshalHelper.alignWhileEncoding ( ndr, 8 );
 
             final int start = ndr.getBuffer ().getIndex ();
 
@@ -2558,14 +2568,10 @@ class VariantBody implements Serializable
     static VariantBody decode ( final NetworkDataRepresentation ndr, final List defferedPointers, int FLAG, final Map additionalData )
     {
         //boolean readLong = false;
-        double index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
-        if ( index % 8.0 != 0 )
-        {
-            long i = ( i = Math.round ( index % 8.0 ) ) == 0 ? 0 : 8 - i;
-            ndr.readOctetArray ( new byte[(int)i], 0, (int)i );
-        }
+        JIMarshalUnMarshalHelper.alignWhileDecoding ( ndr, 8 );
 
-        final int start = ndr.getBuffer ().getIndex ();
+        //relative to the start of the buffer, as is the alignment.
+        final int start = ndr.getBuffer ().getIndex () - ndr.getBuffer ().start;
         int length = ndr.readUnsignedLong (); //read the potential length
         ndr.readUnsignedLong (); //read the reserved byte
 
@@ -2650,7 +2656,7 @@ class VariantBody implements Serializable
             //SafeArray have the alignment rule , that all Size <=4 are aligned by 4 and size 8 is aligned by 8.
             //Variant is aligned by 4, Interface pointers are aligned by 4 as well.
             //but this should not exceed the length
-            index = new Integer ( ndr.getBuffer ().getIndex () ).doubleValue ();
+            final double index = new Integer ( ndr.getBuffer ().getIndex () - ndr.getBuffer ().start ).doubleValue ();
             length = length * 8 + start;
             if ( index < length )
             {
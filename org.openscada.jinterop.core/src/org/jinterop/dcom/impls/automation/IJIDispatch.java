@@ -19,6 +19,7 @@ package org.jinterop.dcom.impls.automation;
 
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JICallFuture;
 import org.jinterop.dcom.core.JIVariant;
 
 /**
@@ -630,6 +631,100 @@ public interface IJIDispatch extends IJIComObject
      */
     public void putRef ( String name, Object[] params ) throws JIException;
 
+    /**
+     * Asynchronous variant of {@link #get(int)}. The returned handle
+     * completes with the <code>JIVariant</code> result.
+     * 
+     * @param dispId
+     *            <code>DISPID</code> of the method to invoke.
+     * @return handle to the outstanding call.
+     * @throws JIException
+     *             if the call could not be sent.
+     * @see IJIComObject#callAsync(org.jinterop.dcom.core.JICallBuilder)
+     */
+    public JICallFuture getAsync ( int dispId ) throws JIException;
+
+    /**
+     * Asynchronous variant of {@link #get(String)}. The <code>DISPID</code> is
+     * looked up (and cached) synchronously via {@link #getIDsOfNames(String)}
+     * before the call is issued.
+     * 
+     * @param name
+     *            name of the method to invoke.
+     * @return handle to the outstanding call, completes with a
+     *         <code>JIVariant</code>.
+     * @throws JIException
+     * @throws IllegalArgumentException
+     *             if the <code>name</code> is <code>null</code> or empty.
+     */
+    public JICallFuture getAsync ( String name ) throws JIException;
+
+    /**
+     * Asynchronous variant of {@link #put(int, JIVariant)}. The returned
+     * handle completes with <code>null</code>.
+     * 
+     * @param dispId
+     *            <code>DISPID</code> of the method to invoke.
+     * @param inparam
+     *            parameter for that method.
+     * @return handle to the outstanding call.
+     * @throws JIException
+     *             if the call could not be sent.
+     */
+    public JICallFuture putAsync ( int dispId, JIVariant inparam ) throws JIException;
+
+    /**
+     * Asynchronous variant of {@link #put(String, JIVariant)}. The
+     * <code>DISPID</code> is looked up (and cached) synchronously via
+     * {@link #getIDsOfNames(String)} before the call is issued.
+     * 
+     * @param name
+     *            name of the method to invoke.
+     * @param inparam
+     *            parameter for that method.
+     * @return handle to the outstanding call, completes with
+     *         <code>null</code>.
+     * @throws JIException
+     * @throws IllegalArgumentException
+     *             if the <code>name</code> is <code>null</code> or empty.
+     */
+    public JICallFuture putAsync ( String name, JIVariant inparam ) throws JIException;
+
+    /**
+     * Asynchronous variant of {@link #callMethodA(int, Object[])}. The
+     * returned handle completes with the array of <code>JIVariant</code>s.
+     * 
+     * @param dispId
+     *            <code>DISPID</code> of the method to invoke.
+     * @param inparams
+     *            members of this array are implicitly converted to
+     *            <code>JIVariant</code>s before performing the actual call to
+     *            the COM server.
+     * @return handle to the outstanding call.
+     * @throws JIException
+     *             if the call could not be sent.
+     */
+    public JICallFuture callMethodAAsync ( int dispId, Object[] inparams ) throws JIException;
+
+    /**
+     * Asynchronous variant of {@link #callMethodA(String, Object[])}. The
+     * <code>DISPID</code> is looked up (and cached) synchronously via
+     * {@link #getIDsOfNames(String)} before the call is issued.
+     * 
+     * @param name
+     *            name of the method to invoke.
+     * @param inparams
+     *            members of this array are implicitly converted to
+     *            <code>JIVariant</code>s before performing the actual call to
+     *            the COM server.
+     * @return handle to the outstanding call, completes with an array of
+     *         <code>JIVariant</code>s.
+     * @throws JIException
+     * @throws IllegalArgumentException
+     *             if the <code>name</code> is <code>null</code> or empty.
+     */
+    public JICallFuture callMethodAAsync ( String name, Object[] inparams ) throws JIException;
+
     /**
      * Returns the COM <code>EXCEPINFO</code> structure wrapped as a data object
      * for the
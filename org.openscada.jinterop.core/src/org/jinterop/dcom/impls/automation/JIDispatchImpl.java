@@ -27,6 +27,7 @@ import org.jinterop.dcom.common.JISystem;
 import org.jinterop.dcom.core.IJIComObject;
 import org.jinterop.dcom.core.JIArray;
 import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JICallFuture;
 import org.jinterop.dcom.core.JIComObjectImplWrapper;
 import org.jinterop.dcom.core.JIFlags;
 import org.jinterop.dcom.core.JIFrameworkHelper;
@@ -227,6 +228,23 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
     public JIVariant[] invoke ( final int dispId, final int dispatchFlags, final JIArray arrayOfVariantsInParams, final JIArray arrayOfNamedDispIds, final JIVariant outParamType ) throws JIException
     {
         this.lastExcepInfo.clearAll ();
+        final JICallBuilder obj = prepareInvoke ( dispId, dispatchFlags, arrayOfVariantsInParams, arrayOfNamedDispIds, outParamType );
+
+        Object[] result = null;
+        try
+        {
+            result = this.comObject.call ( obj );
+        }
+        catch ( final JIException e )
+        {
+            throw toInvokeException ( obj, e );
+        }
+
+        return toInvokeResults ( result );
+    }
+
+    private JICallBuilder prepareInvoke ( final int dispId, final int dispatchFlags, final JIArray arrayOfVariantsInParams, final JIArray arrayOfNamedDispIds, final JIVariant outParamType ) throws JIException
+    {
         final JICallBuilder obj = new JICallBuilder ( true );
         obj.setOpnum ( 3 );
 
@@ -304,39 +322,38 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
         outparams[3] = new JIArray ( JIVariant.class, null, 1, true );
 
         obj.setOutParams ( outparams, JIFlags.FLAG_REPRESENTATION_IDISPATCH_INVOKE );
+        return obj;
+    }
 
-        Object[] result = null;
-        try
+    private JIException toInvokeException ( final JICallBuilder obj, final JIException e )
+    {
+        final Object[] results = obj.getResultsInCaseOfException ();
+        if ( results != null )
         {
-            result = this.comObject.call ( obj );
+            //catching here so that an extended message could be sent out
+            final JIStruct excepInfoRet = (JIStruct)results[1];
+            final String text1 = ( (JIString)excepInfoRet.getMember ( 2 ) ).getString () + " ";
+            final String text2 = ( (JIString)excepInfoRet.getMember ( 3 ) ).getString () + " [ ";
+            final String text3 = ( (JIString)excepInfoRet.getMember ( 4 ) ).getString () + " ] ";
+            this.lastExcepInfo.excepDesc = text2;
+            this.lastExcepInfo.excepHelpfile = text3;
+            this.lastExcepInfo.excepSource = text1;
+            this.lastExcepInfo.errorCode = ( (Short)excepInfoRet.getMember ( 0 ) ).intValue () != 0 ? ( (Short)excepInfoRet.getMember ( 0 ) ).intValue () : ( (Integer)excepInfoRet.getMember ( 8 ) ).intValue ();
+
+            final JIAutomationException automationException = new JIAutomationException ( e );
+            automationException.setExcepInfo ( this.lastExcepInfo );
+            return automationException;
+            //				throw new JIException(obj.getHRESULT(),JISystem.getLocalizedMessage(obj.getHRESULT()) + " ==> Message from Server: " +
+            //				text1 + text2 + text3);
         }
-        catch ( final JIException e )
+        else
         {
-            final Object[] results = obj.getResultsInCaseOfException ();
-            if ( results != null )
-            {
-                //catching here so that an extended message could be sent out
-                final JIStruct excepInfoRet = (JIStruct)results[1];
-                final String text1 = ( (JIString)excepInfoRet.getMember ( 2 ) ).getString () + " ";
-                final String text2 = ( (JIString)excepInfoRet.getMember ( 3 ) ).getString () + " [ ";
-                final String text3 = ( (JIString)excepInfoRet.getMember ( 4 ) ).getString () + " ] ";
-                this.lastExcepInfo.excepDesc = text2;
-                this.lastExcepInfo.excepHelpfile = text3;
-                this.lastExcepInfo.excepSource = text1;
-                this.lastExcepInfo.errorCode = ( (Short)excepInfoRet.getMember ( 0 ) ).intValue () != 0 ? ( (Short)excepInfoRet.getMember ( 0 ) ).intValue () : ( (Integer)excepInfoRet.getMember ( 8 ) ).intValue ();
-
-                final JIAutomationException automationException = new JIAutomationException ( e );
-                automationException.setExcepInfo ( this.lastExcepInfo );
-                throw automationException;
-                //				throw new JIException(obj.getHRESULT(),JISystem.getLocalizedMessage(obj.getHRESULT()) + " ==> Message from Server: " +
-                //				text1 + text2 + text3);
-            }
-            else
-            {
-                throw e;
-            }
+            return e;
         }
+    }
 
+    private JIVariant[] toInvokeResults ( final Object[] result )
+    {
         final JIArray array = (JIArray)result[3];
         final JIVariant[] byrefVariants = (JIVariant[])array.getArrayInstance (); //will be a sinlge dimensional array.
 
@@ -347,9 +364,63 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
         return retVal;
     }
 
+    /**
+     * Issues the <code>Invoke</code> without waiting for the reply, the
+     * handle completes with the invoke results picked by <code>results</code>.
+     */
+    private JICallFuture invokeAsync ( final int dispId, final int dispatchFlags, final JIArray arrayOfVariantsInParams, final JIArray arrayOfNamedDispIds, final int results ) throws JIException
+    {
+        this.lastExcepInfo.clearAll ();
+        final JICallBuilder obj = prepareInvoke ( dispId, dispatchFlags, arrayOfVariantsInParams, arrayOfNamedDispIds, null );
+        return this.comObject.internal_callAsync ( obj, new InvokeFuture ( obj, results ) );
+    }
+
+    private static final int RESULTS_NONE = 0;
+
+    private static final int RESULTS_FIRST = 1;
+
+    private static final int RESULTS_ALL = 2;
+
+    private final class InvokeFuture extends JICallFuture
+    {
+        private final int results;
+
+        InvokeFuture ( final JICallBuilder obj, final int results )
+        {
+            super ( obj );
+            this.results = results;
+        }
+
+        @Override
+        protected Object getResult ( final JICallBuilder callBuilder ) throws JIException
+        {
+            switch ( this.results )
+            {
+                case RESULTS_FIRST:
+                    return toInvokeResults ( callBuilder.getResults () )[0];
+                case RESULTS_ALL:
+                    return toInvokeResults ( callBuilder.getResults () );
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        protected JIException getException ( final JICallBuilder callBuilder, final JIException exception )
+        {
+            return toInvokeException ( callBuilder, exception );
+        }
+    }
+
     private void put ( final int dispId, final Object[] inparams, final boolean isRef ) throws JIException
     {
         final int propertyFlag = isRef ? IJIDispatch.DISPATCH_PROPERTYPUTREF : IJIDispatch.DISPATCH_PROPERTYPUT;
+        invoke ( dispId, propertyFlag, toPutArguments ( inparams, isRef ), new JIArray ( new Integer[] { new Integer ( DISPATCH_DISPID_PUTPUTREF ) }, true ), null );
+        //invoke(dispId,propertyFlag,new JIArray(new JIVariant[]{inparam},true),new JIArray(new Integer[]{new Integer(propertyFlag)},true),null);
+    }
+
+    private JIArray toPutArguments ( final Object[] inparams, final boolean isRef )
+    {
         Object[] objectParams = inparams;
         if ( objectParams == null )
         {
@@ -382,8 +453,7 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
             variants[i] = variant;
         }
 
-        invoke ( dispId, propertyFlag, new JIArray ( variants, true ), new JIArray ( new Integer[] { new Integer ( DISPATCH_DISPID_PUTPUTREF ) }, true ), null );
-        //invoke(dispId,propertyFlag,new JIArray(new JIVariant[]{inparam},true),new JIArray(new Integer[]{new Integer(propertyFlag)},true),null);
+        return new JIArray ( variants, true );
     }
 
     @Override
@@ -487,6 +557,11 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
     }
 
     private JIVariant[] callMethodA ( final int dispId, final Object[] inparams, final int FLAG ) throws JIException
+    {
+        return invoke ( dispId, FLAG, toArguments ( inparams ), null, null );
+    }
+
+    private JIArray toArguments ( final Object[] inparams )
     {
         Object[] objectParams = inparams;
         if ( objectParams == null )
@@ -525,7 +600,7 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
         //		System.arraycopy(arrayOfDispIds,0,array,0,inparams.length);
         //		JIArray arrayOfValues = new JIArray(array,true);
 
-        return invoke ( dispId, FLAG, new JIArray ( variants, true ), null, null );
+        return new JIArray ( variants, true );
     }
 
     //	Ordinary params, will internally form Variant and the JIArray associated
@@ -693,6 +768,42 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
         put ( getIDsOfNames ( name ), params, true );
     }
 
+    @Override
+    public JICallFuture getAsync ( final int dispId ) throws JIException
+    {
+        return invokeAsync ( dispId, IJIDispatch.DISPATCH_PROPERTYGET, null, null, RESULTS_FIRST );
+    }
+
+    @Override
+    public JICallFuture getAsync ( final String name ) throws JIException
+    {
+        return getAsync ( getIDsOfNames ( name ) );
+    }
+
+    @Override
+    public JICallFuture putAsync ( final int dispId, final JIVariant inparam ) throws JIException
+    {
+        return invokeAsync ( dispId, IJIDispatch.DISPATCH_PROPERTYPUT, toPutArguments ( new Object[] { inparam }, false ), new JIArray ( new Integer[] { new Integer ( DISPATCH_DISPID_PUTPUTREF ) }, true ), RESULTS_NONE );
+    }
+
+    @Override
+    public JICallFuture putAsync ( final String name, final JIVariant inparam ) throws JIException
+    {
+        return putAsync ( getIDsOfNames ( name ), inparam );
+    }
+
+    @Override
+    public JICallFuture callMethodAAsync ( final int dispId, final Object[] inparams ) throws JIException
+    {
+        return invokeAsync ( dispId, IJIDispatch.DISPATCH_METHOD, toArguments ( inparams ), null, RESULTS_ALL );
+    }
+
+    @Override
+    public JICallFuture callMethodAAsync ( final String name, final Object[] inparams ) throws JIException
+    {
+        return callMethodAAsync ( getIDsOfNames ( name ), inparams );
+    }
+
     @Override
     public JIExcepInfo getLastExcepInfo ()
     {
@@ -0,0 +1,569 @@
+package org.jinterop.dcom.test;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import ndr.NdrBuffer;
+import ndr.NetworkDataRepresentation;
+
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JIBenchmarkSupport;
+import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JISession;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIStruct;
+import org.jinterop.dcom.core.JIVariant;
+
+import rpc.BufferPool;
+import rpc.pdu.ResponseCoPdu;
+
+/**
+ * Times the marshalling paths without a COM server: scalar values going
+ * through the codec registry, wrapper against primitive arrays, arrays of
+ * structs, doubles, strings and variants, the dispatch of single values by
+ * the registry against the former chain of <code>Class.equals</code> tests
+ * and the reassembly of fragmented responses of 1, 10 and 50 MB,
+ * the latter against the former way of growing the stub by a copy per
+ * fragment. Each case is warmed up first and then reports the average time
+ * of one operation, every value decoded is checked against the one encoded.
+ */
+public class MarshallingBenchmark
+{
+
+    static final int timedLoops = 50000;
+
+    static final int arrayLength = 1024;
+
+    static final int structCount = 256;
+
+    static final int[] stubLengths = new int[] { 1024 * 1024, 10 * 1024 * 1024, 50 * 1024 * 1024 };
+
+    static final int fragmentLength = 5840;
+
+    interface Operation
+    {
+        void run () throws Exception;
+    }
+
+    /**
+     * Creates the calls of one case, <code>in</code> carrying the values and
+     * <code>out</code> the templates to decode them again.
+     */
+    interface Callable
+    {
+        JICallBuilder in () throws Exception;
+
+        JICallBuilder out () throws Exception;
+    }
+
+    private final JISession session;
+
+    private final int orpcThisLength;
+
+    public MarshallingBenchmark ()
+    {
+        this.session = JISession.createSession ( "", "benchmark", "benchmark" );
+
+        final NetworkDataRepresentation ndr = write ( new JICallBuilder () );
+        //write leaves the ORPCTHIS and 16 trailing zeros in an empty call.
+        this.orpcThisLength = ndr.getBuffer ().getIndex () - 16;
+        BufferPool.release ( ndr.getBuffer ().buf );
+    }
+
+    private JICallBuilder attach ( final JICallBuilder call )
+    {
+        JIBenchmarkSupport.attachSession ( call, this.session );
+        return call;
+    }
+
+    private NetworkDataRepresentation write ( final JICallBuilder call )
+    {
+        final NetworkDataRepresentation ndr = new NetworkDataRepresentation ();
+        ndr.setBuffer ( new NdrBuffer ( new byte[0], 0 ) );
+        attach ( call ).write ( ndr );
+        return ndr;
+    }
+
+    /**
+     * Encodes the in parameters of <code>call</code> and returns them as a
+     * response, an empty ORPCTHAT in front and a zero HRESULT behind.
+     */
+    private byte[] toResponse ( final JICallBuilder call )
+    {
+        final NetworkDataRepresentation ndr = write ( call );
+        final int length = ndr.getBuffer ().getIndex () - 16 - this.orpcThisLength;
+        final byte[] response = new byte[8 + length + 4];
+        System.arraycopy ( ndr.getBuffer ().buf, this.orpcThisLength, response, 8, length );
+        BufferPool.release ( ndr.getBuffer ().buf );
+        return response;
+    }
+
+    private void read ( final JICallBuilder call, final byte[] response )
+    {
+        final NetworkDataRepresentation ndr = new NetworkDataRepresentation ();
+        ndr.setBuffer ( new NdrBuffer ( response, 0 ) );
+        attach ( call ).read ( ndr );
+    }
+
+    private Operation encoding ( final Callable factory )
+    {
+        return new Operation () {
+            @Override
+            public void run () throws Exception
+            {
+                BufferPool.release ( write ( factory.in () ).getBuffer ().buf );
+            }
+        };
+    }
+
+    private Operation decoding ( final Callable factory ) throws Exception
+    {
+        final JICallBuilder in = factory.in ();
+        final byte[] response = toResponse ( in );
+        final JICallBuilder out = factory.out ();
+        read ( out, response );
+        verify ( in.getInParams ()[0], out.getResults ()[0] );
+        return new Operation () {
+            @Override
+            public void run () throws Exception
+            {
+                read ( factory.out (), response );
+            }
+        };
+    }
+
+    static class Scalars implements Callable
+    {
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            for ( int i = 0; i < 8; i++ )
+            {
+                call.addInParamAsInt ( i, JIFlags.FLAG_NULL );
+                call.addInParamAsDouble ( i, JIFlags.FLAG_NULL );
+                call.addInParamAsShort ( (short)i, JIFlags.FLAG_NULL );
+                call.addInParamAsFloat ( i, JIFlags.FLAG_NULL );
+            }
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            for ( int i = 0; i < 8; i++ )
+            {
+                call.addOutParamAsType ( Integer.class, JIFlags.FLAG_NULL );
+                call.addOutParamAsType ( Double.class, JIFlags.FLAG_NULL );
+                call.addOutParamAsType ( Short.class, JIFlags.FLAG_NULL );
+                call.addOutParamAsType ( Float.class, JIFlags.FLAG_NULL );
+            }
+            return call;
+        }
+    }
+
+    static class WrapperArray implements Callable
+    {
+        private final Integer[] values = new Integer[arrayLength];
+
+        WrapperArray ()
+        {
+            for ( int i = 0; i < this.values.length; i++ )
+            {
+                this.values[i] = new Integer ( i );
+            }
+        }
+
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addInParamAsArray ( new JIArray ( this.values, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addOutParamAsObject ( new JIArray ( Integer.class, null, 1, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+    }
+
+    static class PrimitiveArray implements Callable
+    {
+        private final int[] values = new int[arrayLength];
+
+        PrimitiveArray ()
+        {
+            for ( int i = 0; i < this.values.length; i++ )
+            {
+                this.values[i] = i;
+            }
+        }
+
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addInParamAsArray ( new JIArray ( this.values, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addOutParamAsObject ( new JIArray ( int.class, null, 1, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+    }
+
+    static class StructArray implements Callable
+    {
+        private final JIStruct[] values = new JIStruct[structCount];
+
+        StructArray () throws Exception
+        {
+            for ( int i = 0; i < this.values.length; i++ )
+            {
+                final JIStruct struct = new JIStruct ();
+                struct.addMember ( new Short ( (short)i ) );
+                struct.addMember ( new Double ( i ) );
+                struct.addMember ( new Integer ( i ) );
+                struct.addMember ( new Byte ( (byte)i ) );
+                this.values[i] = struct;
+            }
+        }
+
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addInParamAsArray ( new JIArray ( this.values, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out () throws Exception
+        {
+            final JIStruct template = new JIStruct ();
+            template.addMember ( Short.class );
+            template.addMember ( Double.class );
+            template.addMember ( Integer.class );
+            template.addMember ( Byte.class );
+
+            final JICallBuilder call = new JICallBuilder ();
+            call.addOutParamAsObject ( new JIArray ( template, null, 1, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+    }
+
+    static class DoubleArray implements Callable
+    {
+        private final Double[] values = new Double[arrayLength];
+
+        DoubleArray ()
+        {
+            for ( int i = 0; i < this.values.length; i++ )
+            {
+                this.values[i] = new Double ( i / 3.0 );
+            }
+        }
+
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addInParamAsArray ( new JIArray ( this.values, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addOutParamAsObject ( new JIArray ( Double.class, null, 1, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+    }
+
+    static class StringArray implements Callable
+    {
+        private final JIString[] values = new JIString[arrayLength];
+
+        StringArray ()
+        {
+            for ( int i = 0; i < this.values.length; i++ )
+            {
+                this.values[i] = new JIString ( "value " + i );
+            }
+        }
+
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addInParamAsArray ( new JIArray ( this.values, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addOutParamAsObject ( new JIArray ( new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_BSTR ), null, 1, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+    }
+
+    static class VariantArray implements Callable
+    {
+        private final JIVariant[] values = new JIVariant[arrayLength];
+
+        VariantArray ()
+        {
+            for ( int i = 0; i < this.values.length; i++ )
+            {
+                switch ( i % 3 )
+                {
+                    case 0:
+                        this.values[i] = new JIVariant ( i );
+                        break;
+                    case 1:
+                        this.values[i] = new JIVariant ( i / 3.0 );
+                        break;
+                    default:
+                        this.values[i] = new JIVariant ( new JIString ( "value " + i ) );
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public JICallBuilder in ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addInParamAsArray ( new JIArray ( this.values, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+
+        @Override
+        public JICallBuilder out ()
+        {
+            final JICallBuilder call = new JICallBuilder ();
+            call.addOutParamAsObject ( new JIArray ( JIVariant.class, null, 1, true ), JIFlags.FLAG_NULL );
+            return call;
+        }
+    }
+
+    /**
+     * Encodes the <code>values</code> one by one and decodes them again,
+     * each resolving its codec by the registry or, with
+     * <code>byClassChain</code>, by walking the <code>Class.equals</code>
+     * tests that preceded it.
+     */
+    static class Dispatch implements Operation
+    {
+        private final Object[] values;
+
+        private final Object template;
+
+        private final boolean byClassChain;
+
+        private Object[] decoded;
+
+        Dispatch ( final Object[] values, final Object template, final boolean byClassChain ) throws Exception
+        {
+            this.values = values;
+            this.template = template;
+            this.byClassChain = byClassChain;
+            run ();
+            verify ( values, this.decoded );
+        }
+
+        @Override
+        public void run ()
+        {
+            final NetworkDataRepresentation ndr = new NetworkDataRepresentation ();
+            ndr.setBuffer ( new NdrBuffer ( new byte[0], 0 ) );
+            JIBenchmarkSupport.serialize ( ndr, this.values, this.byClassChain );
+            final byte[] buffer = ndr.getBuffer ().buf;
+            ndr.setBuffer ( new NdrBuffer ( buffer, 0 ) );
+            this.decoded = JIBenchmarkSupport.deSerialize ( ndr, this.template, this.values.length, this.byClassChain );
+            BufferPool.release ( buffer );
+        }
+    }
+
+    /**
+     * Throws if <code>actual</code>, as decoded, does not carry the values of
+     * <code>expected</code>.
+     */
+    static void verify ( final Object expected, final Object actual ) throws Exception
+    {
+        if ( !same ( expected, actual ) )
+        {
+            throw new IllegalStateException ( "Decoded " + actual + " instead of " + expected );
+        }
+    }
+
+    private static boolean same ( final Object expected, final Object actual ) throws Exception
+    {
+        if ( expected == null || actual == null )
+        {
+            return expected == actual;
+        }
+        if ( expected instanceof JIArray && actual instanceof JIArray )
+        {
+            return same ( ( (JIArray)expected ).getArrayInstance (), ( (JIArray)actual ).getArrayInstance () );
+        }
+        if ( expected.getClass ().isArray () && actual.getClass ().isArray () )
+        {
+            if ( Array.getLength ( expected ) != Array.getLength ( actual ) )
+            {
+                return false;
+            }
+            for ( int i = 0; i < Array.getLength ( expected ); i++ )
+            {
+                if ( !same ( Array.get ( expected, i ), Array.get ( actual, i ) ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if ( expected instanceof JIString && actual instanceof JIString )
+        {
+            return ( (JIString)expected ).getString ().equals ( ( (JIString)actual ).getString () );
+        }
+        if ( expected instanceof JIVariant && actual instanceof JIVariant )
+        {
+            return same ( ( (JIVariant)expected ).getObject (), ( (JIVariant)actual ).getObject () );
+        }
+        if ( expected instanceof JIStruct && actual instanceof JIStruct )
+        {
+            return same ( ( (JIStruct)expected ).getMembers ().toArray (), ( (JIStruct)actual ).getMembers ().toArray () );
+        }
+        return expected.equals ( actual );
+    }
+
+    /**
+     * Reassembles a response of <code>stubLength</code> bytes which arrived
+     * in fragments of <code>fragmentLength</code> bytes. The
+     * <code>baseline</code> joins them as {@link ResponseCoPdu} did before,
+     * into a new array for every fragment. Splitting the stub into fragments
+     * is part of either operation.
+     */
+    static Operation reassembly ( final int stubLength, final boolean baseline )
+    {
+        final ResponseCoPdu pdu = new ResponseCoPdu ();
+        pdu.setStub ( new byte[stubLength] );
+        return new Operation () {
+            @Override
+            public void run () throws Exception
+            {
+                final List fragments = new ArrayList ();
+                final Iterator iterator = pdu.fragment ( fragmentLength );
+                while ( iterator.hasNext () )
+                {
+                    fragments.add ( iterator.next () );
+                }
+                if ( baseline )
+                {
+                    concatenate ( fragments.iterator () );
+                    return;
+                }
+                final ResponseCoPdu response = (ResponseCoPdu)pdu.assemble ( fragments.iterator () );
+                response.releaseStub ();
+            }
+        };
+    }
+
+    /**
+     * The former reassembly, each fragment copied behind a copy of all
+     * before it.
+     */
+    static byte[] concatenate ( final Iterator fragments )
+    {
+        byte[] stub = new byte[0];
+        while ( fragments.hasNext () )
+        {
+            final byte[] fragmentStub = ( (ResponseCoPdu)fragments.next () ).getStub ();
+            if ( fragmentStub != null && fragmentStub.length > 0 )
+            {
+                final byte[] tmp = new byte[stub.length + fragmentStub.length];
+                System.arraycopy ( stub, 0, tmp, 0, stub.length );
+                System.arraycopy ( fragmentStub, 0, tmp, stub.length, fragmentStub.length );
+                stub = tmp;
+            }
+        }
+        return stub;
+    }
+
+    /**
+     * Runs <code>operation</code> a fifth of <code>loops</code> times to warm
+     * up, then <code>loops</code> times timed.
+     */
+    static void measure ( final String name, final Operation operation, final int loops ) throws Exception
+    {
+        for ( int i = 0; i < loops / 5; i++ )
+        {
+            operation.run ();
+        }
+
+        final long start = System.nanoTime ();
+        for ( int i = 0; i < loops; i++ )
+        {
+            operation.run ();
+        }
+        final long elapsed = System.nanoTime () - start;
+
+        System.out.println ( name + ": " + elapsed / loops + " ns/op" );
+    }
+
+    public static void main ( final String[] args )
+    {
+        try
+        {
+            final MarshallingBenchmark benchmark = new MarshallingBenchmark ();
+
+            final Callable[] cases = new Callable[] { new Scalars (), new WrapperArray (), new PrimitiveArray (), new StructArray (), new DoubleArray (), new StringArray (), new VariantArray () };
+            final String[] names = new String[] { "scalars", "Integer[" + arrayLength + "]", "int[" + arrayLength + "]", "struct[" + structCount + "]", "Double[" + arrayLength + "]", "JIString[" + arrayLength + "]", "JIVariant[" + arrayLength + "]" };
+            //strings and variants are pointers with referents of their own, a tenth of the loops will do.
+            final int[] loops = new int[] { timedLoops, timedLoops, timedLoops, timedLoops, timedLoops, timedLoops / 10, timedLoops / 10 };
+
+            for ( int i = 0; i < cases.length; i++ )
+            {
+                measure ( "encode " + names[i], benchmark.encoding ( cases[i] ), loops[i] );
+                measure ( "decode " + names[i], benchmark.decoding ( cases[i] ), loops[i] );
+            }
+
+            final Object[][] values = new Object[][] { new DoubleArray ().values, new StringArray ().values, new VariantArray ().values };
+            final Object[] templates = new Object[] { Double.class, new JIString ( JIFlags.FLAG_REPRESENTATION_STRING_BSTR ), JIVariant.class };
+            for ( int i = 0; i < values.length; i++ )
+            {
+                final String name = "round trip of " + arrayLength + " " + values[i][0].getClass ().getSimpleName () + " values";
+                measure ( name + " by the registry", new Dispatch ( values[i], templates[i], false ), loops[4 + i] );
+                measure ( name + " by the Class.equals chain", new Dispatch ( values[i], templates[i], true ), loops[4 + i] );
+            }
+
+            for ( int i = 0; i < stubLengths.length; i++ )
+            {
+                final int megabytes = stubLengths[i] / ( 1024 * 1024 );
+                final String name = "reassemble " + megabytes + " MB in " + ( stubLengths[i] + fragmentLength - 1 ) / fragmentLength + " fragments";
+                measure ( name, reassembly ( stubLengths[i], false ), Math.max ( 1, timedLoops / 100 / megabytes ) );
+                //the baseline is quadratic, 50 MB take about two minutes.
+                measure ( name + ", baseline", reassembly ( stubLengths[i], true ), Math.max ( 1, 50 / ( megabytes * megabytes ) ) );
+            }
+        }
+        catch ( final Exception e )
+        {
+            e.printStackTrace ();
+        }
+    }
+}
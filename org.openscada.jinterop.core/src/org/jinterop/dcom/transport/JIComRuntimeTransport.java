@@ -144,7 +144,7 @@ final class JIComRuntimeTransport implements Transport
         {
             this.input = this.socket.getInputStream ();
         }
-        buffer.length = this.input.read ( buffer.getBuffer (), 0, buffer.getCapacity () );
+        buffer.length = this.input.read ( buffer.getBuffer (), buffer.start, buffer.getCapacity () );
     }
 
 }
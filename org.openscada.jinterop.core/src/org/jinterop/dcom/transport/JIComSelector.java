@@ -0,0 +1,343 @@
+/**j-Interop (Pure Java implementation of DCOM protocol)
+ * Copyright (C) 2006  Vikram Roopchand
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * Though a sincere effort has been made to deliver a professional,
+ * quality product,the library itself is distributed WITHOUT ANY WARRANTY;
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+package org.jinterop.dcom.transport;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jinterop.dcom.common.JISystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rpc.RpcException;
+
+/**
+ * Shared I/O threads of the non blocking transports. Each thread owns a
+ * <code>Selector</code>, channels are spread over the threads round robin and
+ * stay with their thread for their lifetime. Registration and changes of the
+ * interest set are handed to the owning thread, so that they never contend
+ * with a running <code>select()</code>. The PDUs received are handed on to
+ * as many delivery threads, the I/O threads only move bytes. The threads
+ * run until {@link #shutdown()}, the next registration starts new ones.
+ *
+ * @exclude
+ * @since 1.2.0
+ */
+final class JIComSelector
+{
+
+    private final static Logger logger = LoggerFactory.getLogger ( JIComSelector.class );
+
+    private static JIComSelector instance = null;
+
+    private final Worker[] workers;
+
+    private int next = 0;
+
+    private final ThreadPoolExecutor delivery;
+
+    static synchronized JIComSelector getInstance () throws IOException
+    {
+        if ( instance == null )
+        {
+            instance = new JIComSelector ( JISystem.getSelectorThreadCount () );
+        }
+        return instance;
+    }
+
+    private JIComSelector ( final int count ) throws IOException
+    {
+        this.workers = new Worker[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            this.workers[i] = new Worker ( Selector.open () );
+            JISystem.internal_newThread ( this.workers[i], "jI_Selector-" + i ).start ();
+        }
+        this.delivery = new ThreadPoolExecutor ( count, count, 60, TimeUnit.SECONDS, new LinkedBlockingQueue (), new ThreadFactory () {
+            private int counter = 0;
+
+            @Override
+            public synchronized Thread newThread ( final Runnable r )
+            {
+                return JISystem.internal_newThread ( r, "jI_Delivery-" + this.counter++ );
+            }
+        } );
+        this.delivery.allowCoreThreadTimeOut ( true );
+    }
+
+    /**
+     * Stops the I/O and delivery threads, the channels still registered are
+     * failed.
+     */
+    static synchronized void shutdown ()
+    {
+        if ( instance == null )
+        {
+            return;
+        }
+        for ( int i = 0; i < instance.workers.length; i++ )
+        {
+            instance.workers[i].close ();
+        }
+        instance.delivery.shutdown ();
+        instance = null;
+    }
+
+    /**
+     * Runs <code>task</code> on a delivery thread.
+     */
+    void deliver ( final Runnable task )
+    {
+        this.delivery.execute ( task );
+    }
+
+    /**
+     * Switches the channel to non blocking mode and starts watching it for
+     * incoming data on behalf of <code>listener</code>.
+     */
+    Registration register ( final SocketChannel channel, final Listener listener ) throws IOException
+    {
+        channel.configureBlocking ( false );
+        Worker worker = null;
+        synchronized ( this )
+        {
+            worker = this.workers[this.next];
+            this.next = ( this.next + 1 ) % this.workers.length;
+        }
+        if ( worker.closed )
+        {
+            throw new RpcException ( "Selector shut down." );
+        }
+        final Registration registration = new Registration ( worker, channel, listener );
+        worker.execute ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                registration.register ();
+            }
+        } );
+        return registration;
+    }
+
+    /**
+     * Callbacks of a registered channel, always invoked on its I/O thread.
+     */
+    interface Listener
+    {
+        void readable () throws IOException;
+
+        void writable () throws IOException;
+
+        void failed ( IOException ex );
+    }
+
+    /**
+     * A channel registered with one of the I/O threads.
+     */
+    static final class Registration
+    {
+        private final Worker worker;
+
+        private final SocketChannel channel;
+
+        private final Listener listener;
+
+        private SelectionKey key = null;
+
+        private boolean cancelled = false;
+
+        private Registration ( final Worker worker, final SocketChannel channel, final Listener listener )
+        {
+            this.worker = worker;
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        /**
+         * Asks for {@link Listener#writable()} callbacks until cleared again.
+         */
+        void setWriteInterest ( final boolean enabled )
+        {
+            this.worker.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    if ( Registration.this.key != null && Registration.this.key.isValid () )
+                    {
+                        Registration.this.key.interestOps ( enabled ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ );
+                    }
+                }
+            } );
+        }
+
+        void cancel ()
+        {
+            this.worker.execute ( new Runnable () {
+                @Override
+                public void run ()
+                {
+                    Registration.this.cancelled = true;
+                    if ( Registration.this.key != null )
+                    {
+                        Registration.this.key.cancel ();
+                    }
+                }
+            } );
+        }
+
+        private void register ()
+        {
+            if ( this.cancelled )
+            {
+                return;
+            }
+            try
+            {
+                this.key = this.channel.register ( this.worker.selector, SelectionKey.OP_READ, this );
+            }
+            catch ( final IOException e )
+            {
+                this.listener.failed ( e );
+            }
+        }
+
+        private void ready ()
+        {
+            try
+            {
+                if ( this.key.isReadable () )
+                {
+                    this.listener.readable ();
+                }
+                if ( this.key.isValid () && this.key.isWritable () )
+                {
+                    this.listener.writable ();
+                }
+            }
+            catch ( final CancelledKeyException e )
+            {
+                //closed in the meantime.
+            }
+            catch ( final IOException e )
+            {
+                this.key.cancel ();
+                this.listener.failed ( e );
+            }
+        }
+    }
+
+    private static final class Worker implements Runnable
+    {
+        private final Selector selector;
+
+        private List tasks = new ArrayList ();
+
+        private volatile boolean closed = false;
+
+        private Worker ( final Selector selector )
+        {
+            this.selector = selector;
+        }
+
+        private void close ()
+        {
+            this.closed = true;
+            this.selector.wakeup ();
+        }
+
+        private void execute ( final Runnable task )
+        {
+            synchronized ( this )
+            {
+                this.tasks.add ( task );
+            }
+            this.selector.wakeup ();
+        }
+
+        @Override
+        public void run ()
+        {
+            while ( !this.closed )
+            {
+                try
+                {
+                    this.selector.select ();
+                    runTasks ();
+                    for ( final Iterator iterator = this.selector.selectedKeys ().iterator (); iterator.hasNext (); )
+                    {
+                        final SelectionKey key = (SelectionKey)iterator.next ();
+                        iterator.remove ();
+                        if ( key.isValid () )
+                        {
+                            ( (Registration)key.attachment () ).ready ();
+                        }
+                    }
+                }
+                catch ( final Exception e )
+                {
+                    //keep serving the other channels.
+                    logger.error ( "Selector thread failed", e );
+                }
+            }
+
+            //registrations handed over meanwhile are failed along with the others.
+            runTasks ();
+            for ( final Iterator iterator = this.selector.keys ().iterator (); iterator.hasNext (); )
+            {
+                final SelectionKey key = (SelectionKey)iterator.next ();
+                key.cancel ();
+                ( (Registration)key.attachment () ).listener.failed ( new RpcException ( "Selector shut down." ) );
+            }
+            try
+            {
+                this.selector.close ();
+            }
+            catch ( final IOException e )
+            {
+                logger.warn ( "Failed to close selector", e );
+            }
+        }
+
+        private void runTasks ()
+        {
+            List tasks = null;
+            synchronized ( this )
+            {
+                if ( this.tasks.isEmpty () )
+                {
+                    return;
+                }
+                tasks = this.tasks;
+                this.tasks = new ArrayList ();
+            }
+            for ( final Iterator iterator = tasks.iterator (); iterator.hasNext (); )
+            {
+                ( (Runnable)iterator.next () ).run ();
+            }
+        }
+    }
+}
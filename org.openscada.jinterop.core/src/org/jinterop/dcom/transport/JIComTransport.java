@@ -18,33 +18,51 @@ package org.jinterop.dcom.transport;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ndr.NdrBuffer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rpc.ConnectionContext;
+import rpc.ConnectionOrientedPdu;
+import rpc.DeadlineTransport;
 import rpc.Endpoint;
+import rpc.GatheringTransport;
+import rpc.NonBlockingTransport;
 import rpc.ProviderException;
 import rpc.RpcException;
-import rpc.Transport;
 import rpc.core.PresentationSyntax;
 
 /**
  * Borrowed all from ncacn_ip_tcp.RpcTransport from jarapac, modified attach api
  * to include SocketChannel.
+ * <p>
+ * With <code>rpc.nonBlocking</code> set, the channel is served by the
+ * {@link JIComSelector} threads instead. Incoming data is staged in memory,
+ * once a {@link NonBlockingTransport.ReadyHandler} is set it is told about
+ * every complete fragment on a delivery thread, one after the other, and
+ * {@link #receive(NdrBuffer)} never hands out more than the complete
+ * fragments.
+ * The I/O thread itself only moves bytes.
  * 
  * @exclude
  * @since 1.0
  */
-final class JIComTransport implements Transport
+final class JIComTransport implements NonBlockingTransport, GatheringTransport, DeadlineTransport, JIComSelector.Listener
 {
 
     private final static Logger logger = LoggerFactory.getLogger ( JIComTransport.class );
@@ -67,10 +85,50 @@ final class JIComTransport implements Transport
 
     private boolean attached;
 
-    private boolean timeoutModifiedfrom0 = false;
+    //rpc.socketTimeout as last parsed, it is parsed again only when the property changed.
+    private String timeoutProperty = null;
+
+    private int defaultTimeout = 0;
+
+    private int appliedTimeout = 0;
+
+    private volatile long receiveDeadline = 0;
 
     private SocketChannel channel = null;
 
+    //state of the non blocking mode, guarded by the lock. A lock rather than the monitor so that a waiting virtual thread is not pinned.
+    private final ReentrantLock lock = new ReentrantLock ();
+
+    //signalled whenever data was staged, the outbox drained or the transport failed.
+    private final Condition changed = this.lock.newCondition ();
+
+    private JIComSelector selector = null;
+
+    private JIComSelector.Registration registration = null;
+
+    private byte[] inbox = null;
+
+    private int inboxStart = 0;
+
+    private int inboxEnd = 0;
+
+    //bytes past inboxStart holding complete fragments.
+    private int readyBytes = 0;
+
+    private int pendingFragments = 0;
+
+    private ByteBuffer[] outbox = null;
+
+    private IOException failure = null;
+
+    private ReadyHandler handler = null;
+
+    //a longer frag_length means the stream is out of step.
+    private int maxFragmentLength = ConnectionContext.MAX_FRAGMENT;
+
+    //a delivery thread is handing the complete fragments to the handler.
+    private boolean delivering = false;
+
     static
     {
         String localhost = null;
@@ -122,6 +180,21 @@ final class JIComTransport implements Transport
             this.input = null;
             this.attached = true;
             this.socket.setKeepAlive ( true );//backup for not providing a timeout.
+            if ( Boolean.valueOf ( this.properties.getProperty ( "rpc.nonBlocking" ) ).booleanValue () )
+            {
+                this.lock.lock ();
+                try
+                {
+                    this.inbox = new byte[0x10000];
+                    this.failure = null;
+                    this.selector = JIComSelector.getInstance ();
+                    this.registration = this.selector.register ( this.channel, this );
+                }
+                finally
+                {
+                    this.lock.unlock ();
+                }
+            }
             return new JIComEndpoint ( this, syntax );
         }
         catch ( final IOException ex )
@@ -140,6 +213,24 @@ final class JIComTransport implements Transport
     @Override
     public void close () throws IOException
     {
+        this.lock.lock ();
+        try
+        {
+            if ( this.registration != null )
+            {
+                this.registration.cancel ();
+                this.registration = null;
+                if ( this.failure == null )
+                {
+                    this.failure = new RpcException ( "Transport closed." );
+                }
+                this.changed.signalAll ();
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
         try
         {
             if ( this.socket != null )
@@ -171,6 +262,11 @@ final class JIComTransport implements Transport
         {
             throw new RpcException ( "Transport not attached." );
         }
+        if ( this.registration != null )
+        {
+            sendNonBlocking ( new ByteBuffer[] { ByteBuffer.wrap ( buffer.getBuffer (), 0, buffer.getLength () ) } );
+            return;
+        }
         if ( this.output == null )
         {
             this.output = this.socket.getOutputStream ();
@@ -180,6 +276,30 @@ final class JIComTransport implements Transport
         this.output.flush ();
     }
 
+    @Override
+    public void send ( final NdrBuffer[] buffers ) throws IOException
+    {
+        if ( !this.attached )
+        {
+            throw new RpcException ( "Transport not attached." );
+        }
+        final ByteBuffer[] data = new ByteBuffer[buffers.length];
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            data[i] = ByteBuffer.wrap ( buffers[i].getBuffer (), buffers[i].start, buffers[i].getLength () );
+        }
+        if ( this.registration != null )
+        {
+            sendNonBlocking ( data );
+            return;
+        }
+        this.channel.configureBlocking ( true );
+        while ( data[data.length - 1].hasRemaining () )
+        {
+            this.channel.write ( data );
+        }
+    }
+
     @Override
     public void receive ( final NdrBuffer buffer ) throws IOException
     {
@@ -187,36 +307,403 @@ final class JIComTransport implements Transport
         {
             throw new RpcException ( "Transport not attached." );
         }
-        applySocketTimeout ();
+        if ( this.registration != null )
+        {
+            receiveNonBlocking ( buffer );
+            return;
+        }
+        final int timeout = getReceiveTimeout ();
+        if ( timeout != this.appliedTimeout )
+        {
+            this.socket.setSoTimeout ( timeout );
+            this.appliedTimeout = timeout;
+        }
         if ( this.input == null )
         {
             this.input = this.socket.getInputStream ();
         }
-        buffer.length = this.input.read ( buffer.getBuffer (), 0, buffer.getCapacity () );
+        buffer.length = this.input.read ( buffer.getBuffer (), buffer.start, buffer.getCapacity () );
     }
 
-    private void applySocketTimeout ()
+    @Override
+    public void setReceiveDeadline ( final long deadline )
+    {
+        this.receiveDeadline = deadline;
+    }
+
+    /**
+     * Returns the timeout of the next receive in millisecs, 0 waits forever.
+     * A call deadline takes precedence over <code>rpc.socketTimeout</code>.
+     */
+    private int getReceiveTimeout () throws SocketTimeoutException
     {
-        int timeout = 0;
+        final long deadline = this.receiveDeadline;
+        if ( deadline != 0 )
+        {
+            final long remaining = deadline - System.currentTimeMillis ();
+            if ( remaining <= 0 )
+            {
+                throw new SocketTimeoutException ( "Read timed out" );
+            }
+            return (int)Math.min ( remaining, Integer.MAX_VALUE );
+        }
+        final String property = this.properties.getProperty ( "rpc.socketTimeout", "0" );
+        if ( !property.equals ( this.timeoutProperty ) )
+        {
+            this.timeoutProperty = property;
+            try
+            {
+                this.defaultTimeout = Integer.parseInt ( property );
+            }
+            catch ( final NumberFormatException e )
+            {
+                this.defaultTimeout = 0;
+            }
+        }
+        return this.defaultTimeout;
+    }
+
+    @Override
+    public boolean setReadyHandler ( final ReadyHandler handler, final int maxFragmentLength ) throws IOException
+    {
+        this.lock.lock ();
         try
         {
-            timeout = Integer.parseInt ( this.properties.getProperty ( "rpc.socketTimeout", "0" ) );
-            if ( timeout != 0 )
+            if ( this.registration == null )
             {
-                this.socket.setSoTimeout ( timeout );
-                this.timeoutModifiedfrom0 = true;
+                return false;
             }
-            else
+            this.handler = handler;
+            this.maxFragmentLength = maxFragmentLength;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        //data may have arrived already.
+        deliver ();
+        return true;
+    }
+
+    /**
+     * Writes <code>data</code>, waiting for the selector to drain what the
+     * socket did not take at once. The wait is bounded like a receive, a
+     * send which does not drain in time leaves the stream with a partial
+     * fragment, so it fails the transport.
+     */
+    private void sendNonBlocking ( final ByteBuffer[] data ) throws IOException
+    {
+        SocketTimeoutException timedOut = null;
+        this.lock.lock ();
+        try
+        {
+            checkFailure ();
+            final long deadline = toDeadline ( getReceiveTimeout () );
+            try
             {
-                if ( this.timeoutModifiedfrom0 )
+                //the endpoint serializes sends, a previous one may still be draining after a timeout though.
+                waitFor ( true, deadline );
+                this.channel.write ( data );
+                if ( !data[data.length - 1].hasRemaining () )
                 {
-                    this.socket.setSoTimeout ( timeout );
-                    this.timeoutModifiedfrom0 = false;
+                    return;
                 }
+                this.outbox = data;
+                this.registration.setWriteInterest ( true );
+                waitFor ( true, deadline );
+                return;
+            }
+            catch ( final SocketTimeoutException e )
+            {
+                timedOut = e;
             }
         }
-        catch ( final Exception e )
+        finally
+        {
+            this.lock.unlock ();
+        }
+        //outside the lock, failing tells the handler.
+        failed ( timedOut );
+        throw timedOut;
+    }
+
+    private void receiveNonBlocking ( final NdrBuffer buffer ) throws IOException
+    {
+        this.lock.lock ();
+        try
+        {
+            waitFor ( false, toDeadline ( getReceiveTimeout () ) );
+            final int available = this.handler != null ? this.readyBytes : this.inboxEnd - this.inboxStart;
+            final int length = Math.min ( available, buffer.getCapacity () );
+            System.arraycopy ( this.inbox, this.inboxStart, buffer.getBuffer (), buffer.start, length );
+            buffer.length = length;
+            this.inboxStart += length;
+            this.readyBytes -= Math.min ( this.readyBytes, length );
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    /**
+     * The time a wait of <code>timeout</code> millisecs ends, 0 for one
+     * without a timeout.
+     */
+    private static long toDeadline ( final int timeout )
+    {
+        return timeout > 0 ? System.currentTimeMillis () + timeout : 0;
+    }
+
+    /**
+     * Waits until the outbox is drained resp. data can be received, until
+     * <code>deadline</code> unless that is 0. Must hold the lock.
+     */
+    private void waitFor ( final boolean output, final long deadline ) throws IOException
+    {
+        while ( true )
+        {
+            //data staged before a failure is still handed out, output fails right away.
+            if ( output )
+            {
+                checkFailure ();
+            }
+            if ( output ? this.outbox == null : ( this.handler != null ? this.readyBytes : this.inboxEnd - this.inboxStart ) > 0 )
+            {
+                return;
+            }
+            checkFailure ();
+            try
+            {
+                if ( deadline == 0 )
+                {
+                    this.changed.await ();
+                    continue;
+                }
+                final long remaining = deadline - System.currentTimeMillis ();
+                if ( remaining <= 0 )
+                {
+                    throw new SocketTimeoutException ( output ? "Write timed out" : "Read timed out" );
+                }
+                this.changed.await ( remaining, TimeUnit.MILLISECONDS );
+            }
+            catch ( final InterruptedException e )
+            {
+                throw new InterruptedIOException ( "Interrupted while waiting on transport." );
+            }
+        }
+    }
+
+    private void checkFailure () throws IOException
+    {
+        if ( this.failure != null )
+        {
+            final IOException ex = new IOException ( this.failure.getMessage () );
+            ex.initCause ( this.failure );
+            throw ex;
+        }
+    }
+
+    @Override
+    public void readable () throws IOException
+    {
+        this.lock.lock ();
+        try
+        {
+            if ( this.inboxStart == this.inboxEnd )
+            {
+                this.inboxStart = this.inboxEnd = 0;
+            }
+            else if ( this.inboxEnd == this.inbox.length )
+            {
+                //make room, growing only if the staged data fills more than half of it.
+                final int staged = this.inboxEnd - this.inboxStart;
+                final byte[] target = staged > this.inbox.length / 2 ? new byte[this.inbox.length * 2] : this.inbox;
+                System.arraycopy ( this.inbox, this.inboxStart, target, 0, staged );
+                this.inbox = target;
+                this.inboxStart = 0;
+                this.inboxEnd = staged;
+            }
+            final int count = this.channel.read ( ByteBuffer.wrap ( this.inbox, this.inboxEnd, this.inbox.length - this.inboxEnd ) );
+            if ( count < 0 )
+            {
+                throw new RpcException ( "Connection closed by peer." );
+            }
+            this.inboxEnd += count;
+            scan ();
+            this.changed.signalAll ();
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        deliver ();
+    }
+
+    /**
+     * Advances over the complete fragments staged, counting each for
+     * delivery. A frag_length shorter than a header or longer than negotiated
+     * cannot be framed past, it is thrown as an <code>RpcException</code>.
+     * Must hold the lock.
+     */
+    private void scan () throws RpcException
+    {
+        if ( this.handler == null || this.failure != null )
+        {
+            return;
+        }
+        while ( true )
+        {
+            final int offset = this.inboxStart + this.readyBytes;
+            if ( this.inboxEnd - offset < 10 )
+            {
+                return;
+            }
+            //frag_length at offset 8, byte order as per the data representation label.
+            final boolean littleEndian = ( this.inbox[offset + 4] & 0xf0 ) == 0x10;
+            final int low = this.inbox[offset + 8] & 0xff;
+            final int high = this.inbox[offset + 9] & 0xff;
+            final int fragmentLength = littleEndian ? high << 8 | low : low << 8 | high;
+            if ( fragmentLength < ConnectionOrientedPdu.HEADER_LENGTH || fragmentLength > this.maxFragmentLength )
+            {
+                throw new RpcException ( "Invalid fragment length: " + fragmentLength );
+            }
+            if ( this.inboxEnd - offset < fragmentLength )
+            {
+                return;
+            }
+            this.readyBytes += fragmentLength;
+            this.pendingFragments++;
+        }
+    }
+
+    /**
+     * Starts handing the complete fragments to the handler on a delivery thread,
+     * unless one is doing so already.
+     */
+    private void deliver ()
+    {
+        RpcException invalid = null;
+        this.lock.lock ();
+        try
+        {
+            try
+            {
+                scan ();
+            }
+            catch ( final RpcException e )
+            {
+                invalid = e;
+            }
+            if ( invalid == null )
+            {
+                if ( this.handler == null || this.delivering || this.pendingFragments == 0 || this.registration == null )
+                {
+                    return;
+                }
+                this.delivering = true;
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        if ( invalid != null )
+        {
+            //outside the lock, failing tells the handler.
+            failed ( invalid );
+            return;
+        }
+        this.selector.deliver ( new Runnable () {
+            @Override
+            public void run ()
+            {
+                drain ();
+            }
+        } );
+    }
+
+    /**
+     * Hands the complete fragments to the handler, one after the other. Runs on a
+     * delivery thread.
+     */
+    private void drain ()
+    {
+        while ( true )
+        {
+            ReadyHandler handler = null;
+            this.lock.lock ();
+            try
+            {
+                if ( this.pendingFragments == 0 || this.registration == null )
+                {
+                    this.delivering = false;
+                    return;
+                }
+                this.pendingFragments--;
+                handler = this.handler;
+            }
+            finally
+            {
+                this.lock.unlock ();
+            }
+            handler.pduAvailable ();
+        }
+    }
+
+    @Override
+    public void writable () throws IOException
+    {
+        this.lock.lock ();
+        try
+        {
+            if ( this.registration == null )
+            {
+                return;
+            }
+            if ( this.outbox == null )
+            {
+                this.registration.setWriteInterest ( false );
+                return;
+            }
+            this.channel.write ( this.outbox );
+            if ( !this.outbox[this.outbox.length - 1].hasRemaining () )
+            {
+                this.outbox = null;
+                this.registration.setWriteInterest ( false );
+                this.changed.signalAll ();
+            }
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+    }
+
+    @Override
+    public void failed ( final IOException ex )
+    {
+        ReadyHandler handler = null;
+        this.lock.lock ();
+        try
+        {
+            if ( this.failure != null )
+            {
+                return;
+            }
+            this.failure = ex;
+            this.outbox = null;
+            this.changed.signalAll ();
+            handler = this.handler;
+        }
+        finally
+        {
+            this.lock.unlock ();
+        }
+        logger.debug ( "Non blocking transport failed", ex );
+        if ( handler != null )
         {
+            handler.failed ( ex );
         }
     }
 
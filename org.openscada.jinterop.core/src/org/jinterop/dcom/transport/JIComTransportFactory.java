@@ -55,4 +55,16 @@ public final class JIComTransportFactory extends rpc.TransportFactory
 
         return factory;
     }
+
+    /**
+     * Stops the threads shared by the non blocking transports, failing the
+     * connections still using them. A later connection starts them again.
+     *
+     * @exclude
+     * @since 1.2.0
+     */
+    public static void internal_shutdown ()
+    {
+        JIComSelector.shutdown ();
+    }
 }
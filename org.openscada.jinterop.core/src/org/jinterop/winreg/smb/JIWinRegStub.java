@@ -34,6 +34,7 @@ import org.jinterop.dcom.common.JISystem;
 import org.jinterop.winreg.IJIWinReg;
 import org.jinterop.winreg.JIPolicyHandle;
 
+import rpc.ConnectionContext;
 import rpc.Endpoint;
 import rpc.Stub;
 
@@ -89,6 +90,7 @@ public class JIWinRegStub extends Stub implements IJIWinReg
 
         super.getProperties ().setProperty ( "rpc.ncacn_np.password", password_.toString () );
         super.getProperties ().setProperty ( "rpc.ncacn_np.domain", authInfo.getDomain () );
+        setFragmentSizes ();
         serverName = serverName.trim ();
         serverName = InetAddress.getByName ( serverName ).getHostAddress ();
         super.setAddress ( "ncacn_np:" + serverName + "[\\PIPE\\winreg]" );
@@ -101,12 +103,25 @@ public class JIWinRegStub extends Stub implements IJIWinReg
         super.setTransportFactory ( new rpc.ncacn_np.TransportFactory () );
         super.setProperties ( new Properties () );
         super.getProperties ().setProperty ( "rpc.ntlm.sso", "true" );
+        setFragmentSizes ();
         serverName = serverName.trim ();
         serverName = InetAddress.getByName ( serverName ).getHostAddress ();
         super.setAddress ( "ncacn_np:" + serverName + "[\\PIPE\\winreg]" );
 
     }
 
+    /**
+     * Each fragment travels in one TransactNamedPipe and is read back whole,
+     * the larger the fragments the fewer SMB round trips for big answers such
+     * as key enumerations. The server negotiates them down to what it
+     * supports.
+     */
+    private void setFragmentSizes ()
+    {
+        super.getProperties ().setProperty ( ConnectionContext.MAX_TRANSMIT_FRAGMENT, String.valueOf ( rpc.ncacn_np.RpcTransport.MAX_TRANSACT_FRAGMENT ) );
+        super.getProperties ().setProperty ( ConnectionContext.MAX_RECEIVE_FRAGMENT, String.valueOf ( ConnectionContext.MAX_FRAGMENT ) );
+    }
+
     @Override
     public JIPolicyHandle winreg_OpenHKLM () throws JIException
     {
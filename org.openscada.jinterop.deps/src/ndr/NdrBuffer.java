@@ -17,7 +17,10 @@
 
 package ndr;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.HashMap;
 
 import jcifs.util.Encdec;
@@ -45,6 +48,36 @@ public class NdrBuffer
 
     public NdrBuffer deferred;
 
+    /**
+     * Takes the leading bytes of a buffer which is still being encoded, see
+     * {@link NdrBuffer#drain()}.
+     */
+    public interface Sink
+    {
+        void flush ( byte[] buf, int off, int len ) throws IOException;
+    }
+
+    /**
+     * Supplies the bytes of a buffer which is decoded before all of it has
+     * arrived, see {@link NdrBuffer#require(int)}.
+     */
+    public interface Source
+    {
+        /**
+         * Appends the next part with {@link NdrBuffer#append(byte[], int, int)},
+         * returns <code>false</code> if there is nothing left.
+         */
+        boolean fill ( NdrBuffer buffer ) throws IOException;
+    }
+
+    private Sink sink;
+
+    private int chunk;
+
+    private Source source;
+
+    private int limit;
+
     public NdrBuffer ( byte[] buf, int start )
     {
         this.buf = buf;
@@ -68,6 +101,21 @@ public class NdrBuffer
         deferred = this;
     }
 
+    /**
+     * Makes this buffer a view of the <code>length</code> bytes of
+     * <code>buf</code> from <code>start</code> on, so one instance can be
+     * used for the successive pieces of a larger array.
+     */
+    public void frame ( byte[] buf, int start, int length )
+    {
+        this.buf = buf;
+        this.start = index = start;
+        this.length = length;
+        deferred = this;
+        sink = null;
+        source = null;
+    }
+
     public int getIndex ()
     {
         return index;
@@ -83,6 +131,118 @@ public class NdrBuffer
         return buf.length - start;
     }
 
+    /**
+     * Makes {@link #drain()} hand the encoded bytes to <code>sink</code> in
+     * pieces of <code>chunk</code> bytes, rounded down to a multiple of 8.
+     */
+    public void setSink ( Sink sink, int chunk )
+    {
+        this.sink = sink;
+        this.chunk = chunk & ~7;
+    }
+
+    /**
+     * The size of the pieces given to the sink, 0 without a sink. An encoder
+     * draining the buffer needs room for this much on top of what it writes
+     * between two drains.
+     */
+    public int getChunk ()
+    {
+        return sink != null ? chunk : 0;
+    }
+
+    /**
+     * Makes the decoding methods ask <code>source</code> for more whenever
+     * they read beyond the first <code>available</code> bytes.
+     */
+    public void setSource ( Source source, int available )
+    {
+        this.source = source;
+        this.limit = start + available;
+    }
+
+    /**
+     * Makes sure the next <code>n</code> bytes have arrived, as far as the
+     * source has them. Without a source this does nothing. An
+     * <code>IOException</code> of the source is thrown as the cause of an
+     * <code>IllegalStateException</code>.
+     */
+    public void require ( int n )
+    {
+        try
+        {
+            while ( source != null && index + n > limit )
+            {
+                if ( !source.fill ( this ) )
+                {
+                    source = null;
+                }
+            }
+        }
+        catch ( IOException ex )
+        {
+            source = null;
+            IllegalStateException failure = new IllegalStateException ( ex.getMessage () );
+            failure.initCause ( ex );
+            throw failure;
+        }
+    }
+
+    /**
+     * Adds bytes arriving from the source behind those already there,
+     * growing the array if needed.
+     */
+    public void append ( byte[] b, int off, int len )
+    {
+        if ( limit + len > buf.length )
+        {
+            byte[] tmp = new byte[Math.max ( limit + len, buf.length * 2 )];
+            System.arraycopy ( buf, 0, tmp, 0, limit );
+            buf = tmp;
+        }
+        System.arraycopy ( b, off, buf, limit, len );
+        limit += len;
+    }
+
+    /**
+     * Gives the encoded bytes to the sink as long as more than a chunk is
+     * buffered and moves the rest to the front. The encoder may call this only
+     * where nothing refers back to the bytes written so far. The pieces are
+     * multiples of 8 bytes, so the alignment of the rest is kept. An
+     * <code>IOException</code> of the sink is thrown as the cause of an
+     * <code>IllegalStateException</code>.
+     */
+    public void drain ()
+    {
+        if ( sink == null || deferred != this || index - start != length )
+        {
+            return;
+        }
+        int off = start;
+        try
+        {
+            while ( start + length - off > chunk )
+            {
+                sink.flush ( buf, off, chunk );
+                off += chunk;
+            }
+        }
+        catch ( IOException ex )
+        {
+            sink = null;
+            IllegalStateException failure = new IllegalStateException ( ex.getMessage () );
+            failure.initCause ( ex );
+            throw failure;
+        }
+        int n = off - start;
+        if ( n > 0 )
+        {
+            System.arraycopy ( buf, off, buf, start, length - n );
+            index -= n;
+            length -= n;
+        }
+    }
+
     public byte[] getBuffer ()
     {
         return buf;
@@ -108,6 +268,7 @@ public class NdrBuffer
 
     public void readOctetArray ( byte[] b, int i, int l )
     {
+        require ( l );
         System.arraycopy ( buf, index, b, i, l );
         advance ( l );
     }
@@ -132,6 +293,8 @@ public class NdrBuffer
         int i = index - start;
         int n = ( ( i + m ) & ~m ) - i;
         advance ( n );
+        //covers the aligned value read next, also when read directly from the array.
+        require ( boundary );
         return n;
     }
 
@@ -143,6 +306,7 @@ public class NdrBuffer
 
     public int dec_ndr_small ()
     {
+        require ( 1 );
         int val = buf[index] & 0xFF;
         advance ( 1 );
         return val;
@@ -150,7 +314,7 @@ public class NdrBuffer
 
     public void enc_ndr_short ( int s )
     {
-        align ( 2 );
+        align ( 2, (byte)0 );
         Encdec.enc_uint16le ( (short)s, buf, index );
         advance ( 2 );
     }
@@ -165,7 +329,7 @@ public class NdrBuffer
 
     public void enc_ndr_long ( int l )
     {
-        align ( 4 );
+        align ( 4, (byte)0 );
         Encdec.enc_uint32le ( l, buf, index );
         advance ( 4 );
     }
@@ -178,11 +342,93 @@ public class NdrBuffer
         return val;
     }
 
-    /* float */
-    /* double */
-    public void enc_ndr_string ( String s )
+    /*
+     * Arrays of primitives, aligned once and copied through a view on the
+     * buffer. The byte order is little endian, the only one Format accepts.
+     */
+    public void enc_ndr_short_array ( short[] values, int off, int len )
+    {
+        align ( 2, (byte)0 );
+        view ( len * 2 ).asShortBuffer ().put ( values, off, len );
+        advance ( len * 2 );
+    }
+
+    public void dec_ndr_short_array ( short[] values, int off, int len )
+    {
+        align ( 2 );
+        require ( len * 2 );
+        view ( len * 2 ).asShortBuffer ().get ( values, off, len );
+        advance ( len * 2 );
+    }
+
+    public void enc_ndr_long_array ( int[] values, int off, int len )
+    {
+        align ( 4, (byte)0 );
+        view ( len * 4 ).asIntBuffer ().put ( values, off, len );
+        advance ( len * 4 );
+    }
+
+    public void dec_ndr_long_array ( int[] values, int off, int len )
     {
         align ( 4 );
+        require ( len * 4 );
+        view ( len * 4 ).asIntBuffer ().get ( values, off, len );
+        advance ( len * 4 );
+    }
+
+    public void enc_ndr_hyper_array ( long[] values, int off, int len )
+    {
+        align ( 8, (byte)0 );
+        view ( len * 8 ).asLongBuffer ().put ( values, off, len );
+        advance ( len * 8 );
+    }
+
+    public void dec_ndr_hyper_array ( long[] values, int off, int len )
+    {
+        align ( 8 );
+        require ( len * 8 );
+        view ( len * 8 ).asLongBuffer ().get ( values, off, len );
+        advance ( len * 8 );
+    }
+
+    public void enc_ndr_float_array ( float[] values, int off, int len )
+    {
+        align ( 4, (byte)0 );
+        view ( len * 4 ).asFloatBuffer ().put ( values, off, len );
+        advance ( len * 4 );
+    }
+
+    public void dec_ndr_float_array ( float[] values, int off, int len )
+    {
+        align ( 4 );
+        require ( len * 4 );
+        view ( len * 4 ).asFloatBuffer ().get ( values, off, len );
+        advance ( len * 4 );
+    }
+
+    public void enc_ndr_double_array ( double[] values, int off, int len )
+    {
+        align ( 8, (byte)0 );
+        view ( len * 8 ).asDoubleBuffer ().put ( values, off, len );
+        advance ( len * 8 );
+    }
+
+    public void dec_ndr_double_array ( double[] values, int off, int len )
+    {
+        align ( 8 );
+        require ( len * 8 );
+        view ( len * 8 ).asDoubleBuffer ().get ( values, off, len );
+        advance ( len * 8 );
+    }
+
+    private ByteBuffer view ( int n )
+    {
+        return ByteBuffer.wrap ( buf, index, n ).order ( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    public void enc_ndr_string ( String s )
+    {
+        align ( 4, (byte)0 );
         int i = index;
         int len = s.length ();
         Encdec.enc_uint32le ( len + 1, buf, i );
@@ -207,6 +453,7 @@ public class NdrBuffer
     public String dec_ndr_string () throws NdrException
     {
         align ( 4 );
+        require ( 12 );
         int i = index;
         String val = null;
         int len = Encdec.dec_uint32le ( buf, i );
@@ -219,6 +466,7 @@ public class NdrBuffer
             {
                 if ( size < 0 || size > 0xFFFF )
                     throw new NdrException ( NdrException.INVALID_CONFORMANCE );
+                require ( 12 + size + 2 );
                 val = new String ( buf, i, size, "UnicodeLittle" );
                 i += size + 2;
             }
@@ -29,6 +29,15 @@ public abstract class NdrObject
         return opnum;
     }
 
+    /**
+     * Number of bytes to reserve for encoding this object. Objects sizing the
+     * buffer themselves in {@link #write(NetworkDataRepresentation)} return 0.
+     */
+    public int getEncodedLengthHint ()
+    {
+        return 1024;
+    }
+
     public void encode ( NetworkDataRepresentation ndr, NdrBuffer dst ) throws NdrException
     {
         ndr.buf = dst;
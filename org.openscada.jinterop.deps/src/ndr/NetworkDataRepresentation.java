@@ -129,6 +129,7 @@ public class NetworkDataRepresentation
     {
         if ( array == null || length == 0 )
             return;
+        buf.require ( length );
         length += offset;
         // won't work for EBCDIC
         for ( int i = offset; i < length; i++ )
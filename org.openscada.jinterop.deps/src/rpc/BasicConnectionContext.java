@@ -46,6 +46,11 @@ public class BasicConnectionContext implements ConnectionContext
     private int receiveLength;
 
     public ConnectionOrientedPdu init ( PresentationContext context, Properties properties ) throws IOException
+    {
+        return init ( new PresentationContext[] { context }, properties );
+    }
+
+    public ConnectionOrientedPdu init ( PresentationContext[] contexts, Properties properties ) throws IOException
     {
         established = false;
         connection = new DefaultConnection ();
@@ -54,26 +59,37 @@ public class BasicConnectionContext implements ConnectionContext
             String maxTransmit = properties.getProperty ( MAX_TRANSMIT_FRAGMENT );
             if ( maxTransmit != null )
             {
-                maxTransmitFragment = Integer.parseInt ( maxTransmit );
+                maxTransmitFragment = toFragmentSize ( Integer.parseInt ( maxTransmit ) );
             }
             String maxReceive = properties.getProperty ( MAX_RECEIVE_FRAGMENT );
             if ( maxReceive != null )
             {
-                maxReceiveFragment = Integer.parseInt ( maxReceive );
+                maxReceiveFragment = toFragmentSize ( Integer.parseInt ( maxReceive ) );
             }
         }
         BindPdu pdu = new BindPdu ();
-        pdu.setContextList ( new PresentationContext[] { context } );
+        pdu.setContextList ( contexts );
         pdu.setMaxTransmitFragment ( maxTransmitFragment );
         pdu.setMaxReceiveFragment ( maxReceiveFragment );
         return pdu;
     }
 
     public ConnectionOrientedPdu alter ( PresentationContext context ) throws IOException
+    {
+        return alter ( new PresentationContext[] { context } );
+    }
+
+    public ConnectionOrientedPdu alter ( PresentationContext[] contexts ) throws IOException
     {
         established = false;
         AlterContextPdu pdu = new AlterContextPdu ();
-        pdu.setContextList ( new PresentationContext[] { context } );
+        pdu.setContextList ( contexts );
+        if ( transmitLength > 0 )
+        {
+            //repeat the sizes negotiated by the bind.
+            pdu.setMaxTransmitFragment ( transmitLength );
+            pdu.setMaxReceiveFragment ( receiveLength );
+        }
         return pdu;
     }
 
@@ -85,36 +101,17 @@ public class BasicConnectionContext implements ConnectionContext
             case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
                 BindAcknowledgePdu bindAck = (BindAcknowledgePdu)pdu;
                 results = bindAck.getResultList ();
-                if ( results == null )
-                {
-                    throw new BindException ( "No presentation context results." );
-                }
-                for ( int i = results.length - 1; i >= 0; i-- )
-                {
-                    if ( results[i].result != PresentationResult.ACCEPTANCE )
-                    {
-                        throw new PresentationException ( "Context rejected.", results[i] );
-                    }
-                }
-                transmitLength = bindAck.getMaxReceiveFragment ();
-                receiveLength = bindAck.getMaxTransmitFragment ();
+                checkResults ( results );
+                //the server answers with the sizes it accepts, never send more than asked for though.
+                transmitLength = Math.min ( maxTransmitFragment, toFragmentSize ( bindAck.getMaxReceiveFragment () ) );
+                receiveLength = Math.max ( maxReceiveFragment, toFragmentSize ( bindAck.getMaxTransmitFragment () ) );
                 established = true;
                 connection = new DefaultConnection ( transmitLength, receiveLength );
                 return null;
             case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
                 AlterContextResponsePdu alterContextResponse = (AlterContextResponsePdu)pdu;
                 results = alterContextResponse.getResultList ();
-                if ( results == null )
-                {
-                    throw new BindException ( "No presentation context results." );
-                }
-                for ( int i = results.length - 1; i >= 0; i-- )
-                {
-                    if ( results[i].result != PresentationResult.ACCEPTANCE )
-                    {
-                        throw new PresentationException ( "Context rejected.", results[i] );
-                    }
-                }
+                checkResults ( results );
                 established = true;
                 return null;
             case BindNoAcknowledgePdu.BIND_NO_ACKNOWLEDGE_TYPE:
@@ -131,6 +128,34 @@ public class BasicConnectionContext implements ConnectionContext
         }
     }
 
+    /**
+     * Several contexts may be offered at once, it is up to the caller which of
+     * them it needs. Fails only if none was accepted.
+     */
+    private static void checkResults ( PresentationResult[] results ) throws IOException
+    {
+        if ( results == null )
+        {
+            throw new BindException ( "No presentation context results." );
+        }
+        for ( int i = 0; i < results.length; i++ )
+        {
+            if ( results[i].result == PresentationResult.ACCEPTANCE )
+            {
+                return;
+            }
+        }
+        if ( results.length > 0 )
+        {
+            throw new PresentationException ( "Context rejected.", results[0] );
+        }
+    }
+
+    private static int toFragmentSize ( int size )
+    {
+        return Math.max ( MIN_FRAGMENT, Math.min ( MAX_FRAGMENT, size ) );
+    }
+
     public Connection getConnection ()
     {
         return connection;
@@ -0,0 +1,120 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import ndr.NdrBuffer;
+import rpc.core.PresentationSyntax;
+
+/**
+ * Collects the PDUs transmitted through it instead of sending them, so that a
+ * burst of one-way requests, or the held back end of the handshake and the
+ * first request, leave with a single write on {@link #flush()}. Used by
+ * {@link ConnectionOrientedEndpoint} only, receiving is not supported.
+ */
+class BatchTransport implements GatheringTransport
+{
+
+    private final Transport transport;
+
+    private byte[] data;
+
+    private int length = 0;
+
+    BatchTransport ( Transport transport, int size )
+    {
+        this.transport = transport;
+        data = BufferPool.lease ( size );
+    }
+
+    public String getProtocol ()
+    {
+        return transport.getProtocol ();
+    }
+
+    public Properties getProperties ()
+    {
+        return transport.getProperties ();
+    }
+
+    public Endpoint attach ( PresentationSyntax syntax ) throws IOException
+    {
+        throw new RpcException ( "Batch transport cannot be attached." );
+    }
+
+    public void send ( NdrBuffer buffer ) throws IOException
+    {
+        append ( buffer.getBuffer (), 0, buffer.getLength () );
+    }
+
+    public void send ( NdrBuffer[] buffers ) throws IOException
+    {
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            append ( buffers[i].getBuffer (), buffers[i].start, buffers[i].getLength () );
+        }
+    }
+
+    public void receive ( NdrBuffer buffer ) throws IOException
+    {
+        throw new RpcException ( "Batch transport cannot receive." );
+    }
+
+    /**
+     * Sends everything collected so far with one write on the underlying
+     * transport.
+     */
+    void flush () throws IOException
+    {
+        if ( length == 0 )
+        {
+            return;
+        }
+        NdrBuffer buffer = new NdrBuffer ( data, 0 );
+        buffer.length = length;
+        length = 0;
+        transport.send ( buffer );
+    }
+
+    /**
+     * Hands the collected bytes back to the pool, anything not flushed is
+     * dropped.
+     */
+    public void close ()
+    {
+        BufferPool.release ( data );
+        data = null;
+        length = 0;
+    }
+
+    private void append ( byte[] bytes, int offset, int count )
+    {
+        if ( length + count > data.length )
+        {
+            byte[] grown = BufferPool.lease ( Math.max ( data.length * 2, length + count ) );
+            System.arraycopy ( data, 0, grown, 0, length );
+            BufferPool.release ( data );
+            data = grown;
+        }
+        System.arraycopy ( bytes, offset, data, length, count );
+        length += count;
+    }
+
+}
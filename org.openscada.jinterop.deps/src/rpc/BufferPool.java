@@ -0,0 +1,266 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte arrays for stubs and other per call buffers of the RPC layer. Arrays
+ * come in power of two size classes from 1 KB to 1 MB, every thread keeps a
+ * few arrays of each class for reuse, up to 1 MB in all. Virtual threads are
+ * many and short lived, they share a single pool of up to 4 MB instead.
+ * Whether a thread is virtual is looked up once, when it first leases or
+ * releases. Arrays are leased with {@link #lease(int)} and handed back with
+ * {@link #release(byte[])} once nothing refers to them any more, larger
+ * requests are simply allocated.
+ */
+public final class BufferPool
+{
+
+    private static final int MIN_SHIFT = 10;
+
+    private static final int MAX_SHIFT = 20;
+
+    //arrays kept per size class and thread.
+    private static final int DEPTH = 4;
+
+    //bytes kept per thread over all size classes.
+    private static final int MAX_CACHED_BYTES = 1 << 20;
+
+    //bytes kept for all virtual threads together.
+    private static final int MAX_SHARED_BYTES = 4 << 20;
+
+    private static final AtomicLong hits = new AtomicLong ();
+
+    private static final AtomicLong misses = new AtomicLong ();
+
+    private static final Cache shared = new Cache ( MAX_SHARED_BYTES );
+
+    //the cache of the thread, the shared one for a virtual thread.
+    private static final ThreadLocal cache = new ThreadLocal () {
+        protected Object initialValue ()
+        {
+            return isVirtualThread () ? shared : new Cache ( MAX_CACHED_BYTES );
+        }
+    };
+
+    //guards the shared pool, a lock rather than the monitor so that a virtual thread is not pinned.
+    private static final ReentrantLock sharedLock = new ReentrantLock ();
+
+    //Thread.isVirtual() on runtimes having virtual threads, null otherwise.
+    private static final Method isVirtual = getIsVirtual ();
+
+    private BufferPool ()
+    {
+    }
+
+    /**
+     * Returns an array of at least <code>size</code> bytes. A reused array
+     * still holds what was written before, the caller overwrites what it
+     * uses.
+     */
+    public static byte[] lease ( int size )
+    {
+        int sizeClass = sizeClass ( size );
+        if ( sizeClass < 0 )
+        {
+            misses.incrementAndGet ();
+            return new byte[size];
+        }
+        Cache pool = (Cache)cache.get ();
+        byte[] array = null;
+        if ( pool == shared )
+        {
+            sharedLock.lock ();
+            try
+            {
+                array = shared.take ( sizeClass );
+            }
+            finally
+            {
+                sharedLock.unlock ();
+            }
+        }
+        else
+        {
+            array = pool.take ( sizeClass );
+        }
+        if ( array == null )
+        {
+            misses.incrementAndGet ();
+            return new byte[1 << ( sizeClass + MIN_SHIFT )];
+        }
+        hits.incrementAndGet ();
+        return array;
+    }
+
+    /**
+     * Hands the array back for reuse. Any array whose length is exactly one
+     * of the size classes is taken, whether leased from here or not, the
+     * caller must not use it afterwards. Other arrays, and arrays beyond what
+     * the thread keeps, are left to the garbage collector.
+     */
+    public static void release ( byte[] array )
+    {
+        if ( array == null )
+        {
+            return;
+        }
+        int sizeClass = sizeClass ( array.length );
+        if ( sizeClass < 0 || array.length != 1 << ( sizeClass + MIN_SHIFT ) )
+        {
+            return;
+        }
+        Cache pool = (Cache)cache.get ();
+        if ( pool == shared )
+        {
+            sharedLock.lock ();
+            try
+            {
+                shared.put ( sizeClass, array );
+            }
+            finally
+            {
+                sharedLock.unlock ();
+            }
+        }
+        else
+        {
+            pool.put ( sizeClass, array );
+        }
+    }
+
+    /**
+     * Number of leases served from a cached array.
+     */
+    public static long getHits ()
+    {
+        return hits.get ();
+    }
+
+    /**
+     * Number of leases which had to allocate.
+     */
+    public static long getMisses ()
+    {
+        return misses.get ();
+    }
+
+    private static int sizeClass ( int size )
+    {
+        int shift = MIN_SHIFT;
+        while ( ( 1 << shift ) < size )
+        {
+            shift++;
+            if ( shift > MAX_SHIFT )
+            {
+                return -1;
+            }
+        }
+        return shift - MIN_SHIFT;
+    }
+
+    private static Method getIsVirtual ()
+    {
+        try
+        {
+            return Thread.class.getMethod ( "isVirtual", new Class[0] );
+        }
+        catch ( Exception ex )
+        {
+            return null;
+        }
+    }
+
+    private static boolean isVirtualThread ()
+    {
+        if ( isVirtual == null )
+        {
+            return false;
+        }
+        try
+        {
+            return ( (Boolean)isVirtual.invoke ( Thread.currentThread (), new Object[0] ) ).booleanValue ();
+        }
+        catch ( Exception ex )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * The arrays kept by a thread, or shared by the virtual threads.
+     */
+    private static final class Cache
+    {
+        private final byte[][][] arrays = new byte[MAX_SHIFT - MIN_SHIFT + 1][DEPTH][];
+
+        private final int maxBytes;
+
+        private int bytes;
+
+        Cache ( int maxBytes )
+        {
+            this.maxBytes = maxBytes;
+        }
+
+        byte[] take ( int sizeClass )
+        {
+            byte[][] arrays = this.arrays[sizeClass];
+            for ( int i = 0; i < DEPTH; i++ )
+            {
+                byte[] array = arrays[i];
+                if ( array != null )
+                {
+                    arrays[i] = null;
+                    bytes -= array.length;
+                    return array;
+                }
+            }
+            return null;
+        }
+
+        void put ( int sizeClass, byte[] array )
+        {
+            if ( bytes + array.length > maxBytes )
+            {
+                return;
+            }
+            byte[][] arrays = this.arrays[sizeClass];
+            for ( int i = 0; i < DEPTH; i++ )
+            {
+                if ( arrays[i] == array )
+                {
+                    return;
+                }
+            }
+            for ( int i = 0; i < DEPTH; i++ )
+            {
+                if ( arrays[i] == null )
+                {
+                    arrays[i] = array;
+                    bytes += array.length;
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+/**
+ * Notified when an asynchronous call completes, see
+ * {@link ConnectionOrientedEndpoint#callAsync}. On a multiplexed connection the
+ * methods are invoked on one of a few callback threads shared by all
+ * connections, implementations should return quickly.
+ */
+public interface CallListener
+{
+
+    /**
+     * The reply was received and decoded into the call's NDR object.
+     */
+    public void completed ();
+
+    /**
+     * The call failed, <code>ex</code> is the I/O error, fault or decoding
+     * error.
+     */
+    public void failed ( Exception ex );
+
+}
@@ -0,0 +1,524 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import rpc.pdu.FaultCoPdu;
+import rpc.pdu.ResponseCoPdu;
+import rpc.pdu.ShutdownPdu;
+import rpc.pdu.StubAssembler;
+
+/**
+ * Routes the replies arriving on a single connection to the calls waiting for
+ * them. Every outstanding call registers its call_id here, a dedicated reader
+ * thread is the only one receiving from the connection and hands each
+ * fragment to the call with the matching call_id. The fragments of concurrent
+ * replies may arrive interleaved, each call joins its own. On a
+ * {@link NonBlockingTransport} there is no reader thread, the fragments are
+ * taken whenever the transport reports one as buffered.
+ */
+class CallMultiplexer implements Runnable, NonBlockingTransport.ReadyHandler
+{
+
+    private static final Logger logger = Logger.getLogger ( "org.jinterop" );
+
+    private final ConnectionOrientedEndpoint endpoint;
+
+    private final Map pendingCalls = new HashMap ();
+
+    private int callIdCounter = 0;
+
+    private IOException failure;
+
+    private Thread reader;
+
+    CallMultiplexer ( ConnectionOrientedEndpoint endpoint )
+    {
+        this.endpoint = endpoint;
+    }
+
+    synchronized void start () throws IOException
+    {
+        Transport transport = endpoint.getTransport ();
+        if ( transport instanceof NonBlockingTransport && ( (NonBlockingTransport)transport ).setReadyHandler ( this, endpoint.getMaxReceiveFragment () ) )
+        {
+            return;
+        }
+        reader = ConnectionOrientedEndpoint.newThread ( this, "jI_RpcReader[" + endpoint.getSyntax () + "]" );
+        reader.start ();
+    }
+
+    synchronized int nextCallId ()
+    {
+        callIdCounter = ( callIdCounter + 1 ) & 0x7fffffff;
+        if ( callIdCounter == 0 )
+        {
+            callIdCounter = 1;
+        }
+        return callIdCounter;
+    }
+
+    synchronized PendingCall register () throws IOException
+    {
+        return register ( null );
+    }
+
+    /**
+     * Registers a call whose reply is given to <code>handler</code> instead of
+     * being waited for. The handler runs on a callback thread of the
+     * endpoint, never on the reader or selector thread.
+     */
+    synchronized PendingCall register ( ReplyHandler handler ) throws IOException
+    {
+        if ( failure != null )
+        {
+            throw wrap ( failure );
+        }
+        PendingCall call = new PendingCall ( nextCallId (), handler );
+        pendingCalls.put ( new Integer ( call.getCallId () ), call );
+        return call;
+    }
+
+    synchronized void unregister ( PendingCall call )
+    {
+        pendingCalls.remove ( new Integer ( call.getCallId () ) );
+    }
+
+    synchronized boolean hasPendingCalls ()
+    {
+        return !pendingCalls.isEmpty ();
+    }
+
+    public void run ()
+    {
+        try
+        {
+            while ( true )
+            {
+                ConnectionOrientedPdu pdu = null;
+                try
+                {
+                    pdu = endpoint.receiveFragment ();
+                }
+                catch ( SocketTimeoutException ex )
+                {
+                    //the socket timeout only bounds how long the reader blocks, deadlines are enforced by the callers.
+                    continue;
+                }
+                if ( !dispatch ( pdu ) )
+                {
+                    return;
+                }
+            }
+        }
+        catch ( IOException ex )
+        {
+            fail ( ex );
+        }
+        catch ( RuntimeException ex )
+        {
+            fail ( new IOException ( "Reader failed: " + ex ) );
+        }
+    }
+
+    public void pduAvailable ()
+    {
+        synchronized ( this )
+        {
+            if ( failure != null )
+            {
+                return;
+            }
+        }
+        try
+        {
+            dispatch ( endpoint.receiveFragment () );
+        }
+        catch ( IOException ex )
+        {
+            fail ( ex );
+        }
+        catch ( RuntimeException ex )
+        {
+            fail ( new IOException ( "Reader failed: " + ex ) );
+        }
+    }
+
+    public void failed ( IOException ex )
+    {
+        fail ( ex );
+    }
+
+    /**
+     * Hands the fragment to its call, which is completed once its reply is
+     * complete. Returns <code>false</code> if no more PDUs are to be
+     * expected.
+     */
+    private boolean dispatch ( ConnectionOrientedPdu pdu ) throws IOException
+    {
+        if ( pdu instanceof ShutdownPdu )
+        {
+            fail ( new RpcException ( "Received shutdown request from server." ) );
+            return false;
+        }
+        Integer key = new Integer ( pdu.getCallId () );
+        PendingCall call = null;
+        synchronized ( this )
+        {
+            call = (PendingCall)pendingCalls.get ( key );
+        }
+        if ( call == null )
+        {
+            if ( logger.isLoggable ( Level.FINEST ) )
+            {
+                logger.finest ( "Dropping PDU for unknown or abandoned call id " + pdu.getCallId () );
+            }
+            if ( pdu instanceof ResponseCoPdu )
+            {
+                ( (ResponseCoPdu)pdu ).releaseStub ();
+            }
+            return true;
+        }
+        ConnectionOrientedPdu reply = call.assemble ( pdu );
+        if ( reply == null )
+        {
+            return true;
+        }
+        synchronized ( this )
+        {
+            if ( pendingCalls.get ( key ) == call )
+            {
+                pendingCalls.remove ( key );
+            }
+        }
+        if ( reply instanceof ResponseCoPdu )
+        {
+            //decoded on another thread, the receive buffer will have moved on by then.
+            ( (ResponseCoPdu)reply ).detachStub ();
+        }
+        call.complete ( reply );
+        return true;
+    }
+
+    void close ()
+    {
+        fail ( new RpcException ( "Connection closed." ) );
+    }
+
+    private void fail ( IOException ex )
+    {
+        Map calls = null;
+        synchronized ( this )
+        {
+            if ( failure == null )
+            {
+                failure = ex;
+            }
+            calls = new HashMap ( pendingCalls );
+            pendingCalls.clear ();
+        }
+        if ( !calls.isEmpty () && logger.isLoggable ( Level.FINEST ) )
+        {
+            logger.finest ( "Failing " + calls.size () + " outstanding calls: " + ex );
+        }
+        Iterator iterator = calls.values ().iterator ();
+        while ( iterator.hasNext () )
+        {
+            ( (PendingCall)iterator.next () ).fail ( ex );
+        }
+    }
+
+    static IOException wrap ( IOException ex )
+    {
+        if ( ex instanceof InterruptedIOException )
+        {
+            return ex;
+        }
+        IOException wrapped = new IOException ( ex.getMessage () );
+        wrapped.initCause ( ex );
+        return wrapped;
+    }
+
+    /**
+     * Receives the reply of a call registered with a handler.
+     */
+    interface ReplyHandler
+    {
+        void replyReceived ( ConnectionOrientedPdu reply );
+
+        void failed ( IOException ex );
+    }
+
+    /**
+     * A call waiting for the reply carrying its call_id.
+     */
+    static class PendingCall
+    {
+
+        private final int callId;
+
+        private final ReplyHandler handler;
+
+        private ConnectionOrientedPdu reply;
+
+        private IOException failure;
+
+        private boolean done;
+
+        //the reply as far as received, only touched by the thread receiving.
+        private ConnectionOrientedPdu first;
+
+        private StubAssembler assembler;
+
+        private List fragments;
+
+        //waited on by the calling thread, a lock rather than the monitor so that a waiting virtual thread is not pinned.
+        private final ReentrantLock lock = new ReentrantLock ();
+
+        private final Condition completed = lock.newCondition ();
+
+        PendingCall ( int callId, ReplyHandler handler )
+        {
+            this.callId = callId;
+            this.handler = handler;
+        }
+
+        int getCallId ()
+        {
+            return callId;
+        }
+
+        /**
+         * Takes the next fragment of the reply, returns the reply once its
+         * last fragment is in and <code>null</code> before. The stubs of a
+         * response are joined as they come in.
+         */
+        ConnectionOrientedPdu assemble ( ConnectionOrientedPdu fragment ) throws IOException
+        {
+            boolean last = ! ( fragment instanceof Fragmentable ) || fragment.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG );
+            if ( first == null )
+            {
+                if ( last )
+                {
+                    return fragment;
+                }
+                if ( !fragment.getFlag ( ConnectionOrientedPdu.PFC_FIRST_FRAG ) )
+                {
+                    throw new RpcException ( "Received a fragment out of order for call id " + callId + "." );
+                }
+                first = fragment;
+                if ( fragment instanceof ResponseCoPdu )
+                {
+                    ResponseCoPdu response = (ResponseCoPdu)fragment;
+                    assembler = new StubAssembler ( response.getAllocationHint () );
+                    append ( response );
+                }
+                else
+                {
+                    fragments = new ArrayList ();
+                    fragments.add ( fragment );
+                }
+                return null;
+            }
+            if ( fragment instanceof FaultCoPdu && last )
+            {
+                //the server gave up on the call half way.
+                if ( assembler != null )
+                {
+                    BufferPool.release ( assembler.getBuffer () );
+                }
+                return fragment;
+            }
+            if ( fragment.getType () != first.getType () || fragment.getFlag ( ConnectionOrientedPdu.PFC_FIRST_FRAG ) )
+            {
+                throw new RpcException ( "Received unexpected PDU while receiving the fragments of call id " + callId + "." );
+            }
+            if ( assembler != null )
+            {
+                append ( (ResponseCoPdu)fragment );
+            }
+            else
+            {
+                fragments.add ( fragment );
+            }
+            if ( !last )
+            {
+                return null;
+            }
+            if ( assembler == null )
+            {
+                return (ConnectionOrientedPdu) ( (Fragmentable)first ).assemble ( fragments.iterator () );
+            }
+            ResponseCoPdu reply = (ResponseCoPdu)first;
+            int length = assembler.getLength ();
+            if ( length > 0 )
+            {
+                reply.setStub ( assembler.getBuffer (), length );
+            }
+            else
+            {
+                BufferPool.release ( assembler.getBuffer () );
+                reply.setStub ( null );
+            }
+            reply.setAllocationHint ( length );
+            reply.setFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG, true );
+            return reply;
+        }
+
+        private void append ( ResponseCoPdu fragment )
+        {
+            assembler.append ( fragment.getStubBuffer (), fragment.getStubOffset (), fragment.getStubLength () );
+            fragment.releaseStub ();
+        }
+
+        void complete ( ConnectionOrientedPdu reply )
+        {
+            lock.lock ();
+            try
+            {
+                if ( done )
+                {
+                    return;
+                }
+                this.reply = reply;
+                done = true;
+                completed.signalAll ();
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+            notifyHandler ( reply, null );
+        }
+
+        /**
+         * Fails the call unless it is done already, returns whether it was
+         * failed by this.
+         */
+        boolean fail ( IOException failure )
+        {
+            lock.lock ();
+            try
+            {
+                if ( done )
+                {
+                    return false;
+                }
+                this.failure = failure;
+                done = true;
+                completed.signalAll ();
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+            notifyHandler ( null, failure );
+            return true;
+        }
+
+        /**
+         * Runs the handler on a callback thread. Decoding a reply may issue
+         * calls itself (the addRef of a returned interface pointer), their
+         * replies would have to be delivered by the very thread waiting.
+         * With every callback thread busy and the queue full the call fails
+         * here instead, failing decodes nothing.
+         */
+        private void notifyHandler ( final ConnectionOrientedPdu reply, final IOException failure )
+        {
+            if ( handler == null )
+            {
+                return;
+            }
+            try
+            {
+                ConnectionOrientedEndpoint.getCallbackExecutor ().execute ( new Runnable () {
+                    public void run ()
+                    {
+                        if ( failure != null )
+                        {
+                            handler.failed ( failure );
+                        }
+                        else
+                        {
+                            handler.replyReceived ( reply );
+                        }
+                    }
+                } );
+            }
+            catch ( RejectedExecutionException ex )
+            {
+                handler.failed ( new RpcException ( "No callback thread free for the reply of call id " + callId + "." ) );
+            }
+        }
+
+        /**
+         * Waits for the reply, <code>timeout</code> is in millisecs and 0
+         * waits forever.
+         */
+        ConnectionOrientedPdu await ( long timeout ) throws IOException
+        {
+            long deadline = System.currentTimeMillis () + timeout;
+            lock.lock ();
+            try
+            {
+                while ( !done )
+                {
+                    if ( timeout <= 0 )
+                    {
+                        completed.await ();
+                        continue;
+                    }
+                    long remaining = deadline - System.currentTimeMillis ();
+                    if ( remaining <= 0 )
+                    {
+                        throw new SocketTimeoutException ( "No reply for call id " + callId + " within " + timeout + " ms." );
+                    }
+                    completed.await ( remaining, TimeUnit.MILLISECONDS );
+                }
+                if ( failure != null )
+                {
+                    throw wrap ( failure );
+                }
+                return reply;
+            }
+            catch ( InterruptedException ex )
+            {
+                throw new InterruptedIOException ( "Interrupted while waiting for call id " + callId + "." );
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+        }
+    }
+
+}
@@ -33,10 +33,30 @@ public interface ConnectionContext
 
     public static final int DEFAULT_MAX_RECEIVE_FRAGMENT = 4280;
 
+    /**
+     * Bounds of the fragment sizes, frag_length is an unsigned short and every
+     * implementation must accept 1432 bytes.
+     */
+    public static final int MIN_FRAGMENT = 1432;
+
+    public static final int MAX_FRAGMENT = 0xffff;
+
     public ConnectionOrientedPdu init ( PresentationContext context, Properties properties ) throws IOException;
 
     public ConnectionOrientedPdu alter ( PresentationContext context ) throws IOException;
 
+    /**
+     * Offers all <code>contexts</code> with a single bind, the context is
+     * established if at least one of them is accepted.
+     */
+    public ConnectionOrientedPdu init ( PresentationContext[] contexts, Properties properties ) throws IOException;
+
+    /**
+     * Offers all <code>contexts</code> with a single alter context, the
+     * context is established if at least one of them is accepted.
+     */
+    public ConnectionOrientedPdu alter ( PresentationContext[] contexts ) throws IOException;
+
     public ConnectionOrientedPdu accept ( ConnectionOrientedPdu pdu ) throws IOException;
 
     public Connection getConnection ();
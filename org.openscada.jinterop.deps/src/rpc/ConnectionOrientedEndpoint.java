@@ -19,10 +19,25 @@ package rpc;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +52,7 @@ import rpc.pdu.AlterContextPdu;
 import rpc.pdu.AlterContextResponsePdu;
 import rpc.pdu.BindAcknowledgePdu;
 import rpc.pdu.BindPdu;
+import rpc.pdu.CancelCoPdu;
 import rpc.pdu.FaultCoPdu;
 import rpc.pdu.RequestCoPdu;
 import rpc.pdu.ResponseCoPdu;
@@ -47,6 +63,47 @@ public class ConnectionOrientedEndpoint implements Endpoint
 
     public static final String CONNECTION_CONTEXT = "rpc.connectionContext";
 
+    /**
+     * When set to "true" the bind requests concurrent multiplexing
+     * (PFC_CONC_MPX). If the server agrees, replies are routed to the calls by
+     * their call_id and several calls may be outstanding on the connection at
+     * the same time.
+     */
+    public static final String MULTIPLEX = "rpc.multiplex";
+
+    /**
+     * When set to "true" the last leg of the bind handshake, which the server
+     * does not answer (the NTLM AUTH3), is held back and written together
+     * with the first request in a single write, instead of on its own.
+     */
+    public static final String PIPELINE_CONNECT = "rpc.pipelineConnect";
+
+    /**
+     * When set to "true" the stub of a request is sent fragment by fragment
+     * while it is being encoded, as far as the {@link NdrObject} drains its
+     * buffer, instead of being encoded completely first. Ignored on a
+     * multiplexed connection, the fragments of a request must not interleave
+     * with those of other calls, so a streamed request would hold off all
+     * other callers until encoded completely.
+     */
+    public static final String STREAM_REQUESTS = "rpc.streamRequests";
+
+    /**
+     * When set to "true" the reply of a call on a serialized connection is
+     * decoded as soon as its first fragment has arrived, the decoder waits
+     * for the following fragments when it gets to them. Replies of
+     * multiplexed calls are always assembled by the reader first.
+     */
+    public static final String INCREMENTAL_DECODE = "rpc.incrementalDecode";
+
+    /**
+     * The millisecs to wait for the server during context negotiation where
+     * the caller gives no timeout of its own, 0 (the default) waits forever.
+     * Also bounds the bind handshake, which precedes the reader thread of a
+     * multiplexed connection.
+     */
+    public static final String NEGOTIATION_TIMEOUT = "rpc.negotiationTimeout";
+
     protected ConnectionContext context;
 
     private Transport transport;
@@ -63,15 +120,139 @@ public class ConnectionOrientedEndpoint implements Endpoint
 
     private static final Logger logger = Logger.getLogger ( "org.jinterop" );
 
+    private static final byte[] NO_BYTES = new byte[0];
+
     //This is so as to reuse the contextids for already exported contexts.
     private Map uuidsVsContextIds = new HashMap ();
 
+    //syntaxes offered along with every bind or alter context until accepted, kept over reconnects.
+    private List offeredSyntaxes = new ArrayList ();
+
+    //calls given up on a serialized connection, their late replies are dropped.
+    private final Set abandonedCalls = new HashSet ();
+
+    private volatile CallMultiplexer multiplexer;
+
+    private final Transmitter transmitter = new Transmitter ( this );
+
+    //guards binding and serialized calls, a lock rather than the monitor so that blocking under it does not pin a virtual thread.
+    private final ReentrantLock lock = new ReentrantLock ();
+
+    //serializes the context negotiations on a multiplexed connection, they wait for the server without holding the lock.
+    private final ReentrantLock negotiationLock = new ReentrantLock ();
+
+    private int negotiationTimeout;
+
+    private static ThreadFactory threadFactory = null;
+
+    //runs the reply handlers of asynchronous calls, created on first use.
+    private static ThreadPoolExecutor callbackExecutor = null;
+
+    //replies waiting for a callback thread, further ones are rejected.
+    private static final int CALLBACK_QUEUE = 1024;
+
+    private static int callbackThreadCounter = 0;
+
+    //cancels asynchronous calls running out of time, created on first use.
+    private static ScheduledExecutorService timer = null;
+
+    //time of the last request or reply, context negotiation and pings do not count.
+    private volatile long lastUsed = System.currentTimeMillis ();
+
+    private boolean streamRequests;
+
+    private boolean incrementalDecode;
+
+    private EndpointStatistics statistics = new EndpointStatistics ();
+
     public ConnectionOrientedEndpoint ( Transport transport, PresentationSyntax syntax )
     {
         this.transport = transport;
         this.syntax = syntax;
     }
 
+    /**
+     * Sets the factory creating the threads of the RPC layer, the reader
+     * threads of multiplexed connections. <code>null</code> creates
+     * ordinary daemon threads.
+     */
+    public static synchronized void setThreadFactory ( ThreadFactory factory )
+    {
+        threadFactory = factory;
+    }
+
+    /**
+     * Creates an unstarted daemon thread for <code>task</code>, from the
+     * factory if set.
+     */
+    static synchronized Thread newThread ( Runnable task, String name )
+    {
+        Thread thread = threadFactory != null ? threadFactory.newThread ( task ) : new Thread ( task );
+        thread.setName ( name );
+        thread.setDaemon ( true );
+        return thread;
+    }
+
+    /**
+     * The threads decoding the replies of asynchronous calls and notifying
+     * their listeners, a fixed number of them taking the replies from a
+     * queue of {@link #CALLBACK_QUEUE}. A reply beyond that is rejected with
+     * a <code>RejectedExecutionException</code>, as is any after
+     * {@link #shutdown()}. Idle threads end after a minute.
+     */
+    static synchronized Executor getCallbackExecutor ()
+    {
+        if ( callbackExecutor == null )
+        {
+            int threads = Math.max ( 4, Runtime.getRuntime ().availableProcessors () );
+            callbackExecutor = new ThreadPoolExecutor ( threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue ( CALLBACK_QUEUE ), new ThreadFactory () {
+                public Thread newThread ( Runnable task )
+                {
+                    synchronized ( ConnectionOrientedEndpoint.class )
+                    {
+                        return ConnectionOrientedEndpoint.newThread ( task, "jI_RpcCallback-" + callbackThreadCounter++ );
+                    }
+                }
+            } );
+            callbackExecutor.allowCoreThreadTimeOut ( true );
+        }
+        return callbackExecutor;
+    }
+
+    private static synchronized ScheduledExecutorService getTimer ()
+    {
+        if ( timer == null )
+        {
+            timer = new ScheduledThreadPoolExecutor ( 1, new ThreadFactory () {
+                public Thread newThread ( Runnable task )
+                {
+                    return ConnectionOrientedEndpoint.newThread ( task, "jI_RpcTimer" );
+                }
+            } );
+        }
+        return timer;
+    }
+
+    /**
+     * Stops the callback threads and the timer of the asynchronous calls.
+     * Replies already queued are still handed to their handlers, calls still
+     * waiting for theirs are no longer timed out. Both are created anew by
+     * the next asynchronous call.
+     */
+    public static synchronized void shutdown ()
+    {
+        if ( callbackExecutor != null )
+        {
+            callbackExecutor.shutdown ();
+            callbackExecutor = null;
+        }
+        if ( timer != null )
+        {
+            timer.shutdownNow ();
+            timer = null;
+        }
+    }
+
     public Transport getTransport ()
     {
         return transport;
@@ -82,221 +263,1379 @@ public class ConnectionOrientedEndpoint implements Endpoint
         return syntax;
     }
 
-    public void call ( int semantics, UUID object, int opnum, NdrObject ndrobj ) throws IOException
+    /**
+     * The counters of the traffic of this endpoint.
+     */
+    public EndpointStatistics getStatistics ()
     {
-        bind ();
-        RequestCoPdu request = new RequestCoPdu ();
-        request.setContextId ( contextIdToUse );
+        return statistics;
+    }
 
-        byte[] b = new byte[1024];
-        NdrBuffer buffer = new NdrBuffer ( b, 0 );
-        NetworkDataRepresentation ndr = new NetworkDataRepresentation ();
-        ndrobj.encode ( ndr, buffer );
-        byte[] stub = new byte[buffer.getLength ()]; /* yuk */
-        System.arraycopy ( buffer.buf, 0, stub, 0, stub.length );
+    /**
+     * Counts the traffic of this endpoint into <code>statistics</code>, which
+     * may be shared by several endpoints, instead of its own counters.
+     */
+    public void setStatistics ( EndpointStatistics statistics )
+    {
+        this.statistics = statistics;
+    }
 
-        if ( logger.isLoggable ( Level.FINEST ) )
+    //the connection of the context, which is replaced once the bind is accepted.
+    private Connection getConnection ()
+    {
+        Connection connection = context.getConnection ();
+        if ( connection instanceof DefaultConnection )
         {
-            //jcifs.util.Hexdump.hexdump(System.err, stub, 0, stub.length);
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-            jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), stub, 0, stub.length );
-            logger.finest ( "\n" + byteArrayOutputStream.toString () );
+            ( (DefaultConnection)connection ).setStatistics ( statistics );
         }
+        return connection;
+    }
 
-        request.setStub ( stub );
-        request.setAllocationHint ( buffer.getLength () );
-        request.setOpnum ( opnum );
-        request.setObject ( object );
-        if ( ( semantics & MAYBE ) != 0 )
+    public void call ( int semantics, UUID object, int opnum, NdrObject ndrobj ) throws IOException
+    {
+        call ( semantics, object, opnum, ndrobj, null, 0 );
+    }
+
+    /**
+     * Executes the call on the presentation context of <code>syntax</code>
+     * (the endpoint syntax if <code>null</code>), the context is negotiated
+     * once and reused afterwards. On a multiplexed connection the calling
+     * threads do not wait for each other. Each call waits up to
+     * <code>timeout</code> millisecs for its reply, 0 means forever on a
+     * multiplexed connection and the socket timeout on a serialized one. A
+     * call running out of time is cancelled with a cancel PDU and its late
+     * reply dropped, the connection stays usable.
+     */
+    public void call ( int semantics, UUID object, int opnum, NdrObject ndrobj, PresentationSyntax syntax, int timeout ) throws IOException
+    {
+        CallMultiplexer multiplexer = null;
+        Connection connection = null;
+        int contextId = 0;
+        lock.lock ();
+        try
         {
-            request.setFlag ( ConnectionOrientedPdu.PFC_MAYBE, true );
+            bind ();
+            multiplexer = this.multiplexer;
+            if ( multiplexer == null )
+            {
+                contextId = bindContext ( syntax, timeout );
+                RequestCoPdu request = newRequest ( semantics, object, opnum, contextId );
+                //an own call_id, the reply of a cancelled call must be told apart from the next one.
+                request.setCallId ( nextCallId () );
+                long start = System.nanoTime ();
+                transmitStreamed ( getConnection (), request, ndrobj );
+                if ( !request.getFlag ( ConnectionOrientedPdu.PFC_MAYBE ) )
+                {
+                    ConnectionOrientedPdu reply = receiveReply ( request.getCallId (), timeout );
+                    statistics.roundTrip ( start );
+                    processReply ( reply, ndrobj );
+                }
+                return;
+            }
+            connection = getConnection ();
+        }
+        finally
+        {
+            lock.unlock ();
         }
-        send ( request );
-
-        //        if (semantics == 100)
-        //        try{
-        //        	Thread.sleep(100);
-        //        }catch(Exception e)
-        //        {
-        //
-        //        }
 
+        contextId = multiplexedContext ( syntax, timeout );
+        RequestCoPdu request = newRequest ( semantics, object, opnum, contextId );
         if ( request.getFlag ( ConnectionOrientedPdu.PFC_MAYBE ) )
+        {
+            request.setCallId ( multiplexer.nextCallId () );
+            transmitStreamed ( connection, request, ndrobj );
             return;
-        ConnectionOrientedPdu reply = receive ();
-        if ( reply instanceof ResponseCoPdu )
+        }
+        CallMultiplexer.PendingCall call = multiplexer.register ();
+        try
         {
-            ndr.setFormat ( reply.getFormat () );
-
-            buffer = new NdrBuffer ( ( (ResponseCoPdu)reply ).getStub (), 0 );
-
-            if ( logger.isLoggable ( Level.FINEST ) )
+            request.setCallId ( call.getCallId () );
+            long start = System.nanoTime ();
+            transmitStreamed ( connection, request, ndrobj );
+            ConnectionOrientedPdu reply = null;
+            try
             {
-                //jcifs.util.Hexdump.hexdump(System.err, buffer.buf, 0, buffer.buf.length);
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), buffer.buf, 0, buffer.buf.length );
-                logger.finest ( "\n" + byteArrayOutputStream.toString () );
+                reply = call.await ( timeout );
+            }
+            catch ( InterruptedIOException ex )
+            {
+                cancel ( connection, call.getCallId () );
+                throw ex;
             }
+            statistics.roundTrip ( start );
+            processReply ( reply, ndrobj );
+        }
+        finally
+        {
+            multiplexer.unregister ( call );
+        }
+    }
 
-            ndrobj.decode ( ndr, buffer );
+    int nextCallId ()
+    {
+        callId = ( callId + 1 ) & 0x7fffffff;
+        if ( callId == 0 )
+        {
+            callId = 1;
+        }
+        return callId;
+    }
 
+    /**
+     * Waits for the reply to <code>callId</code> on a serialized connection,
+     * at most <code>timeout</code> millisecs if the transport supports
+     * deadlines. The call is cancelled if it runs out of time.
+     */
+    private ConnectionOrientedPdu receiveReply ( int callId, int timeout ) throws IOException
+    {
+        Transport transport = getTransport ();
+        if ( timeout <= 0 || ! ( transport instanceof DeadlineTransport ) )
+        {
+            return receiveSerialized ();
         }
-        else if ( reply instanceof FaultCoPdu )
+        DeadlineTransport deadlineTransport = (DeadlineTransport)transport;
+        deadlineTransport.setReceiveDeadline ( System.currentTimeMillis () + timeout );
+        try
         {
-            FaultCoPdu fault = (FaultCoPdu)reply;
-            throw new FaultException ( "Received fault.", fault.getStatus (), fault.getStub () );
+            return receiveSerialized ();
         }
-        else if ( reply instanceof ShutdownPdu )
+        catch ( SocketTimeoutException ex )
         {
-            throw new RpcException ( "Received shutdown request from server." );
+            abandonedCalls.add ( new Integer ( callId ) );
+            cancel ( getConnection (), callId );
+            throw ex;
         }
-        else
+        finally
         {
-            throw new RpcException ( "Received unexpected PDU from server." );
+            deadlineTransport.setReceiveDeadline ( 0 );
         }
     }
 
-    protected void rebind () throws IOException
+    /**
+     * Receives the next PDU on a serialized connection, late replies of
+     * abandoned calls are dropped on the way. The reply of any other call
+     * forgets the abandoned ones, the server has answered or orphaned them
+     * by then.
+     */
+    private ConnectionOrientedPdu receiveSerialized () throws IOException
     {
-        bound = false;
-        bind ();
+        while ( true )
+        {
+            ConnectionOrientedPdu pdu = null;
+            Connection connection = getConnection ();
+            if ( incrementalDecode && connection instanceof DefaultConnection )
+            {
+                pdu = ( (DefaultConnection)connection ).receiveFirstFragment ( getTransport () );
+            }
+            else
+            {
+                pdu = receive ();
+            }
+            if ( abandonedCalls.isEmpty () || ! ( pdu instanceof ResponseCoPdu || pdu instanceof FaultCoPdu ) )
+            {
+                return pdu;
+            }
+            if ( !abandonedCalls.contains ( new Integer ( pdu.getCallId () ) ) )
+            {
+                abandonedCalls.clear ();
+                return pdu;
+            }
+            //a reply taken fragment by fragment is dropped up to its last fragment.
+            if ( pdu.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG ) )
+            {
+                abandonedCalls.remove ( new Integer ( pdu.getCallId () ) );
+            }
+            if ( logger.isLoggable ( Level.FINEST ) )
+            {
+                logger.finest ( "Dropping late reply of cancelled call id " + pdu.getCallId () );
+            }
+            if ( pdu instanceof ResponseCoPdu )
+            {
+                ( (ResponseCoPdu)pdu ).releaseStub ();
+            }
+        }
     }
 
-    protected void bind () throws IOException
+    /**
+     * Asks the server to cancel the call. The reply, if any, is dropped
+     * whether the server honours this or not.
+     */
+    private void cancel ( Connection connection, int callId )
     {
-        if ( bound )
-            return;
-        if ( context != null )
+        CancelCoPdu cancel = new CancelCoPdu ();
+        cancel.setCallId ( callId );
+        try
         {
-            bound = true;
-            try
-            {
-                Integer cid = (Integer)uuidsVsContextIds.get ( getSyntax ().toString ().toUpperCase () );
-                ConnectionOrientedPdu pdu = context.alter ( new PresentationContext ( cid == null ? ++contextIdCounter : cid.intValue (), getSyntax () ) );
-                boolean sendAlter = false;
-                if ( cid == null )
-                {
-                    uuidsVsContextIds.put ( getSyntax ().toString ().toUpperCase (), new Integer ( contextIdCounter ) );
-                    contextIdToUse = contextIdCounter;
-                    sendAlter = true;
-                }
-                else
-                {
-                    contextIdToUse = cid.intValue ();
-                }
+            transmitter.transmit ( connection, cancel );
+        }
+        catch ( IOException ex )
+        {
+            logger.log ( Level.FINE, "Could not cancel call id " + callId, ex );
+        }
+    }
 
-                if ( sendAlter )
-                {
-                    if ( pdu != null )
-                        send ( pdu );
-                    while ( !context.isEstablished () )
-                    {
-                        ConnectionOrientedPdu recieved = receive ();
-                        if ( ( pdu = context.accept ( recieved ) ) != null )
-                        {
-                            switch ( pdu.getType () )
-                            {
-                                case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
-                                    if ( ( (BindAcknowledgePdu)pdu ).getResultList ()[0].reason != PresentationResult.PROVIDER_REJECTION )
-                                    {
-                                        currentIID = ( (BindPdu)recieved ).getContextList ()[0].abstractSyntax.getUuid ().toString ();
-                                    }
-                                    break;
-                                case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
-                                    //we need to record the iid now if this is successful and subsequent calls will now be for this iid.
-                                    if ( ( (AlterContextResponsePdu)pdu ).getResultList ()[0].reason != PresentationResult.PROVIDER_REJECTION )
-                                    {
-                                        currentIID = ( (AlterContextPdu)recieved ).getContextList ()[0].abstractSyntax.getUuid ().toString ();
-                                    }
-                                    break;
-                                default:
-                                    //nothing
-                            }
-                            send ( pdu );
-                        }
-                    }
-                }
-            }
-            catch ( IOException ex )
+    /**
+     * Issues the call without waiting for the reply, <code>listener</code> is
+     * notified once the reply has been decoded into <code>ndrobj</code>. The
+     * reader thread only takes the reply off the connection, it is decoded
+     * and the listener notified on a callback thread, where decoding may
+     * issue calls itself. Errors while sending are thrown from here. On a
+     * serialized connection there is no reader thread, the call is then
+     * executed in the calling thread and the listener is notified before this
+     * method returns.
+     */
+    public void callAsync ( int semantics, UUID object, int opnum, NdrObject ndrobj, PresentationSyntax syntax, CallListener listener ) throws IOException
+    {
+        callAsync ( semantics, object, opnum, ndrobj, syntax, listener, 0 );
+    }
+
+    /**
+     * Like {@link #callAsync(int, UUID, int, NdrObject, PresentationSyntax, CallListener)},
+     * the call fails with a <code>SocketTimeoutException</code> if its reply
+     * has not arrived within <code>timeout</code> millisecs (0 waits
+     * forever). The call is cancelled then and its late reply dropped, as
+     * with {@link #call(int, UUID, int, NdrObject, PresentationSyntax, int)}.
+     */
+    public void callAsync ( int semantics, UUID object, int opnum, NdrObject ndrobj, PresentationSyntax syntax, CallListener listener, int timeout ) throws IOException
+    {
+        CallMultiplexer multiplexer = null;
+        Connection connection = null;
+        int contextId = 0;
+        lock.lock ();
+        try
+        {
+            bind ();
+            multiplexer = this.multiplexer;
+            if ( multiplexer != null )
             {
-                bound = false;
-                throw ex;
+                connection = getConnection ();
             }
-            catch ( RuntimeException ex )
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+
+        if ( multiplexer == null )
+        {
+            try
             {
-                bound = false;
-                throw ex;
+                call ( semantics, object, opnum, ndrobj, syntax, timeout );
             }
             catch ( Exception ex )
             {
-                bound = false;
-                throw new IOException ( ex.getMessage () );
+                listener.failed ( ex );
+                return;
             }
+            listener.completed ();
+            return;
         }
-        else
+
+        contextId = multiplexedContext ( syntax, timeout );
+        RequestCoPdu request = createRequest ( semantics, object, opnum, ndrobj, contextId );
+        if ( request.getFlag ( ConnectionOrientedPdu.PFC_MAYBE ) )
+        {
+            request.setCallId ( multiplexer.nextCallId () );
+            transmitRequest ( connection, request );
+            listener.completed ();
+            return;
+        }
+        AsyncReply handler = new AsyncReply ( ndrobj, listener );
+        CallMultiplexer.PendingCall call = multiplexer.register ( handler );
+        try
+        {
+            request.setCallId ( call.getCallId () );
+            transmitRequest ( connection, request );
+        }
+        catch ( IOException ex )
+        {
+            multiplexer.unregister ( call );
+            throw ex;
+        }
+        if ( timeout > 0 )
         {
-            connect ();
+            handler.setTimeout ( getTimer ().schedule ( new AsyncTimeout ( multiplexer, connection, call, timeout ), timeout, TimeUnit.MILLISECONDS ) );
         }
     }
 
-    protected void send ( ConnectionOrientedPdu request ) throws IOException
+    /**
+     * Decodes the reply of an asynchronous call and notifies its listener.
+     */
+    private class AsyncReply implements CallMultiplexer.ReplyHandler
     {
-        bind ();
-        context.getConnection ().transmit ( request, getTransport () );
+        private final NdrObject ndrobj;
+
+        private final CallListener listener;
+
+        private final long start = System.nanoTime ();
+
+        private volatile ScheduledFuture timeout;
+
+        AsyncReply ( NdrObject ndrobj, CallListener listener )
+        {
+            this.ndrobj = ndrobj;
+            this.listener = listener;
+        }
+
+        void setTimeout ( ScheduledFuture timeout )
+        {
+            this.timeout = timeout;
+        }
+
+        public void replyReceived ( ConnectionOrientedPdu reply )
+        {
+            cancelTimeout ();
+            statistics.roundTrip ( start );
+            try
+            {
+                processReply ( reply, ndrobj );
+            }
+            catch ( Exception ex )
+            {
+                listener.failed ( ex );
+                return;
+            }
+            listener.completed ();
+        }
+
+        public void failed ( IOException ex )
+        {
+            cancelTimeout ();
+            listener.failed ( ex );
+        }
+
+        //the reply may come in before the timeout is set, the timeout does nothing then.
+        private void cancelTimeout ()
+        {
+            ScheduledFuture timeout = this.timeout;
+            if ( timeout != null )
+            {
+                timeout.cancel ( false );
+            }
+        }
     }
 
-    protected ConnectionOrientedPdu receive () throws IOException
+    /**
+     * Fails an asynchronous call whose reply is overdue and cancels it on the
+     * server, runs on the timer thread.
+     */
+    private class AsyncTimeout implements Runnable
     {
-        return context.getConnection ().receive ( getTransport () );
+        private final CallMultiplexer multiplexer;
+
+        private final Connection connection;
+
+        private final CallMultiplexer.PendingCall call;
+
+        private final int timeout;
+
+        AsyncTimeout ( CallMultiplexer multiplexer, Connection connection, CallMultiplexer.PendingCall call, int timeout )
+        {
+            this.multiplexer = multiplexer;
+            this.connection = connection;
+            this.call = call;
+            this.timeout = timeout;
+        }
+
+        public void run ()
+        {
+            if ( call.fail ( new SocketTimeoutException ( "No reply for call id " + call.getCallId () + " within " + timeout + " ms." ) ) )
+            {
+                multiplexer.unregister ( call );
+                cancel ( connection, call.getCallId () );
+            }
+        }
     }
 
-    public void detach () throws IOException
+    /**
+     * Issues the calls with {@link Endpoint#MAYBE} semantics, no replies are
+     * sent back by the server. The requests are sent back to back with a
+     * single write on the transport, on a multiplexed connection without
+     * holding up the other calling threads while they are encoded. The
+     * <code>objects</code> and <code>syntaxes</code> entries may be
+     * <code>null</code>, the syntax as with {@link #call(int, UUID, int, NdrObject, PresentationSyntax, int)}.
+     */
+    public void callOneWay ( UUID[] objects, int[] opnums, NdrObject[] ndrobjs, PresentationSyntax[] syntaxes ) throws IOException
     {
-        bound = false;
-        context = null;
-        getTransport ().close ();
+        if ( ndrobjs.length == 0 )
+        {
+            return;
+        }
+        CallMultiplexer multiplexer = null;
+        Connection connection = null;
+        int[] contextIds = new int[ndrobjs.length];
+        lock.lock ();
+        try
+        {
+            bind ();
+            multiplexer = this.multiplexer;
+            if ( multiplexer == null )
+            {
+                for ( int i = 0; i < ndrobjs.length; i++ )
+                {
+                    contextIds[i] = bindContext ( syntaxes[i], 0 );
+                }
+                transmitBatch ( getConnection (), null, objects, opnums, ndrobjs, contextIds );
+                return;
+            }
+            connection = getConnection ();
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+        for ( int i = 0; i < ndrobjs.length; i++ )
+        {
+            contextIds[i] = multiplexedContext ( syntaxes[i], 0 );
+        }
+        transmitBatch ( connection, multiplexer, objects, opnums, ndrobjs, contextIds );
     }
 
-    protected String currentIID = null;
-
-    private void connect () throws IOException
+    private void transmitBatch ( Connection connection, CallMultiplexer multiplexer, UUID[] objects, int[] opnums, NdrObject[] ndrobjs, int[] contextIds ) throws IOException
     {
-        bound = true;
-        contextIdCounter = 0;
-        currentIID = null;
+        RequestCoPdu[] requests = new RequestCoPdu[ndrobjs.length];
         try
         {
-            uuidsVsContextIds.put ( getSyntax ().toString ().toUpperCase (), new Integer ( contextIdCounter ) );
-            context = createContext ();
-            ConnectionOrientedPdu pdu = context.init ( new PresentationContext ( contextIdCounter, getSyntax () ), getTransport ().getProperties () );
-            contextIdToUse = contextIdCounter;
-            if ( pdu != null )
-                send ( pdu );
-            while ( !context.isEstablished () )
+            int size = 0;
+            for ( int i = 0; i < requests.length; i++ )
             {
-                ConnectionOrientedPdu recieved = receive ();
-                if ( ( pdu = context.accept ( recieved ) ) != null )
-                {
-                    switch ( pdu.getType () )
+                requests[i] = createRequest ( MAYBE, objects[i], opnums[i], ndrobjs[i], contextIds[i] );
+                //header, auth trailer and the headers of further fragments.
+                size += requests[i].getStubLength () + 128;
+            }
+            transmitter.transmitBatch ( connection, multiplexer, requests, size );
+        }
+        finally
+        {
+            for ( int i = 0; i < requests.length && requests[i] != null; i++ )
+            {
+                releaseStub ( requests[i] );
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the server accepted concurrent
+     * multiplexing for this connection, binds if not yet done.
+     */
+    public boolean isMultiplexed () throws IOException
+    {
+        lock.lock ();
+        try
+        {
+            bind ();
+            return multiplexer != null;
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+    }
+
+    /**
+     * Returns the millisecs since the last request was issued or reply was
+     * received, 0 while calls are outstanding on a multiplexed connection.
+     */
+    public long getIdleTime ()
+    {
+        CallMultiplexer multiplexer = this.multiplexer;
+        if ( multiplexer != null && multiplexer.hasPendingCalls () )
+        {
+            return 0;
+        }
+        return System.currentTimeMillis () - lastUsed;
+    }
+
+    /**
+     * Checks that the server still answers on this connection, with an alter
+     * context for the context in use. Waits at most <code>timeout</code>
+     * millisecs for the answer (0 forever) if the transport supports
+     * deadlines, a connection which fails this should be dropped. Does
+     * nothing if the endpoint is not bound.
+     */
+    public void ping ( int timeout ) throws IOException
+    {
+        lock.lock ();
+        try
+        {
+            if ( !bound || context == null )
+            {
+                return;
+            }
+            if ( multiplexer == null )
+            {
+                checkAccepted ( negotiate ( context.alter ( getPingContexts () ), timeout ) );
+                return;
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+        lockNegotiation ( timeout );
+        try
+        {
+            CallMultiplexer multiplexer = null;
+            ConnectionContext context = null;
+            Connection connection = null;
+            ConnectionOrientedPdu pdu = null;
+            lock.lock ();
+            try
+            {
+                multiplexer = this.multiplexer;
+                context = this.context;
+                if ( multiplexer == null || context == null )
+                {
+                    throw new RpcException ( "Connection closed." );
+                }
+                connection = getConnection ();
+                pdu = context.alter ( getPingContexts () );
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+            checkAccepted ( negotiateMultiplexed ( multiplexer, connection, context, pdu, timeout ) );
+        }
+        finally
+        {
+            negotiationLock.unlock ();
+        }
+    }
+
+    private PresentationContext[] getPingContexts ()
+    {
+        return new PresentationContext[] { new PresentationContext ( contextIdToUse, new PresentationSyntax ( getSyntax ().toString () ) ) };
+    }
+
+    private RequestCoPdu createRequest ( int semantics, UUID object, int opnum, NdrObject ndrobj, int contextId ) throws IOException
+    {
+        RequestCoPdu request = newRequest ( semantics, object, opnum, contextId );
+        encodeStub ( request, ndrobj, null );
+        return request;
+    }
+
+    private RequestCoPdu newRequest ( int semantics, UUID object, int opnum, int contextId )
+    {
+        lastUsed = System.currentTimeMillis ();
+        RequestCoPdu request = new RequestCoPdu ();
+        request.setContextId ( contextId );
+        request.setOpnum ( opnum );
+        request.setObject ( object );
+        if ( ( semantics & MAYBE ) != 0 )
+        {
+            request.setFlag ( ConnectionOrientedPdu.PFC_MAYBE, true );
+        }
+        return request;
+    }
+
+    /**
+     * Encodes <code>ndrobj</code> as the stub of <code>request</code>. With a
+     * <code>stream</code> the leading fragments may have been sent already,
+     * the stub is what is left.
+     */
+    private void encodeStub ( RequestCoPdu request, NdrObject ndrobj, StubStream stream ) throws IOException
+    {
+        int hint = ndrobj.getEncodedLengthHint ();
+        NdrBuffer buffer = new NdrBuffer ( hint > 0 ? BufferPool.lease ( hint ) : NO_BYTES, 0 );
+        if ( stream != null )
+        {
+            buffer.setSink ( stream, stream.getChunk () );
+        }
+        NetworkDataRepresentation ndr = new NetworkDataRepresentation ();
+        ndrobj.encode ( ndr, buffer );
+
+        if ( logger.isLoggable ( Level.FINEST ) )
+        {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
+            jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), buffer.buf, 0, buffer.getLength () );
+            logger.finest ( "\n" + byteArrayOutputStream.toString () );
+        }
+
+        //the encoded bytes are the stub, they are copied only once more into the transmit buffer.
+        request.setStub ( buffer.buf, 0, buffer.getLength () );
+        request.setAllocationHint ( buffer.getLength () );
+    }
+
+    /**
+     * Encodes the stub of <code>request</code> and transmits it. When
+     * requests are streamed, the fragments complete while encoding are sent
+     * right away, the call id must hence be set before. Never streamed on a
+     * multiplexed connection.
+     */
+    private void transmitStreamed ( Connection connection, RequestCoPdu request, NdrObject ndrobj ) throws IOException
+    {
+        if ( !streamRequests || multiplexer != null || ! ( connection instanceof DefaultConnection ) )
+        {
+            encodeStub ( request, ndrobj, null );
+            transmitRequest ( connection, request );
+            return;
+        }
+        StubStream stream = new StubStream ( transmitter, connection, request, ( (DefaultConnection)connection ).getTransmitLength () );
+        try
+        {
+            try
+            {
+                encodeStub ( request, ndrobj, stream );
+            }
+            catch ( IllegalStateException ex )
+            {
+                if ( ex.getCause () instanceof IOException )
+                {
+                    throw (IOException)ex.getCause ();
+                }
+                throw ex;
+            }
+            if ( stream.isStarted () )
+            {
+                request.setFlag ( ConnectionOrientedPdu.PFC_FIRST_FRAG, false );
+            }
+            transmitRequest ( connection, request );
+            stream.finished ();
+        }
+        finally
+        {
+            stream.close ();
+        }
+    }
+
+    private void processReply ( ConnectionOrientedPdu reply, NdrObject ndrobj ) throws IOException
+    {
+        lastUsed = System.currentTimeMillis ();
+        if ( reply instanceof ResponseCoPdu )
+        {
+            NetworkDataRepresentation ndr = new NetworkDataRepresentation ();
+            ndr.setFormat ( reply.getFormat () );
+
+            ResponseCoPdu response = (ResponseCoPdu)reply;
+            ResponseSource source = null;
+            NdrBuffer buffer = null;
+            if ( response.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG ) )
+            {
+                //decoded where it lies, a single fragment in the receive buffer or the assembled stub.
+                buffer = new NdrBuffer ( response.getStubBuffer (), response.getStubOffset () );
+            }
+            else
+            {
+                //only the first fragment has arrived, the rest is received while decoding.
+                source = new ResponseSource ( (DefaultConnection)getConnection (), getTransport (), response );
+                buffer = source.getBuffer ();
+            }
+
+            if ( logger.isLoggable ( Level.FINEST ) )
+            {
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
+                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), buffer.buf, buffer.start, response.getStubLength () );
+                logger.finest ( "\n" + byteArrayOutputStream.toString () );
+            }
+
+            try
+            {
+                ndrobj.decode ( ndr, buffer );
+            }
+            catch ( IllegalStateException ex )
+            {
+                if ( ex.getCause () instanceof IOException )
+                {
+                    throw (IOException)ex.getCause ();
+                }
+                throw ex;
+            }
+            finally
+            {
+                //the decoded values do not refer to the stub.
+                response.releaseStub ();
+                if ( source != null )
+                {
+                    BufferPool.release ( buffer.buf );
+                    source.skip ();
+                }
+            }
+
+        }
+        else if ( reply instanceof FaultCoPdu )
+        {
+            FaultCoPdu fault = (FaultCoPdu)reply;
+            throw new FaultException ( "Received fault.", fault.getStatus (), fault.getStub () );
+        }
+        else if ( reply instanceof ShutdownPdu )
+        {
+            throw new RpcException ( "Received shutdown request from server." );
+        }
+        else
+        {
+            throw new RpcException ( "Received unexpected PDU from server." );
+        }
+    }
+
+    protected void rebind () throws IOException
+    {
+        lock.lock ();
+        try
+        {
+            if ( multiplexer == null )
+            {
+                bound = false;
+                bind ();
+                return;
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+        //the reader keeps the connection, only the context in use is switched.
+        int contextId = multiplexedContext ( new PresentationSyntax ( getSyntax ().toString () ), 0 );
+        lock.lock ();
+        try
+        {
+            contextIdToUse = contextId;
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+    }
+
+    /**
+     * Offers the presentation contexts of <code>syntaxes</code> along with the
+     * next bind or alter context this endpoint sends anyway. Switching to one
+     * of them later on only changes the context id of the requests, it needs
+     * no round trip of its own. Syntaxes the server rejects are not offered
+     * again.
+     */
+    public void offerSyntaxes ( PresentationSyntax[] syntaxes )
+    {
+        lock.lock ();
+        try
+        {
+            for ( int i = 0; i < syntaxes.length; i++ )
+            {
+                String key = syntaxes[i].toString ().toUpperCase ();
+                if ( indexOf ( offeredSyntaxes, key ) < 0 )
+                {
+                    //the caller may change its syntax object later on.
+                    offeredSyntaxes.add ( new PresentationSyntax ( syntaxes[i].toString () ) );
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+    }
+
+    /**
+     * Negotiates the presentation contexts of all <code>syntaxes</code> not
+     * yet known on this connection with a single bind or alter context.
+     */
+    public void negotiateSyntaxes ( PresentationSyntax[] syntaxes ) throws IOException
+    {
+        lock.lock ();
+        try
+        {
+            offerSyntaxes ( syntaxes );
+            bind ();
+            if ( multiplexer == null )
+            {
+                alterContexts ( null, 0 );
+                return;
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+        negotiateMultiplexed ( null, 0 );
+    }
+
+    private static int indexOf ( List syntaxes, String key )
+    {
+        for ( int i = 0; i < syntaxes.size (); i++ )
+        {
+            if ( syntaxes.get ( i ).toString ().toUpperCase ().equals ( key ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the context list of <code>syntax</code> followed by the offered
+     * syntaxes, numbered from <code>contextId</code> on.
+     */
+    private PresentationContext[] createContexts ( PresentationSyntax syntax, int contextId )
+    {
+        List syntaxes = new ArrayList ();
+        if ( syntax != null )
+        {
+            syntaxes.add ( syntax );
+        }
+        for ( int i = 0; i < offeredSyntaxes.size (); i++ )
+        {
+            String key = offeredSyntaxes.get ( i ).toString ().toUpperCase ();
+            if ( !uuidsVsContextIds.containsKey ( key ) && indexOf ( syntaxes, key ) < 0 )
+            {
+                syntaxes.add ( offeredSyntaxes.get ( i ) );
+            }
+        }
+        PresentationContext[] contexts = new PresentationContext[syntaxes.size ()];
+        for ( int i = 0; i < contexts.length; i++ )
+        {
+            contexts[i] = new PresentationContext ( contextId + i, (PresentationSyntax)syntaxes.get ( i ) );
+        }
+        return contexts;
+    }
+
+    /**
+     * Remembers the context ids of the accepted contexts, the server answers
+     * in the order they were offered.
+     */
+    private void registerContexts ( PresentationContext[] contexts, PresentationResult[] results )
+    {
+        for ( int i = 0; i < contexts.length; i++ )
+        {
+            if ( results != null && i < results.length && results[i].result == PresentationResult.ACCEPTANCE )
+            {
+                uuidsVsContextIds.put ( contexts[i].abstractSyntax.toString ().toUpperCase (), new Integer ( contexts[i].contextId ) );
+            }
+            else
+            {
+                int index = indexOf ( offeredSyntaxes, contexts[i].abstractSyntax.toString ().toUpperCase () );
+                if ( index >= 0 )
+                {
+                    offeredSyntaxes.remove ( index );
+                }
+                if ( logger.isLoggable ( Level.FINEST ) )
+                {
+                    logger.finest ( "Presentation context not accepted: " + contexts[i].abstractSyntax );
+                }
+            }
+        }
+    }
+
+    private static void checkAccepted ( PresentationResult[] results ) throws IOException
+    {
+        if ( results != null && results.length > 0 && results[0].result != PresentationResult.ACCEPTANCE )
+        {
+            throw new PresentationException ( "Context rejected.", results[0] );
+        }
+    }
+
+    /**
+     * Negotiates <code>syntax</code> together with the offered syntaxes in one
+     * alter context and returns the context id of <code>syntax</code>. Only
+     * for serialized connections, must hold the lock.
+     */
+    private int alterContexts ( PresentationSyntax syntax, int timeout ) throws IOException
+    {
+        PresentationContext[] contexts = createContexts ( syntax, contextIdCounter + 1 );
+        if ( contexts.length == 0 )
+        {
+            return contextIdToUse;
+        }
+        contextIdCounter += contexts.length;
+        PresentationResult[] results = negotiate ( context.alter ( contexts ), getNegotiationTimeout ( timeout ) );
+        registerContexts ( contexts, results );
+        if ( syntax != null )
+        {
+            checkAccepted ( results );
+        }
+        return contexts[0].contextId;
+    }
+
+    /**
+     * Returns the context id to use for <code>syntax</code>, an alter context
+     * is negotiated the first time a syntax is seen on this connection. Only
+     * for serialized connections, must hold the lock.
+     */
+    private int bindContext ( PresentationSyntax syntax, int timeout ) throws IOException
+    {
+        int contextId = getContextId ( syntax );
+        if ( contextId >= 0 )
+        {
+            return contextId;
+        }
+        return alterContexts ( syntax, timeout );
+    }
+
+    /**
+     * Returns the context id of <code>syntax</code> (the context in use if
+     * <code>null</code>), -1 if not yet negotiated. Must hold the lock.
+     */
+    private int getContextId ( PresentationSyntax syntax )
+    {
+        if ( syntax == null )
+        {
+            return contextIdToUse;
+        }
+        Integer cid = (Integer)uuidsVsContextIds.get ( syntax.toString ().toUpperCase () );
+        return cid != null ? cid.intValue () : -1;
+    }
+
+    private int getNegotiationTimeout ( int timeout )
+    {
+        return timeout > 0 ? timeout : negotiationTimeout;
+    }
+
+    /**
+     * Like {@link #bindContext(PresentationSyntax, int)} on a multiplexed
+     * connection, the lock must not be held. Calls on the contexts known
+     * already are not held up by a negotiation.
+     */
+    private int multiplexedContext ( PresentationSyntax syntax, int timeout ) throws IOException
+    {
+        lock.lock ();
+        try
+        {
+            int contextId = getContextId ( syntax );
+            if ( contextId >= 0 )
+            {
+                return contextId;
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+        return negotiateMultiplexed ( syntax, timeout );
+    }
+
+    /**
+     * Negotiates <code>syntax</code> together with the offered syntaxes on a
+     * multiplexed connection and returns the context id of
+     * <code>syntax</code>. Negotiations take turns, the lock is only held
+     * while the contexts are set up and registered, not while waiting for
+     * the server.
+     */
+    private int negotiateMultiplexed ( PresentationSyntax syntax, int timeout ) throws IOException
+    {
+        timeout = getNegotiationTimeout ( timeout );
+        lockNegotiation ( timeout );
+        try
+        {
+            CallMultiplexer multiplexer = null;
+            ConnectionContext context = null;
+            Connection connection = null;
+            PresentationContext[] contexts = null;
+            ConnectionOrientedPdu pdu = null;
+            lock.lock ();
+            try
+            {
+                //negotiated by the one before.
+                if ( syntax != null && getContextId ( syntax ) >= 0 )
+                {
+                    return getContextId ( syntax );
+                }
+                multiplexer = this.multiplexer;
+                context = this.context;
+                if ( multiplexer == null || context == null )
+                {
+                    throw new RpcException ( "Connection closed." );
+                }
+                contexts = createContexts ( syntax, contextIdCounter + 1 );
+                if ( contexts.length == 0 )
+                {
+                    return contextIdToUse;
+                }
+                contextIdCounter += contexts.length;
+                connection = getConnection ();
+                pdu = context.alter ( contexts );
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+            PresentationResult[] results = negotiateMultiplexed ( multiplexer, connection, context, pdu, timeout );
+            lock.lock ();
+            try
+            {
+                if ( this.context != context )
+                {
+                    throw new RpcException ( "Connection was reset during context negotiation." );
+                }
+                registerContexts ( contexts, results );
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+            if ( syntax != null )
+            {
+                checkAccepted ( results );
+            }
+            return contexts[0].contextId;
+        }
+        finally
+        {
+            negotiationLock.unlock ();
+        }
+    }
+
+    /**
+     * Takes the negotiation lock, waits at most <code>timeout</code>
+     * millisecs for it if not 0.
+     */
+    private void lockNegotiation ( int timeout ) throws IOException
+    {
+        try
+        {
+            if ( timeout <= 0 )
+            {
+                negotiationLock.lockInterruptibly ();
+            }
+            else if ( !negotiationLock.tryLock ( timeout, TimeUnit.MILLISECONDS ) )
+            {
+                throw new SocketTimeoutException ( "Context negotiation did not get its turn within " + timeout + " ms." );
+            }
+        }
+        catch ( InterruptedException ex )
+        {
+            throw new InterruptedIOException ( "Interrupted while waiting for context negotiation." );
+        }
+    }
+
+    /**
+     * Sends <code>pdu</code> and processes the replies until the context is
+     * established again, returns the results of the offered contexts. Waits
+     * at most <code>timeout</code> millisecs for each reply if not 0. Only
+     * for serialized connections, must hold the lock.
+     */
+    private PresentationResult[] negotiate ( ConnectionOrientedPdu pdu, int timeout ) throws IOException
+    {
+        DeadlineTransport deadlineTransport = null;
+        if ( timeout > 0 && getTransport () instanceof DeadlineTransport )
+        {
+            deadlineTransport = (DeadlineTransport)getTransport ();
+            deadlineTransport.setReceiveDeadline ( System.currentTimeMillis () + timeout );
+        }
+        try
+        {
+            return negotiateSerialized ( pdu );
+        }
+        finally
+        {
+            if ( deadlineTransport != null )
+            {
+                deadlineTransport.setReceiveDeadline ( 0 );
+            }
+        }
+    }
+
+    /**
+     * Like {@link #negotiate(ConnectionOrientedPdu, int)} on a multiplexed
+     * connection, the replies are taken from the reader thread. Must hold the
+     * negotiation lock, not the lock.
+     */
+    private PresentationResult[] negotiateMultiplexed ( CallMultiplexer multiplexer, Connection connection, ConnectionContext context, ConnectionOrientedPdu pdu, int timeout ) throws IOException
+    {
+        PresentationResult[] results = null;
+        while ( pdu != null )
+        {
+            CallMultiplexer.PendingCall call = multiplexer.register ();
+            try
+            {
+                pdu.setCallId ( call.getCallId () );
+                transmitter.transmit ( connection, pdu );
+                ConnectionOrientedPdu reply = call.await ( timeout );
+                results = getResults ( reply, results );
+                pdu = context.accept ( reply );
+            }
+            finally
+            {
+                multiplexer.unregister ( call );
+            }
+            if ( context.isEstablished () )
+            {
+                if ( pdu != null )
+                {
+                    transmitter.transmit ( connection, pdu );
+                }
+                return results;
+            }
+        }
+        throw new RpcException ( "Context negotiation did not complete." );
+    }
+
+    private PresentationResult[] negotiateSerialized ( ConnectionOrientedPdu pdu ) throws IOException
+    {
+        PresentationResult[] results = null;
+        if ( pdu != null )
+            send ( pdu );
+        while ( !context.isEstablished () )
+        {
+            ConnectionOrientedPdu recieved = receiveSerialized ();
+            results = getResults ( recieved, results );
+            if ( ( pdu = context.accept ( recieved ) ) != null )
+            {
+                recordAcceptedContext ( pdu, recieved );
+                send ( pdu );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Records the interface of the context the server accepted, subsequent
+     * calls are for it. <code>pdu</code> is the answer
+     * {@link ConnectionContext#accept(ConnectionOrientedPdu)} gave to
+     * <code>received</code>, as a server endpoint answers a bind or an alter
+     * context.
+     */
+    private void recordAcceptedContext ( ConnectionOrientedPdu pdu, ConnectionOrientedPdu received )
+    {
+        switch ( pdu.getType () )
+        {
+            case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
+                if ( ( (BindAcknowledgePdu)pdu ).getResultList ()[0].reason != PresentationResult.PROVIDER_REJECTION )
+                {
+                    currentIID = ( (BindPdu)received ).getContextList ()[0].abstractSyntax.getUuid ().toString ();
+                }
+                break;
+            case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
+                //we need to record the iid now if this is successful and subsequent calls will now be for this iid.
+                if ( ( (AlterContextResponsePdu)pdu ).getResultList ()[0].reason != PresentationResult.PROVIDER_REJECTION )
+                {
+                    currentIID = ( (AlterContextPdu)received ).getContextList ()[0].abstractSyntax.getUuid ().toString ();
+                }
+                break;
+            default:
+                //nothing
+        }
+    }
+
+    private static PresentationResult[] getResults ( ConnectionOrientedPdu pdu, PresentationResult[] results )
+    {
+        if ( pdu instanceof BindAcknowledgePdu )
+        {
+            return ( (BindAcknowledgePdu)pdu ).getResultList ();
+        }
+        if ( pdu instanceof AlterContextResponsePdu )
+        {
+            return ( (AlterContextResponsePdu)pdu ).getResultList ();
+        }
+        return results;
+    }
+
+    protected void bind () throws IOException
+    {
+        lock.lock ();
+        try
+        {
+            if ( bound )
+                return;
+            if ( context != null )
+            {
+                bound = true;
+                try
+                {
+                    Integer cid = (Integer)uuidsVsContextIds.get ( getSyntax ().toString ().toUpperCase () );
+                    if ( cid == null )
+                    {
+                        //the offered syntaxes ride along, switching to them later on is free.
+                        contextIdToUse = alterContexts ( getSyntax (), 0 );
+                    }
+                    else
+                    {
+                        contextIdToUse = cid.intValue ();
+                    }
+                }
+                catch ( IOException ex )
+                {
+                    bound = false;
+                    throw ex;
+                }
+                catch ( RuntimeException ex )
+                {
+                    bound = false;
+                    throw ex;
+                }
+                catch ( Exception ex )
+                {
+                    bound = false;
+                    throw new IOException ( ex.getMessage () );
+                }
+            }
+            else
+            {
+                connect ();
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+    }
+
+    protected void send ( ConnectionOrientedPdu request ) throws IOException
+    {
+        bind ();
+        transmitter.transmit ( getConnection (), request );
+    }
+
+    /**
+     * Transmits a request made by {@link #createRequest}, its stub is handed
+     * back to the pool afterwards.
+     */
+    private void transmitRequest ( Connection connection, RequestCoPdu request ) throws IOException
+    {
+        try
+        {
+            transmitter.transmit ( connection, request );
+        }
+        finally
+        {
+            releaseStub ( request );
+        }
+    }
+
+    private void releaseStub ( RequestCoPdu request )
+    {
+        NdrBuffer stub = request.getStubBuffer ();
+        if ( stub != null )
+        {
+            BufferPool.release ( stub.buf );
+        }
+    }
+
+    protected ConnectionOrientedPdu receive () throws IOException
+    {
+        return getConnection ().receive ( getTransport () );
+    }
+
+    /**
+     * The longest fragment the peer may send on the connection.
+     */
+    int getMaxReceiveFragment ()
+    {
+        Connection connection = getConnection ();
+        return connection instanceof DefaultConnection ? ( (DefaultConnection)connection ).getReceiveLength () : ConnectionContext.MAX_FRAGMENT;
+    }
+
+    /**
+     * Receives a single fragment, leaving the reassembly to the caller. Used
+     * by the {@link CallMultiplexer}, on which the fragments of several
+     * replies may arrive interleaved.
+     */
+    ConnectionOrientedPdu receiveFragment () throws IOException
+    {
+        ConnectionOrientedPdu pdu;
+        Connection connection = getConnection ();
+        if ( connection instanceof DefaultConnection )
+        {
+            pdu = ( (DefaultConnection)connection ).receiveFragment ( getTransport () );
+        }
+        else
+        {
+            pdu = connection.receive ( getTransport () );
+        }
+        return pdu;
+    }
+
+    public void detach () throws IOException
+    {
+        bound = false;
+        context = null;
+        transmitter.defer ( null );
+        CallMultiplexer multiplexer = this.multiplexer;
+        this.multiplexer = null;
+        if ( multiplexer != null )
+        {
+            multiplexer.close ();
+        }
+        getTransport ().close ();
+    }
+
+    protected String currentIID = null;
+
+    private void connect () throws IOException
+    {
+        bound = true;
+        contextIdCounter = 0;
+        currentIID = null;
+        abandonedCalls.clear ();
+        try
+        {
+            uuidsVsContextIds.clear ();
+            context = createContext ();
+            Properties properties = getTransport ().getProperties ();
+            boolean multiplex = properties != null && Boolean.valueOf ( properties.getProperty ( MULTIPLEX ) ).booleanValue ();
+            boolean multiplexAccepted = false;
+            boolean pipeline = properties != null && Boolean.valueOf ( properties.getProperty ( PIPELINE_CONNECT ) ).booleanValue ();
+            streamRequests = properties != null && Boolean.valueOf ( properties.getProperty ( STREAM_REQUESTS ) ).booleanValue ();
+            incrementalDecode = properties != null && Boolean.valueOf ( properties.getProperty ( INCREMENTAL_DECODE ) ).booleanValue ();
+            negotiationTimeout = 0;
+            if ( properties != null && properties.getProperty ( NEGOTIATION_TIMEOUT ) != null )
+            {
+                negotiationTimeout = Integer.parseInt ( properties.getProperty ( NEGOTIATION_TIMEOUT ) );
+            }
+            PresentationResult[] results = null;
+            PresentationContext[] contexts = createContexts ( getSyntax (), contextIdCounter );
+            contextIdCounter = contexts.length - 1;
+            ConnectionOrientedPdu pdu = context.init ( contexts, properties );
+            contextIdToUse = 0;
+            //no reader thread yet, the handshake is bounded by the transport deadline.
+            DeadlineTransport deadlineTransport = null;
+            if ( negotiationTimeout > 0 && getTransport () instanceof DeadlineTransport )
+            {
+                deadlineTransport = (DeadlineTransport)getTransport ();
+                deadlineTransport.setReceiveDeadline ( System.currentTimeMillis () + negotiationTimeout );
+            }
+            try
+            {
+                if ( pdu != null )
+                {
+                    if ( multiplex )
                     {
-                        case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
-                            if ( ( (BindAcknowledgePdu)pdu ).getResultList ()[0].reason != PresentationResult.PROVIDER_REJECTION )
-                            {
-                                currentIID = ( (BindPdu)recieved ).getContextList ()[0].abstractSyntax.getUuid ().toString ();
-                            }
-                            break;
-                        case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
-                            //we need to record the iid now if this is successful and subsequent calls will now be for this iid.
-                            if ( ( (AlterContextResponsePdu)pdu ).getResultList ()[0].reason != PresentationResult.PROVIDER_REJECTION )
-                            {
-                                currentIID = ( (AlterContextPdu)recieved ).getContextList ()[0].abstractSyntax.getUuid ().toString ();
-                            }
-                            break;
-                        default:
-                            //nothing
+                        pdu.setFlag ( ConnectionOrientedPdu.PFC_CONC_MPX, true );
                     }
                     send ( pdu );
                 }
+                while ( !context.isEstablished () )
+                {
+                    ConnectionOrientedPdu recieved = receive ();
+                    if ( recieved instanceof BindAcknowledgePdu )
+                    {
+                        multiplexAccepted = recieved.getFlag ( ConnectionOrientedPdu.PFC_CONC_MPX );
+                    }
+                    results = getResults ( recieved, results );
+                    if ( ( pdu = context.accept ( recieved ) ) != null )
+                    {
+                        recordAcceptedContext ( pdu, recieved );
+                        if ( pipeline && context.isEstablished () )
+                        {
+                            //not answered by the server, it need not go out before the first request.
+                            transmitter.defer ( pdu );
+                        }
+                        else
+                        {
+                            send ( pdu );
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                if ( deadlineTransport != null )
+                {
+                    deadlineTransport.setReceiveDeadline ( 0 );
+                }
+            }
+            registerContexts ( contexts, results );
+            checkAccepted ( results );
+            if ( multiplex )
+            {
+                if ( multiplexAccepted )
+                {
+                    multiplexer = new CallMultiplexer ( this );
+                    multiplexer.start ();
+                }
+                else
+                {
+                    logger.info ( "Server did not accept concurrent multiplexing, calls on this connection will be serialized." );
+                }
             }
         }
         catch ( IOException ex )
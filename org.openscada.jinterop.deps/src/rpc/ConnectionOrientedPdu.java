@@ -159,6 +159,15 @@ public abstract class ConnectionOrientedPdu extends NdrObject implements Protoco
         this.callId = callId;
     }
 
+    /**
+     * Returns <code>true</code> if the call id was set explicitly, otherwise
+     * the shared counter is used when the PDU gets encoded.
+     */
+    public boolean hasCallId ()
+    {
+        return !useCallIdCounter;
+    }
+
     public int getFragmentLength ()
     {
         return fragLength;
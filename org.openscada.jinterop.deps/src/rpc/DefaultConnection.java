@@ -46,16 +46,36 @@ public class DefaultConnection implements Connection
 
     protected NetworkDataRepresentation ndr;
 
+    //decoding uses its own representation, a multiplexed endpoint receives on a different thread than it transmits.
+    protected NetworkDataRepresentation receiveNdr;
+
     protected NdrBuffer transmitBuffer;
 
+    //holds the bytes received but not yet decoded from start on, fragments are decoded where they lie.
     protected NdrBuffer receiveBuffer;
 
+    //reused views into the receive buffer, for the transport to fill and for decoding a fragment.
+    private final NdrBuffer fillView = new NdrBuffer ( new byte[0], 0 );
+
+    private final NdrBuffer fragmentView = new NdrBuffer ( new byte[0], 0 );
+
+    //the last response received, its stub refers to the receive buffer until released.
+    private ResponseCoPdu lent;
+
+    //the max_recv_frag told to the peer, the receive buffer may outgrow it.
+    protected int receiveLength;
+
     protected Security security;
 
     protected int contextId;
 
     private static final Logger logger = Logger.getLogger ( "org.jinterop" );
 
+    //below this the stub is copied behind the header, cheaper than handing out two buffers.
+    private static final int GATHER_THRESHOLD = 1024;
+
+    private EndpointStatistics statistics;
+
     public DefaultConnection ()
     {
         this ( ConnectionOrientedPdu.MUST_RECEIVE_FRAGMENT_SIZE, ConnectionOrientedPdu.MUST_RECEIVE_FRAGMENT_SIZE );
@@ -64,8 +84,18 @@ public class DefaultConnection implements Connection
     public DefaultConnection ( int transmitLength, int receiveLength )
     {
         ndr = new NetworkDataRepresentation ();
+        receiveNdr = new NetworkDataRepresentation ();
         transmitBuffer = new NdrBuffer ( new byte[transmitLength], 0 );
         receiveBuffer = new NdrBuffer ( new byte[receiveLength], 0 );
+        this.receiveLength = receiveLength;
+    }
+
+    /**
+     * The longest fragment the peer may send.
+     */
+    public int getReceiveLength ()
+    {
+        return receiveLength;
     }
 
     public void transmit ( ConnectionOrientedPdu pdu, Transport transport ) throws IOException
@@ -82,68 +112,137 @@ public class DefaultConnection implements Connection
         }
     }
 
+    /**
+     * Counts the traffic of this connection into <code>statistics</code>.
+     */
+    public void setStatistics ( EndpointStatistics statistics )
+    {
+        this.statistics = statistics;
+    }
+
+    /**
+     * The size of the fragments sent on this connection.
+     */
+    public int getTransmitLength ()
+    {
+        return transmitBuffer.getCapacity ();
+    }
+
     public ConnectionOrientedPdu receive ( final Transport transport ) throws IOException
+    {
+        return assemble ( receiveFragment ( transport ), transport );
+    }
+
+    /**
+     * Like {@link #receive(Transport)}, but a response is returned as soon
+     * as its first fragment has arrived. The caller takes the following
+     * fragments with {@link #receiveFragment(Transport)} itself.
+     */
+    public ConnectionOrientedPdu receiveFirstFragment ( final Transport transport ) throws IOException
     {
         final ConnectionOrientedPdu fragment = receiveFragment ( transport );
-        if ( ! ( fragment instanceof Fragmentable ) || fragment.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG ) )
+        if ( fragment instanceof ResponseCoPdu )
         {
             return fragment;
         }
-        return (ConnectionOrientedPdu) ( (Fragmentable)fragment ).assemble ( new Iterator () {
-            ConnectionOrientedPdu currentFragment = fragment;
+        return assemble ( fragment, transport );
+    }
 
-            public boolean hasNext ()
+    private ConnectionOrientedPdu assemble ( final ConnectionOrientedPdu fragment, final Transport transport ) throws IOException
+    {
+        if ( ! ( fragment instanceof Fragmentable ) || fragment.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG ) )
+        {
+            return fragment;
+        }
+        final FragmentIterator fragments = new FragmentIterator ( fragment, transport );
+        try
+        {
+            return (ConnectionOrientedPdu) ( (Fragmentable)fragment ).assemble ( fragments );
+        }
+        catch ( IOException ex )
+        {
+            if ( fragments.failure != null )
             {
-                return ( currentFragment != null );
+                throw fragments.failure;
             }
+            throw ex;
+        }
+    }
+
+    /**
+     * Hands out the fragments of one PDU, receiving each only once the one
+     * before was taken. A fragment of another call or type fails the
+     * assembly, as does an error of the transport, which is kept to be
+     * rethrown as it was.
+     */
+    private class FragmentIterator implements Iterator
+    {
+        private final ConnectionOrientedPdu first;
+
+        private final Transport transport;
 
-            private int i = 0;
+        private ConnectionOrientedPdu current;
 
-            public Object next ()
+        private IOException failure;
+
+        private int i = 0;
+
+        FragmentIterator ( ConnectionOrientedPdu first, Transport transport )
+        {
+            this.first = first;
+            this.transport = transport;
+        }
+
+        public boolean hasNext ()
+        {
+            return failure == null && ( current == null || !current.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG ) );
+        }
+
+        public Object next ()
+        {
+            if ( !hasNext () )
             {
-                if ( currentFragment == null )
-                {
-                    throw new NoSuchElementException ();
-                }
-                try
+                throw new NoSuchElementException ();
+            }
+            if ( current == null )
+            {
+                current = first;
+                return current;
+            }
+            try
+            {
+                if ( logger.isLoggable ( Level.FINEST ) )
                 {
-                    return currentFragment;
+                    logger.finest ( "[Fragmented Packet] [" + i++ + "] recieved , fragment decomposition is below:- " );
                 }
-                finally
+                ConnectionOrientedPdu fragment = receiveFragment ( transport );
+                if ( fragment.getCallId () != first.getCallId () || fragment.getType () != first.getType () )
                 {
-                    if ( currentFragment.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG ) )
-                    {
-                        currentFragment = null;
-                    }
-                    else
-                    {
-                        try
-                        {
-                            //fragLengthOfReceiveBuffer = -1;//clear the buffer here.
-                            //System.out.println("VIKRAM VIKRAM ");
-                            if ( logger.isLoggable ( Level.FINEST ) )
-                            {
-                                logger.finest ( "[Fragmented Packet] [" + i++ + "] recieved , fragment decomposition is below:- " );
-                            }
-                            currentFragment = receiveFragment ( transport );
-                        }
-                        catch ( Exception ex )
-                        {
-                            throw new IllegalStateException ();
-                        }
-                    }
+                    throw new RpcException ( "Received unexpected PDU while receiving the fragments of call id " + first.getCallId () + "." );
                 }
+                current = fragment;
+                return current;
             }
-
-            public void remove ()
+            catch ( IOException ex )
             {
-                throw new UnsupportedOperationException ();
+                failure = ex;
+                throw new IllegalStateException ( ex );
             }
-        } );
+        }
+
+        public void remove ()
+        {
+            throw new UnsupportedOperationException ();
+        }
     }
 
     protected void transmitFragment ( ConnectionOrientedPdu fragment, Transport transport ) throws IOException
     {
+        if ( transport instanceof GatheringTransport && fragment instanceof RequestCoPdu && ( (RequestCoPdu)fragment ).getStubLength () >= GATHER_THRESHOLD && !isSigned () )
+        {
+            transmitGathered ( (RequestCoPdu)fragment, (GatheringTransport)transport );
+            return;
+        }
         transmitBuffer.reset ();
 
         fragment.encode ( ndr, transmitBuffer );
@@ -158,186 +257,94 @@ public class DefaultConnection implements Connection
             logger.finest ( "[TRANSMIT BUFFER]:-\n" + byteArrayOutputStream.toString () );
         }
         transport.send ( transmitBuffer );
+        if ( statistics != null )
+        {
+            statistics.sent ( transmitBuffer.length );
+        }
     }
 
-    private boolean bytesRemainingInRecieveBuffer = false;
-
-    protected ConnectionOrientedPdu receiveFragment ( Transport transport ) throws IOException
+    /**
+     * Sends the header from the transmit buffer and the stub from its own
+     * array, possible as long as nothing is computed over the whole PDU.
+     */
+    private void transmitGathered ( RequestCoPdu fragment, GatheringTransport transport ) throws IOException
     {
-
-        int fragmentLength = -1;
-        int type = -1;
-        boolean read = true;
-
-        if ( bytesRemainingInRecieveBuffer )
+        transmitBuffer.reset ();
+        fragment.encodeHeader ( ndr, transmitBuffer );
+        if ( logger.isLoggable ( Level.FINEST ) )
         {
-            if ( receiveBuffer.length > ConnectionOrientedPdu.TYPE_OFFSET )
-            {
-                receiveBuffer.setIndex ( ConnectionOrientedPdu.TYPE_OFFSET );
-                type = receiveBuffer.dec_ndr_small ();
-                if ( isValidType ( type ) )
-                {
-                    //this is required so that the correct length for the next fragment can be obtained. If is < 8 bytes than the fraglength would be an arbitary length.
-                    while ( receiveBuffer.length <= ConnectionOrientedPdu.FRAG_LENGTH_OFFSET )
-                    {
-                        //perform a read again in a new buffer and assign that to the reciever buffer
-                        //this needs to be a small buffer 10 bytes
-                        NdrBuffer tmpBuffer = new NdrBuffer ( new byte[10], 0 );
-                        transport.receive ( tmpBuffer );
-                        System.arraycopy ( tmpBuffer.buf, 0, receiveBuffer.buf, receiveBuffer.length, tmpBuffer.length );
-                        receiveBuffer.length = receiveBuffer.length + tmpBuffer.length;
-                    }
-                    read = false;
-                }
-                else
-                {
-                    if ( logger.isLoggable ( Level.FINEST ) )
-                    {
-                        logger.finest ( "\n" + " bytesRemainingInRecieveBuffer is TRUE, RecieveBuffer size =  " + receiveBuffer.buf.length );
-                    }
-                }
-
-            }
-
-            bytesRemainingInRecieveBuffer = false;
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
+            jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), transmitBuffer.getBuffer (), 0, transmitBuffer.length );
+            logger.finest ( "[TRANSMIT BUFFER] header, followed by " + fragment.getStubLength () + " bytes of stub:-\n" + byteArrayOutputStream.toString () );
         }
-
-        //will be true for all cases and false if anything valid is already in the buffer
-        if ( read )
+        transport.send ( new NdrBuffer[] { transmitBuffer, fragment.getStubBuffer () } );
+        if ( statistics != null )
         {
-            //read the transport now...
-            receiveBuffer.reset ();
-            if ( logger.isLoggable ( Level.FINEST ) )
-            {
-                logger.finest ( "\n" + " Reading bytes from RecieveBuffer Socket...Current Capacity:- " + receiveBuffer.getCapacity () );
-            }
+            statistics.sent ( transmitBuffer.length + fragment.getStubLength () );
+        }
+    }
 
-            transport.receive ( receiveBuffer );
+    private boolean isSigned ()
+    {
+        return security != null && security.getProtectionLevel () >= Security.PROTECTION_LEVEL_INTEGRITY;
+    }
 
-            if ( logger.isLoggable ( Level.FINEST ) )
+    protected ConnectionOrientedPdu receiveFragment ( Transport transport ) throws IOException
+    {
+        if ( lent != null )
+        {
+            if ( lent.getStubBuffer () == receiveBuffer.buf )
             {
-                logger.finest ( "[RECIEVER BUFFER] Full packet is dumped below..." );
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), receiveBuffer.getBuffer (), 0, receiveBuffer.length );
-                logger.finest ( "\n" + byteArrayOutputStream.toString () );
-                logger.finest ( "\n" + " Bytes read from RecieveBuffer Socket:- " + receiveBuffer.length );
+                //the last response is still being decoded, e.g. by a call nested into its decoding. Leave the array to it.
+                byte[] buf = new byte[receiveBuffer.buf.length];
+                System.arraycopy ( receiveBuffer.buf, receiveBuffer.start, buf, 0, receiveBuffer.length );
+                receiveBuffer.buf = buf;
+                receiveBuffer.start = 0;
             }
-
+            lent = null;
         }
 
-        byte[] newbuffer = null;
-        int counter = 0;
-        int trimSize = -1;
-        int lengthOfArrayTobeRead = receiveBuffer.length;
-        //frag length logic
-        if ( receiveBuffer.length > 0 )
+        //frame the fragment in place, first the header for the frag_length then the rest of it.
+        fill ( transport, ConnectionOrientedPdu.HEADER_LENGTH );
+        receiveBuffer.setIndex ( receiveBuffer.start + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
+        int fragmentLength = receiveBuffer.dec_ndr_short ();
+        if ( fragmentLength < ConnectionOrientedPdu.HEADER_LENGTH )
         {
-            receiveBuffer.setIndex ( ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
-            fragmentLength = receiveBuffer.dec_ndr_short ();
-            if ( logger.isLoggable ( Level.FINEST ) )
-            {
-                logger.finest ( "\n" + " length of the fragment " + fragmentLength + "\n" + " size in bytes of the buffer [] " + receiveBuffer.buf.length );
-            }
-
-            //the new buffer should be equal to fragment size
-            newbuffer = new byte[fragmentLength];
-
-            if ( fragmentLength > receiveBuffer.length )//this means the socket buffer is not fully read, this packet is bigger than the reciever buffer size
-            {
-                int remainingBytes = fragmentLength - receiveBuffer.length;
-                if ( logger.isLoggable ( Level.FINEST ) )
-                {
-                    logger.finest ( "\n" + " Some bytes from RecieveBuffer Socket have not been read: Remaining  " + remainingBytes );
-                }
-
-                //now reset and read again.
-
-                while ( fragmentLength > counter )
-                {
-                    System.arraycopy ( receiveBuffer.buf, 0, newbuffer, counter, lengthOfArrayTobeRead );
-                    counter = counter + lengthOfArrayTobeRead;
-                    if ( fragmentLength == counter )
-                    {
-                        break;
-                    }
-                    if ( logger.isLoggable ( Level.FINEST ) )
-                    {
-                        logger.finest ( "\n" + " About to read more bytes from socket , current counter is: " + counter );
-                    }
-
-                    receiveBuffer.reset ();
-                    transport.receive ( receiveBuffer ); //now read again so as to take it from network buffer to your buffer
-                    //this may actually read 2 or more packets , one is this partial one (now complete) and one may be some other one , like a request packet.
-                    //or it may not ...and reads only the partial packet.
-                    if ( fragmentLength - counter >= receiveBuffer.length )
-                    {
-                        lengthOfArrayTobeRead = receiveBuffer.length;
-                    }
-                    else
-                    {
-                        //this would be the last one. Now we need to trim the buffer to it's read length as well.
-                        lengthOfArrayTobeRead = fragmentLength - counter;
-                        trimSize = receiveBuffer.length - lengthOfArrayTobeRead;
-                    }
-
-                    if ( logger.isLoggable ( Level.FINEST ) )
-                    {
-                        logger.finest ( "\n" + "lengthOfArrayTobeRead = " + lengthOfArrayTobeRead + "\n" + "trimSize = " + trimSize + "\n" + "RecieveBuffer current read size: " + receiveBuffer.length );
-                        logger.finest ( "\n\n[RECIEVER BUFFER] and the read packet is dumped below..." );
-                        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                        jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), receiveBuffer.getBuffer (), 0, receiveBuffer.length );
-                        logger.finest ( "\n" + byteArrayOutputStream.toString () );
-
-                    }
-
-                }
-
-            }
-            else
-            {
-                if ( logger.isLoggable ( Level.FINEST ) )
-                {
-                    logger.finest ( "\n" + "fragmentLength is less than  receiveBuffer.length" );
-                }
-
-                //Since fragment length is smaller, There might be 2 or more packets in here
-                //just read what is your packet.
-                System.arraycopy ( receiveBuffer.buf, 0, newbuffer, 0, fragmentLength );
-                //there might be more. Now we need to trim the buffer to it's read length as well.
-                trimSize = receiveBuffer.length - fragmentLength;
-            }
-
-            if ( trimSize > 0 )
-            {
-                if ( logger.isLoggable ( Level.FINEST ) )
-                {
-                    logger.finest ( "\n" + "trimSize = " + trimSize );
-                }
-                System.arraycopy ( receiveBuffer.buf, receiveBuffer.length - trimSize, receiveBuffer.buf, 0, trimSize );
-                receiveBuffer.length = trimSize;
-                receiveBuffer.index = 0;
-                receiveBuffer.start = 0;
-                bytesRemainingInRecieveBuffer = true; //reciever buffer read more than it should , after we trim only the additionally read bytes will be left.
-                //these have to be read in the next call to recieveFragment.
-            }
+            throw new RpcException ( "Invalid fragment length: " + fragmentLength );
+        }
+        if ( fragmentLength > receiveBuffer.buf.length )
+        {
+            //the peer ignored the negotiated max_recv_frag, grow once and keep the larger buffer.
+            byte[] buf = new byte[fragmentLength];
+            System.arraycopy ( receiveBuffer.buf, receiveBuffer.start, buf, 0, receiveBuffer.length );
+            receiveBuffer.buf = buf;
+            receiveBuffer.start = 0;
+        }
+        fill ( transport, fragmentLength );
+        if ( statistics != null )
+        {
+            statistics.received ( fragmentLength );
+        }
 
-            NdrBuffer bufferToBeUsed = new NdrBuffer ( newbuffer, 0 );
-            bufferToBeUsed.length = newbuffer.length;//this will be fully utilized  and not left empty.
+        NdrBuffer bufferToBeUsed = fragmentView;
+        bufferToBeUsed.frame ( receiveBuffer.buf, receiveBuffer.start, fragmentLength );
 
-            if ( logger.isLoggable ( Level.FINEST ) )
-            {
-                logger.finest ( "\n" + "bufferToBeUsed Size = " + bufferToBeUsed.length );
-                logger.finest ( "\n\n[bufferToBeUsed] packet is dumped below..." );
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), bufferToBeUsed.getBuffer (), 0, bufferToBeUsed.length );
-                logger.finest ( "\n" + byteArrayOutputStream.toString () );
-                logger.finest ( "\n*********************************************************************************" );
-            }
+        if ( logger.isLoggable ( Level.FINEST ) )
+        {
+            logger.finest ( "\n" + "bufferToBeUsed Size = " + bufferToBeUsed.length );
+            logger.finest ( "\n\n[bufferToBeUsed] packet is dumped below..." );
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
+            jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), bufferToBeUsed.getBuffer (), bufferToBeUsed.start, bufferToBeUsed.length );
+            logger.finest ( "\n" + byteArrayOutputStream.toString () );
+            logger.finest ( "\n*********************************************************************************" );
+        }
 
+        try
+        {
             //caution , frag length is changed here...it is void of security info.
             processIncoming ( bufferToBeUsed );
-            bufferToBeUsed.setIndex ( ConnectionOrientedPdu.TYPE_OFFSET );
-            type = bufferToBeUsed.dec_ndr_small ();
+            bufferToBeUsed.setIndex ( bufferToBeUsed.start + ConnectionOrientedPdu.TYPE_OFFSET );
+            int type = bufferToBeUsed.dec_ndr_small ();
 
             ConnectionOrientedPdu pdu = null;
             switch ( type )
@@ -382,45 +389,83 @@ public class DefaultConnection implements Connection
                     throw new IOException ( "Unknown PDU type: 0x" + Integer.toHexString ( type ) );
             }
 
-            bufferToBeUsed.setIndex ( 0 );
-            pdu.decode ( ndr, bufferToBeUsed );
+            bufferToBeUsed.setIndex ( bufferToBeUsed.start );
+            pdu.decode ( receiveNdr, bufferToBeUsed );
+            if ( pdu instanceof ResponseCoPdu )
+            {
+                lent = (ResponseCoPdu)pdu;
+            }
             return pdu;
-
         }
-        else
+        finally
         {
-            //socket has been closed.
-            throw new IOException ( "Socket Closed" ); //Vikram
+            consume ( fragmentLength );
         }
-
     }
 
-    private boolean isValidType ( int type )
+    /**
+     * Reads from the transport until <code>length</code> bytes are held from
+     * the start of the receive buffer on. Reads go directly behind the bytes
+     * already held, these are only moved to the front of the array if
+     * <code>length</code> bytes would not fit behind the start.
+     */
+    private void fill ( Transport transport, int length ) throws IOException
     {
-        switch ( type )
+        if ( receiveBuffer.start + length > receiveBuffer.buf.length )
         {
-            case AlterContextPdu.ALTER_CONTEXT_TYPE:
-            case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
-            case Auth3Pdu.AUTH3_TYPE:
-            case BindPdu.BIND_TYPE:
-            case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
-            case BindNoAcknowledgePdu.BIND_NO_ACKNOWLEDGE_TYPE:
-            case CancelCoPdu.CANCEL_TYPE:
-            case FaultCoPdu.FAULT_TYPE:
-            case OrphanedPdu.ORPHANED_TYPE:
-            case RequestCoPdu.REQUEST_TYPE:
-            case ResponseCoPdu.RESPONSE_TYPE:
-            case ShutdownPdu.SHUTDOWN_TYPE:
-                return true;
-            default:
-                return false;
+            System.arraycopy ( receiveBuffer.buf, receiveBuffer.start, receiveBuffer.buf, 0, receiveBuffer.length );
+            receiveBuffer.start = 0;
+        }
+        while ( receiveBuffer.length < length )
+        {
+            NdrBuffer view = fillView;
+            view.frame ( receiveBuffer.buf, receiveBuffer.start + receiveBuffer.length, 0 );
+            if ( statistics != null )
+            {
+                long start = System.nanoTime ();
+                transport.receive ( view );
+                statistics.waited ( System.nanoTime () - start );
+            }
+            else
+            {
+                transport.receive ( view );
+            }
+            if ( view.length <= 0 )
+            {
+                //socket has been closed.
+                throw new IOException ( "Socket Closed" ); //Vikram
+            }
+            if ( logger.isLoggable ( Level.FINEST ) )
+            {
+                logger.finest ( "[RECIEVER BUFFER] Bytes read from socket: " + view.length );
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
+                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), receiveBuffer.buf, view.start, view.length );
+                logger.finest ( "\n" + byteArrayOutputStream.toString () );
+            }
+            receiveBuffer.length += view.length;
         }
+    }
 
+    /**
+     * Drops the decoded fragment by advancing the start of the receive
+     * buffer over it, nothing is copied. Once all is decoded, reading starts
+     * at the front of the array again.
+     */
+    private void consume ( int length )
+    {
+        receiveBuffer.start += length;
+        receiveBuffer.length -= length;
+        if ( receiveBuffer.length <= 0 )
+        {
+            receiveBuffer.start = 0;
+            receiveBuffer.length = 0;
+        }
+        receiveBuffer.index = receiveBuffer.start;
     }
 
     protected void processIncoming ( NdrBuffer buffer ) throws IOException
     {
-        buffer.setIndex ( ConnectionOrientedPdu.TYPE_OFFSET );
+        buffer.setIndex ( buffer.start + ConnectionOrientedPdu.TYPE_OFFSET );
         boolean logMsg = true;
         switch ( buffer.dec_ndr_small () )
         {
@@ -647,20 +692,20 @@ public class DefaultConnection implements Connection
         try
         {
             //NdrBuffer buffer = ndr.getBuffer();
-            buffer.setIndex ( ConnectionOrientedPdu.AUTH_LENGTH_OFFSET );
+            buffer.setIndex ( buffer.start + ConnectionOrientedPdu.AUTH_LENGTH_OFFSET );
             int length = buffer.dec_ndr_short ();//ndr.readUnsignedShort(); // auth body size
             int index = 20;
-            buffer.setIndex ( index ); //exactly at the auth type.
+            buffer.setIndex ( buffer.start + index ); //exactly at the auth type.
             AuthenticationVerifier verifier = new AuthenticationVerifier ( length );
-            verifier.decode ( ndr, buffer );
-            buffer.setIndex ( index + 2 ); // auth padding
+            verifier.decode ( receiveNdr, buffer );
+            buffer.setIndex ( buffer.start + index + 2 ); // auth padding
             length = index - buffer.dec_ndr_small ();//ndr.readUnsignedSmall();
-            buffer.setIndex ( ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
+            buffer.setIndex ( buffer.start + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
             buffer.enc_ndr_short ( length );
             buffer.enc_ndr_short ( 0 );
             //ndr.writeUnsignedShort(length);
             //ndr.writeUnsignedShort(0);
-            buffer.setIndex ( length );
+            buffer.setIndex ( buffer.start + length );
             return verifier;
         }
         catch ( Exception ex )
@@ -674,7 +719,7 @@ public class DefaultConnection implements Connection
         try
         {
             //NdrBuffer buffer = ndr.getBuffer();
-            buffer.setIndex ( ConnectionOrientedPdu.AUTH_LENGTH_OFFSET );
+            buffer.setIndex ( buffer.start + ConnectionOrientedPdu.AUTH_LENGTH_OFFSET );
             int length = buffer.dec_ndr_short ();//ndr.readUnsignedShort(); // auth body size
 
             if ( length == 0 )
@@ -687,15 +732,15 @@ public class DefaultConnection implements Connection
             }
 
             int index = buffer.getLength () - length - 8; // 8 = auth header size
-            buffer.setIndex ( index );
+            buffer.setIndex ( buffer.start + index );
             AuthenticationVerifier verifier = new AuthenticationVerifier ( length );
-            verifier.decode ( ndr, buffer );
-            buffer.setIndex ( index + 2 ); // auth padding
+            verifier.decode ( receiveNdr, buffer );
+            buffer.setIndex ( buffer.start + index + 2 ); // auth padding
             length = index - buffer.dec_ndr_small ();//ndr.readUnsignedSmall();
-            buffer.setIndex ( ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
+            buffer.setIndex ( buffer.start + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
             buffer.enc_ndr_short ( length );
             buffer.enc_ndr_short ( 0 );
-            buffer.setIndex ( length );
+            buffer.setIndex ( buffer.start + length );
             if ( logger.isLoggable ( Level.FINEST ) )
             {
                 logger.finest ( "\n" + "In [detachAuthentication] (after stripping authn info) setting new FRAG_LENGTH_OFFSET for the packet as = " + length );
@@ -765,19 +810,21 @@ public class DefaultConnection implements Connection
     private void verifyAndUnseal ( NetworkDataRepresentation ndr ) throws IOException
     {
         NdrBuffer buffer = ndr.getBuffer ();
-        buffer.setIndex ( ConnectionOrientedPdu.AUTH_LENGTH_OFFSET );
+        //the offsets below are relative to the start of the fragment.
+        int start = buffer.start;
+        buffer.setIndex ( start + ConnectionOrientedPdu.AUTH_LENGTH_OFFSET );
         int verifierLength = ndr.readUnsignedShort ();
         if ( verifierLength <= 0 )
             return;
         int verifierIndex = buffer.getLength () - verifierLength;
         int length = verifierIndex - 8;
         int index = ConnectionOrientedPdu.HEADER_LENGTH;
-        buffer.setIndex ( ConnectionOrientedPdu.TYPE_OFFSET );
+        buffer.setIndex ( start + ConnectionOrientedPdu.TYPE_OFFSET );
         switch ( ndr.readUnsignedSmall () )
         {
             case RequestCoPdu.REQUEST_TYPE:
                 index += 8;
-                buffer.setIndex ( ConnectionOrientedPdu.FLAGS_OFFSET );
+                buffer.setIndex ( start + ConnectionOrientedPdu.FLAGS_OFFSET );
                 if ( ( ndr.readUnsignedSmall () & ConnectionOrientedPdu.PFC_OBJECT_UUID ) != 0 )
                 {
                     index += 16;
@@ -800,17 +847,17 @@ public class DefaultConnection implements Connection
         length -= index;
 
         boolean isFragmented = true;
-        buffer.setIndex ( ConnectionOrientedPdu.FLAGS_OFFSET );
+        buffer.setIndex ( start + ConnectionOrientedPdu.FLAGS_OFFSET );
         int flags = ndr.readUnsignedSmall ();
         if ( ( flags & ConnectionOrientedPdu.PFC_FIRST_FRAG ) == ConnectionOrientedPdu.PFC_FIRST_FRAG && ( flags & ConnectionOrientedPdu.PFC_LAST_FRAG ) == ConnectionOrientedPdu.PFC_LAST_FRAG )
         {
             isFragmented = false;
         }
 
-        security.processIncoming ( ndr, index, length, verifierIndex, isFragmented );
-        buffer.setIndex ( verifierIndex - 6 ); // auth padding field
+        security.processIncoming ( ndr, start + index, length, start + verifierIndex, isFragmented );
+        buffer.setIndex ( start + verifierIndex - 6 ); // auth padding field
         length = verifierIndex - ndr.readUnsignedSmall () - 8;
-        buffer.setIndex ( ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
+        buffer.setIndex ( start + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
         // "doctor" the PDU by removing the auth and padding
         ndr.writeUnsignedShort ( length );
         ndr.writeUnsignedShort ( 0 );
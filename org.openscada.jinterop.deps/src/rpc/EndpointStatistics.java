@@ -0,0 +1,202 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the traffic of one or more endpoints, cheap enough to be kept
+ * all the time. Bytes and fragments are counted on the wire, including
+ * headers and the handshake. The round trip of a call is the time from
+ * sending its request to receiving its reply, the socket wait is the time
+ * spent blocked reading from the socket. Round trips are also kept in a
+ * histogram, slot <code>i</code> counts those below <code>2^i</code>
+ * millisecs, the last slot all longer ones. The counters may be read through
+ * JMX, this class being its own standard MBean.
+ */
+public class EndpointStatistics implements EndpointStatisticsMBean
+{
+
+    private static final int SLOTS = 16;
+
+    private final AtomicLong bytesSent = new AtomicLong ();
+
+    private final AtomicLong bytesReceived = new AtomicLong ();
+
+    private final AtomicLong fragmentsSent = new AtomicLong ();
+
+    private final AtomicLong fragmentsReceived = new AtomicLong ();
+
+    private final AtomicLong calls = new AtomicLong ();
+
+    private final AtomicLong negotiations = new AtomicLong ();
+
+    private final AtomicLong socketWait = new AtomicLong ();
+
+    private final AtomicLong roundTrips = new AtomicLong ();
+
+    private final AtomicLong roundTripTime = new AtomicLong ();
+
+    private final AtomicLong maxRoundTripTime = new AtomicLong ();
+
+    private final AtomicLongArray histogram = new AtomicLongArray ( SLOTS );
+
+    void sent ( int bytes )
+    {
+        bytesSent.addAndGet ( bytes );
+        fragmentsSent.incrementAndGet ();
+    }
+
+    void received ( int bytes )
+    {
+        bytesReceived.addAndGet ( bytes );
+        fragmentsReceived.incrementAndGet ();
+    }
+
+    void called ()
+    {
+        calls.incrementAndGet ();
+    }
+
+    void negotiated ()
+    {
+        negotiations.incrementAndGet ();
+    }
+
+    void waited ( long nanos )
+    {
+        socketWait.addAndGet ( nanos );
+    }
+
+    /**
+     * Records a round trip which started at <code>start</code>, as given by
+     * <code>System.nanoTime()</code>.
+     */
+    void roundTrip ( long start )
+    {
+        long nanos = System.nanoTime () - start;
+        roundTrips.incrementAndGet ();
+        roundTripTime.addAndGet ( nanos );
+        long max = maxRoundTripTime.get ();
+        while ( nanos > max && !maxRoundTripTime.compareAndSet ( max, nanos ) )
+        {
+            max = maxRoundTripTime.get ();
+        }
+        long millis = nanos / 1000000;
+        int slot = 0;
+        while ( slot < SLOTS - 1 && millis >= 1L << slot )
+        {
+            slot++;
+        }
+        histogram.incrementAndGet ( slot );
+    }
+
+    public long getBytesSent ()
+    {
+        return bytesSent.get ();
+    }
+
+    public long getBytesReceived ()
+    {
+        return bytesReceived.get ();
+    }
+
+    public long getFragmentsSent ()
+    {
+        return fragmentsSent.get ();
+    }
+
+    public long getFragmentsReceived ()
+    {
+        return fragmentsReceived.get ();
+    }
+
+    /**
+     * Number of requests sent, including those not waiting for a reply.
+     */
+    public long getCalls ()
+    {
+        return calls.get ();
+    }
+
+    /**
+     * Number of binds and alter contexts sent, including keep alive pings.
+     */
+    public long getNegotiations ()
+    {
+        return negotiations.get ();
+    }
+
+    public long getSocketWaitMillis ()
+    {
+        return socketWait.get () / 1000000;
+    }
+
+    public long getRoundTrips ()
+    {
+        return roundTrips.get ();
+    }
+
+    /**
+     * Total of all round trips.
+     */
+    public long getRoundTripMillis ()
+    {
+        return roundTripTime.get () / 1000000;
+    }
+
+    public long getMaxRoundTripMillis ()
+    {
+        return maxRoundTripTime.get () / 1000000;
+    }
+
+    public long[] getRoundTripHistogram ()
+    {
+        long[] slots = new long[SLOTS];
+        for ( int i = 0; i < SLOTS; i++ )
+        {
+            slots[i] = histogram.get ( i );
+        }
+        return slots;
+    }
+
+    public void reset ()
+    {
+        bytesSent.set ( 0 );
+        bytesReceived.set ( 0 );
+        fragmentsSent.set ( 0 );
+        fragmentsReceived.set ( 0 );
+        calls.set ( 0 );
+        negotiations.set ( 0 );
+        socketWait.set ( 0 );
+        roundTrips.set ( 0 );
+        roundTripTime.set ( 0 );
+        maxRoundTripTime.set ( 0 );
+        for ( int i = 0; i < SLOTS; i++ )
+        {
+            histogram.set ( i, 0 );
+        }
+    }
+
+    public String toString ()
+    {
+        return "calls=" + getCalls () + ",negotiations=" + getNegotiations () + ",bytesSent=" + getBytesSent () + ",bytesReceived=" + getBytesReceived () + ",fragmentsSent=" + getFragmentsSent () + ",fragmentsReceived=" + getFragmentsReceived () + ",roundTrips=" + getRoundTrips () + ",roundTripMillis=" + getRoundTripMillis () + ",socketWaitMillis=" + getSocketWaitMillis ();
+    }
+
+}
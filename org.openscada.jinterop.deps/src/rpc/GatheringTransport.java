@@ -0,0 +1,38 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+import java.io.IOException;
+
+import ndr.NdrBuffer;
+
+/**
+ * A transport able to send a PDU from several buffers at once, so that a large
+ * stub need not be copied behind its header first.
+ */
+public interface GatheringTransport extends Transport
+{
+
+    /**
+     * Sends the bytes of all buffers in order, for each buffer the
+     * <code>buffer.getLength()</code> bytes starting at
+     * <code>buffer.start</code>.
+     */
+    public void send ( NdrBuffer[] buffers ) throws IOException;
+
+}
@@ -0,0 +1,58 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc;
+
+import java.io.IOException;
+
+/**
+ * A transport whose reads are performed in the background. Once a handler is
+ * set, the transport tells it about every complete fragment it has buffered.
+ * The handler then takes the fragment with
+ * {@link DefaultConnection#receiveFragment(Transport)}, which will not block.
+ * The fragments of a PDU are reported one by one, as on a multiplexed
+ * connection those of other calls may come in between.
+ */
+public interface NonBlockingTransport extends Transport
+{
+
+    /**
+     * Sets the handler for buffered fragments. Returns <code>false</code> if the
+     * transport is operating in blocking mode, the caller has to read on its
+     * own thread then. A fragment shorter than a header or longer than
+     * <code>maxFragmentLength</code> fails the handler, the stream cannot be
+     * framed past it.
+     */
+    public boolean setReadyHandler ( ReadyHandler handler, int maxFragmentLength ) throws IOException;
+
+    public interface ReadyHandler
+    {
+
+        /**
+         * A complete fragment is buffered, called once per fragment and
+         * never concurrently.
+         */
+        public void pduAvailable ();
+
+        /**
+         * Reading failed, no more fragments will be reported.
+         */
+        public void failed ( IOException ex );
+
+    }
+
+}
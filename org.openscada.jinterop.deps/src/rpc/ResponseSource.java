@@ -0,0 +1,104 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+
+package rpc;
+
+import java.io.IOException;
+
+import ndr.NdrBuffer;
+import rpc.pdu.ResponseCoPdu;
+
+/**
+ * Receives the fragments following the first one of a response on demand of
+ * the decoder. Only used on serialized connections, where the calling thread
+ * is the one receiving.
+ */
+class ResponseSource implements NdrBuffer.Source
+{
+
+    private final DefaultConnection connection;
+
+    private final Transport transport;
+
+    private final int callId;
+
+    private final NdrBuffer buffer;
+
+    private boolean complete;
+
+    ResponseSource ( DefaultConnection connection, Transport transport, ResponseCoPdu first )
+    {
+        this.connection = connection;
+        this.transport = transport;
+        callId = first.getCallId ();
+        int length = first.getStubLength ();
+        //the allocation hint, if given, is the size of the whole stub.
+        buffer = new NdrBuffer ( BufferPool.lease ( Math.max ( first.getAllocationHint (), length ) ), 0 );
+        buffer.setSource ( this, 0 );
+        if ( length > 0 )
+        {
+            buffer.append ( first.getStubBuffer (), first.getStubOffset (), length );
+        }
+        first.releaseStub ();
+    }
+
+    NdrBuffer getBuffer ()
+    {
+        return buffer;
+    }
+
+    public boolean fill ( NdrBuffer buffer ) throws IOException
+    {
+        if ( complete )
+        {
+            return false;
+        }
+        ResponseCoPdu fragment = next ();
+        if ( fragment.getStubLength () > 0 )
+        {
+            buffer.append ( fragment.getStubBuffer (), fragment.getStubOffset (), fragment.getStubLength () );
+        }
+        fragment.releaseStub ();
+        return true;
+    }
+
+    /**
+     * Drops the fragments the decoder did not get to, the next reply starts
+     * behind them.
+     */
+    void skip () throws IOException
+    {
+        while ( !complete )
+        {
+            next ().releaseStub ();
+        }
+    }
+
+    private ResponseCoPdu next () throws IOException
+    {
+        ConnectionOrientedPdu fragment = connection.receiveFragment ( transport );
+        if ( ! ( fragment instanceof ResponseCoPdu ) || fragment.getCallId () != callId )
+        {
+            complete = true;
+            throw new RpcException ( "Received unexpected PDU while receiving the fragments of call id " + callId + "." );
+        }
+        complete = fragment.getFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG );
+        return (ResponseCoPdu)fragment;
+    }
+
+}
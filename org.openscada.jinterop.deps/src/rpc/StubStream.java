@@ -0,0 +1,121 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+
+package rpc;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ndr.NdrBuffer;
+import rpc.pdu.OrphanedPdu;
+import rpc.pdu.RequestCoPdu;
+
+/**
+ * Sends the leading fragments of a stub while it is still being encoded.
+ * The first fragment takes the transmit lock and it is kept until the last
+ * one is out, no other call may put fragments in between. Hence only used on
+ * serialized connections, where no other call is waiting for the lock
+ * anyway.
+ */
+class StubStream implements NdrBuffer.Sink
+{
+
+    private static final Logger logger = Logger.getLogger ( "org.jinterop" );
+
+    private final Transmitter transmitter;
+
+    private final Connection connection;
+
+    private final RequestCoPdu request;
+
+    private final int chunk;
+
+    private boolean started;
+
+    private boolean finished;
+
+    StubStream ( Transmitter transmitter, Connection connection, RequestCoPdu request, int transmitLength )
+    {
+        this.transmitter = transmitter;
+        this.connection = connection;
+        this.request = request;
+        chunk = request.getMaxStubLength ( transmitLength );
+    }
+
+    int getChunk ()
+    {
+        return chunk;
+    }
+
+    boolean isStarted ()
+    {
+        return started;
+    }
+
+    public void flush ( byte[] buf, int off, int len ) throws IOException
+    {
+        if ( !started )
+        {
+            transmitter.lock ();
+        }
+        RequestCoPdu fragment = (RequestCoPdu)request.clone ();
+        fragment.setStub ( buf, off, len );
+        //the size of the whole stub is not known yet.
+        fragment.setAllocationHint ( 0 );
+        fragment.setFlag ( ConnectionOrientedPdu.PFC_FIRST_FRAG, !started );
+        fragment.setFlag ( ConnectionOrientedPdu.PFC_LAST_FRAG, false );
+        started = true;
+        transmitter.transmit ( connection, fragment );
+    }
+
+    void finished ()
+    {
+        finished = true;
+    }
+
+    /**
+     * Releases the transmit lock, a request left incomplete on the wire is
+     * orphaned first so that the server drops the fragments received.
+     */
+    void close ()
+    {
+        if ( !started )
+        {
+            return;
+        }
+        try
+        {
+            if ( !finished )
+            {
+                OrphanedPdu orphaned = new OrphanedPdu ();
+                orphaned.setCallId ( request.getCallId () );
+                transmitter.transmit ( connection, orphaned );
+            }
+        }
+        catch ( IOException ex )
+        {
+            logger.log ( Level.FINE, "Could not orphan call id " + request.getCallId (), ex );
+        }
+        finally
+        {
+            transmitter.unlock ();
+        }
+    }
+
+}
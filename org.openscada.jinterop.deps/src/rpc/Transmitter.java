@@ -0,0 +1,168 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+
+package rpc;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import rpc.pdu.AlterContextPdu;
+import rpc.pdu.BindPdu;
+import rpc.pdu.RequestCoPdu;
+
+/**
+ * Puts the PDUs of a {@link ConnectionOrientedEndpoint} on the wire. Every
+ * write takes the transmit lock, the fragments of concurrent calls must not
+ * interleave. The last leg of the handshake may be held back, it leaves with
+ * the next PDU in a single write, as does a batch of one-way requests.
+ */
+class Transmitter
+{
+
+    private final ConnectionOrientedEndpoint endpoint;
+
+    private final ReentrantLock lock = new ReentrantLock ();
+
+    //the unanswered last leg of the handshake, sent along with the next PDU. Guarded by the lock.
+    private ConnectionOrientedPdu deferredPdu;
+
+    Transmitter ( ConnectionOrientedEndpoint endpoint )
+    {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Takes the transmit lock for several PDUs in a row, as the fragments of
+     * a streamed request.
+     */
+    void lock ()
+    {
+        lock.lock ();
+    }
+
+    void unlock ()
+    {
+        lock.unlock ();
+    }
+
+    /**
+     * Holds <code>pdu</code> back until the next one is transmitted,
+     * <code>null</code> drops the one held back.
+     */
+    void defer ( ConnectionOrientedPdu pdu )
+    {
+        lock.lock ();
+        try
+        {
+            deferredPdu = pdu;
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+    }
+
+    void transmit ( Connection connection, ConnectionOrientedPdu pdu ) throws IOException
+    {
+        if ( pdu instanceof RequestCoPdu )
+        {
+            //the parts of a streamed request after the first are no calls of their own.
+            if ( pdu.getFlag ( ConnectionOrientedPdu.PFC_FIRST_FRAG ) )
+            {
+                endpoint.getStatistics ().called ();
+            }
+        }
+        else if ( pdu instanceof BindPdu || pdu instanceof AlterContextPdu )
+        {
+            endpoint.getStatistics ().negotiated ();
+        }
+        lock.lock ();
+        try
+        {
+            if ( deferredPdu == null )
+            {
+                connection.transmit ( pdu, endpoint.getTransport () );
+                return;
+            }
+            BatchTransport batch = new BatchTransport ( endpoint.getTransport (), 1024 );
+            try
+            {
+                transmitDeferred ( connection, batch );
+                connection.transmit ( pdu, batch );
+                batch.flush ();
+            }
+            finally
+            {
+                batch.close ();
+            }
+        }
+        finally
+        {
+            lock.unlock ();
+        }
+    }
+
+    /**
+     * Transmits <code>requests</code> back to back with a single write,
+     * <code>size</code> being the estimate of their encoded length. The call
+     * ids are drawn from <code>multiplexer</code>, or the endpoint if it is
+     * <code>null</code>, in the order the requests go out.
+     */
+    void transmitBatch ( Connection connection, CallMultiplexer multiplexer, RequestCoPdu[] requests, int size ) throws IOException
+    {
+        BatchTransport batch = new BatchTransport ( endpoint.getTransport (), size );
+        try
+        {
+            lock.lock ();
+            try
+            {
+                transmitDeferred ( connection, batch );
+                for ( int i = 0; i < requests.length; i++ )
+                {
+                    requests[i].setCallId ( multiplexer != null ? multiplexer.nextCallId () : endpoint.nextCallId () );
+                    connection.transmit ( requests[i], batch );
+                    endpoint.getStatistics ().called ();
+                }
+                batch.flush ();
+            }
+            finally
+            {
+                lock.unlock ();
+            }
+        }
+        finally
+        {
+            batch.close ();
+        }
+    }
+
+    /**
+     * Puts the held back last leg of the handshake, if any, in front of the
+     * PDUs collected by <code>batch</code>. Must hold the lock.
+     */
+    private void transmitDeferred ( Connection connection, BatchTransport batch ) throws IOException
+    {
+        ConnectionOrientedPdu pdu = deferredPdu;
+        if ( pdu != null )
+        {
+            deferredPdu = null;
+            connection.transmit ( pdu, batch );
+        }
+    }
+
+}
@@ -34,6 +34,11 @@ public interface Transport
 
     public void send ( NdrBuffer buffer ) throws IOException;
 
+    /**
+     * Receives at most <code>buffer.getCapacity()</code> bytes into the
+     * buffer, starting at <code>buffer.start</code>, and sets
+     * <code>buffer.length</code> to the number of bytes received.
+     */
     public void receive ( NdrBuffer buffer ) throws IOException;
 
     public void close () throws IOException;
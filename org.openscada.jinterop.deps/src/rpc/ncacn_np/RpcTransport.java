@@ -40,6 +40,12 @@ public class RpcTransport implements Transport
 
     public static final String PROTOCOL = "ncacn_np";
 
+    /**
+     * Largest fragment that fits into a single TransactNamedPipe, bounded by
+     * the default jcifs transaction buffer.
+     */
+    public static final int MAX_TRANSACT_FRAGMENT = 0xffff - 512;
+
     private static final String LOCALHOST;
 
     private String address;
@@ -138,34 +144,45 @@ public class RpcTransport implements Transport
     public void receive ( NdrBuffer buffer ) throws IOException
     {
         byte[] buf = buffer.getBuffer ();
-        int off = 0, bytes_to_read, n;
+        int off = buffer.start, bytes_to_read, n;
 
         if ( !attached )
             throw new RpcException ( "Transport not attached." );
 
         if ( first )
         {
-            n = in.read ( buf, 0, 1024 ); /* TransactNamedPipe */
+            /* TransactNamedPipe, the answer to the request is buffered whole, take all of it */
+            n = in.read ( buf, off, buffer.getCapacity () );
             first = false;
         }
         else
         { /* Plain read */
-            n = ( in2 ).read ( buf, off, buf.length );
+            n = ( in2 ).read ( buf, off, buffer.getCapacity () );
+        }
+        if ( n <= 0 )
+        {
+            buffer.length = n;
+            return;
         }
 
-        buffer.setIndex ( ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
+        buffer.setIndex ( buffer.start + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET );
         bytes_to_read = buffer.dec_ndr_short ();
 
         off += n;
         bytes_to_read -= n;
 
+        //whatever did not fit into the transaction follows, read as much of it at once as possible.
         while ( bytes_to_read > 0 )
         {
             n = ( in2 ).read ( buf, off, bytes_to_read );
+            if ( n <= 0 )
+            {
+                throw new IOException ( "Pipe closed." );
+            }
             off += n;
             bytes_to_read -= n;
         }
-        buffer.length = off;
+        buffer.length = off - buffer.start;
     }
 
     protected void parse ( String address ) throws ProviderException
@@ -133,7 +133,7 @@ public class FaultCoPdu extends ConnectionOrientedPdu implements FaultCodes, Fra
         NdrBuffer buf = ndr.getBuffer ();
         buf.align ( 8 );
         byte[] stub = null;
-        int length = getFragmentLength () - buf.getIndex ();
+        int length = getFragmentLength () - ( buf.getIndex () - buf.start );
         if ( length > 0 )
         {
             stub = new byte[length];
@@ -207,7 +207,7 @@ public class FaultCoPdu extends ConnectionOrientedPdu implements FaultCodes, Fra
         }
         catch ( Exception ex )
         {
-            throw new IOException ( "Unable to assemble PDU fragments." );
+            throw new IOException ( "Unable to assemble PDU fragments.", ex );
         }
     }
 
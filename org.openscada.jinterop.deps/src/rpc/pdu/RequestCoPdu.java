@@ -38,6 +38,11 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
 
     private byte[] stub;
 
+    //the stub may be a region of a larger array, as encoded or shared with the PDU being fragmented.
+    private int stubOffset = 0;
+
+    private int stubLength = 0;
+
     private int allocationHint = 0;
 
     private int contextId = 0;
@@ -55,12 +60,68 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
 
     public byte[] getStub ()
     {
+        if ( stub != null && ( stubOffset != 0 || stubLength != stub.length ) )
+        {
+            byte[] tmp = new byte[stubLength];
+            System.arraycopy ( stub, stubOffset, tmp, 0, stubLength );
+            setStub ( tmp );
+        }
         return stub;
     }
 
     public void setStub ( byte[] stub )
+    {
+        setStub ( stub, 0, stub == null ? 0 : stub.length );
+    }
+
+    /**
+     * Uses <code>length</code> bytes of <code>stub</code> starting at
+     * <code>offset</code> as the stub, without copying them.
+     */
+    public void setStub ( byte[] stub, int offset, int length )
     {
         this.stub = stub;
+        this.stubOffset = offset;
+        this.stubLength = length;
+    }
+
+    public int getStubLength ()
+    {
+        return stub == null ? 0 : stubLength;
+    }
+
+    /**
+     * Returns the stub as a buffer over the array it is held in, or
+     * <code>null</code> if there is none.
+     */
+    public NdrBuffer getStubBuffer ()
+    {
+        if ( stub == null )
+        {
+            return null;
+        }
+        NdrBuffer buffer = new NdrBuffer ( stub, stubOffset );
+        buffer.length = stubLength;
+        return buffer;
+    }
+
+    /**
+     * Encodes the PDU without its stub, the fragment length covers the stub
+     * though. The stub has to be sent right behind.
+     */
+    public void encodeHeader ( NetworkDataRepresentation ndr, NdrBuffer dst )
+    {
+        ndr.setBuffer ( dst );
+        ndr.setFormat ( getFormat () );
+        writeHeader ( ndr );
+        writeBody ( ndr );
+        dst.align ( 8, (byte)0 );
+        int length = dst.getLength ();
+        setFragmentLength ( length + getStubLength () );
+        dst.setIndex ( FRAG_LENGTH_OFFSET );
+        ndr.writeUnsignedShort ( length + getStubLength () );
+        ndr.writeUnsignedShort ( getAuthenticatorLength () );
+        dst.setIndex ( length );
     }
 
     public int getAllocationHint ()
@@ -163,7 +224,7 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
         NdrBuffer src = ndr.getBuffer ();
         src.align ( 8 );
         byte[] stub = null;
-        int length = getFragmentLength () - src.getIndex ();
+        int length = getFragmentLength () - ( src.getIndex () - src.start );
         if ( length > 0 )
         {
             stub = new byte[length];
@@ -176,23 +237,19 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
     {
         NdrBuffer dst = ndr.getBuffer ();
         dst.align ( 8, (byte)0 );
-        byte[] stub = getStub ();
         if ( stub != null )
-            ndr.writeOctetArray ( stub, 0, stub.length );
+            ndr.writeOctetArray ( stub, stubOffset, stubLength );
     }
 
     public Iterator fragment ( int size )
     {
-        byte[] stub = getStub ();
         if ( stub == null )
         {
             return Arrays.asList ( new RequestCoPdu[] { this } ).iterator ();
         }
 
-        //subtracting 8 bytes for authentication header and 16 for the authentication verifier size, someone forgot the
-        //poor guys..
-        int stubSize = size - ( getFlag ( PFC_OBJECT_UUID ) ? 40 : 24 ) - 8 - 16;
-        if ( stub.length <= stubSize )
+        int stubSize = getMaxStubLength ( size );
+        if ( stubLength <= stubSize )
         {
             return Arrays.asList ( new RequestCoPdu[] { this } ).iterator ();
         }
@@ -203,6 +260,16 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
         return new FragmentIterator ( stubSize );
     }
 
+    /**
+     * The largest stub fitting into a fragment of <code>size</code> bytes.
+     */
+    public int getMaxStubLength ( int size )
+    {
+        //subtracting 8 bytes for authentication header and 16 for the authentication verifier size, someone forgot the
+        //poor guys..
+        return size - ( getFlag ( PFC_OBJECT_UUID ) ? 40 : 24 ) - 8 - 16;
+    }
+
     public Fragmentable assemble ( Iterator fragments ) throws IOException
     {
         if ( !fragments.hasNext () )
@@ -212,25 +279,17 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
         try
         {
             RequestCoPdu pdu = (RequestCoPdu)fragments.next ();
-            byte[] stub = pdu.getStub ();
-            if ( stub == null )
-                stub = new byte[0];
+            StubAssembler stub = new StubAssembler ( pdu.getAllocationHint () );
+            stub.append ( pdu.getStub (), pdu.getStubLength () );
             while ( fragments.hasNext () )
             {
                 RequestCoPdu fragment = (RequestCoPdu)fragments.next ();
-                byte[] fragmentStub = fragment.getStub ();
-                if ( fragmentStub != null && fragmentStub.length > 0 )
-                {
-                    byte[] tmp = new byte[stub.length + fragmentStub.length];
-                    System.arraycopy ( stub, 0, tmp, 0, stub.length );
-                    System.arraycopy ( fragmentStub, 0, tmp, stub.length, fragmentStub.length );
-                    stub = tmp;
-                }
+                stub.append ( fragment.getStub (), fragment.getStubLength () );
             }
-            int length = stub.length;
+            int length = stub.getLength ();
             if ( length > 0 )
             {
-                pdu.setStub ( stub );
+                pdu.setStub ( stub.getStub () );
                 pdu.setAllocationHint ( length );
             }
             else
@@ -244,7 +303,7 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
         }
         catch ( Exception ex )
         {
-            throw new IOException ( "Unable to assemble PDU fragments." );
+            throw new IOException ( "Unable to assemble PDU fragments.", ex );
         }
     }
 
@@ -269,36 +328,37 @@ public class RequestCoPdu extends ConnectionOrientedPdu implements Fragmentable
 
         //        private boolean firstfragsent = false;
 
-        private int callId = callIdCounter++;
+        private int callId;
 
         public FragmentIterator ( int stubSize )
         {
             this.stubSize = stubSize;
+            this.callId = hasCallId () ? getCallId () : callIdCounter++;
         }
 
         public boolean hasNext ()
         {
-            return index < stub.length;
+            return index < stubLength;
         }
 
         public Object next ()
         {
-            if ( index >= stub.length )
+            if ( index >= stubLength )
                 throw new NoSuchElementException ();
             RequestCoPdu fragment = (RequestCoPdu)RequestCoPdu.this.clone ();
-            int allocation = stub.length - index;
+            int allocation = stubLength - index;
             fragment.setAllocationHint ( allocation );
             if ( stubSize < allocation )
                 allocation = stubSize;
-            byte[] fragmentStub = new byte[allocation];
-            System.arraycopy ( stub, index, fragmentStub, 0, allocation );
-            fragment.setStub ( fragmentStub );
+            //the fragments share the stub, it is copied only when encoded.
+            fragment.setStub ( stub, stubOffset + index, allocation );
+            //a streamed request is sent in parts, only the part flagged as first (last) has a first (last) fragment.
             int flags = getFlags () & ~ ( PFC_FIRST_FRAG | PFC_LAST_FRAG );
             if ( index == 0 )
-                flags |= PFC_FIRST_FRAG;
+                flags |= getFlags () & PFC_FIRST_FRAG;
             index += allocation;
-            if ( index >= stub.length )
-                flags |= PFC_LAST_FRAG;
+            if ( index >= stubLength )
+                flags |= getFlags () & PFC_LAST_FRAG;
             fragment.setFlags ( flags );
 
             //always use the same callId now
@@ -26,7 +26,9 @@ import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ndr.NdrBuffer;
 import ndr.NetworkDataRepresentation;
+import rpc.BufferPool;
 import rpc.ConnectionOrientedPdu;
 import rpc.Fragmentable;
 
@@ -37,6 +39,14 @@ public class ResponseCoPdu extends ConnectionOrientedPdu implements Fragmentable
 
     private byte[] stub;
 
+    //received stubs may be longer than the stub, or lie within the receive buffer of the connection.
+    private int stubOffset = 0;
+
+    private int stubLength = 0;
+
+    //the stub lies within an array not owned by this PDU.
+    private boolean shared;
+
     private int allocationHint = 0;
 
     private int contextId = 0;
@@ -52,12 +62,80 @@ public class ResponseCoPdu extends ConnectionOrientedPdu implements Fragmentable
 
     public byte[] getStub ()
     {
+        if ( stub != null && ( stubOffset != 0 || stubLength != stub.length ) )
+        {
+            byte[] tmp = new byte[stubLength];
+            System.arraycopy ( stub, stubOffset, tmp, 0, stubLength );
+            setStub ( tmp );
+        }
         return stub;
     }
 
     public void setStub ( byte[] stub )
+    {
+        setStub ( stub, stub == null ? 0 : stub.length );
+    }
+
+    /**
+     * Uses the first <code>length</code> bytes of <code>stub</code> as the
+     * stub.
+     */
+    public void setStub ( byte[] stub, int length )
     {
         this.stub = stub;
+        this.stubOffset = 0;
+        this.stubLength = length;
+        this.shared = false;
+    }
+
+    public int getStubLength ()
+    {
+        return stub == null ? 0 : stubLength;
+    }
+
+    /**
+     * Returns the array holding the stub in {@link #getStubLength()} bytes
+     * from {@link #getStubOffset()} on, without copying it. For a received
+     * response this is the receive buffer of the connection, valid until
+     * the next fragment is received. See {@link #detachStub()} and
+     * {@link #releaseStub()}.
+     */
+    public byte[] getStubBuffer ()
+    {
+        return stub;
+    }
+
+    public int getStubOffset ()
+    {
+        return stubOffset;
+    }
+
+    /**
+     * Copies a stub still lying within the receive buffer into an array of
+     * its own, leased from the {@link BufferPool}. Needed if the stub is
+     * decoded after the connection has moved on.
+     */
+    public void detachStub ()
+    {
+        if ( stub != null && shared )
+        {
+            byte[] tmp = BufferPool.lease ( stubLength );
+            System.arraycopy ( stub, stubOffset, tmp, 0, stubLength );
+            setStub ( tmp, stubLength );
+        }
+    }
+
+    /**
+     * Drops the stub once it is decoded, returning it to the
+     * {@link BufferPool} unless it lies within the receive buffer.
+     */
+    public void releaseStub ()
+    {
+        if ( stub != null && !shared )
+        {
+            BufferPool.release ( stub );
+        }
+        setStub ( null, 0 );
     }
 
     public int getAllocationHint ()
@@ -118,25 +196,33 @@ public class ResponseCoPdu extends ConnectionOrientedPdu implements Fragmentable
         ndr.writeUnsignedSmall ( (short)getCancelCount () );
     }
 
+    /**
+     * Refers to the stub where it lies in the buffer, it is not copied.
+     */
     protected void readStub ( NetworkDataRepresentation ndr )
     {
-        ndr.getBuffer ().align ( 8 );
-        byte[] stub = null;
-        int length = getFragmentLength () - ndr.getBuffer ().getIndex ();
+        NdrBuffer buffer = ndr.getBuffer ();
+        buffer.align ( 8 );
+        int length = getFragmentLength () - ( buffer.getIndex () - buffer.start );
         if ( length > 0 )
         {
-            stub = new byte[length];
-            ndr.readOctetArray ( stub, 0, length );
+            stub = buffer.getBuffer ();
+            stubOffset = buffer.getIndex ();
+            stubLength = length;
+            shared = true;
+            buffer.setIndex ( buffer.getIndex () + length );
+        }
+        else
+        {
+            setStub ( null, 0 );
         }
-        setStub ( stub );
     }
 
     protected void writeStub ( NetworkDataRepresentation ndr )
     {
         ndr.getBuffer ().align ( 8, (byte)0 );
-        byte[] stub = getStub ();
         if ( stub != null )
-            ndr.writeOctetArray ( stub, 0, stub.length );
+            ndr.writeOctetArray ( stub, stubOffset, stubLength );
     }
 
     public Iterator fragment ( int size )
@@ -170,9 +256,9 @@ public class ResponseCoPdu extends ConnectionOrientedPdu implements Fragmentable
         try
         {
             ResponseCoPdu pdu = (ResponseCoPdu)fragments.next ();
-            byte[] stub = pdu.getStub ();
-            if ( stub == null )
-                stub = new byte[0];
+            StubAssembler assembler = new StubAssembler ( pdu.getAllocationHint () );
+            assembler.append ( pdu.getStubBuffer (), pdu.getStubOffset (), pdu.getStubLength () );
+            pdu.releaseStub ();
             int i = 0;
             while ( fragments.hasNext () )
             {
@@ -181,41 +267,43 @@ public class ResponseCoPdu extends ConnectionOrientedPdu implements Fragmentable
                     logger.finest ( "[IN ASSEMBLE] Fragment { " + i + " }\n" );
                 }
                 ResponseCoPdu fragment = (ResponseCoPdu)fragments.next ();
-                byte[] fragmentStub = fragment.getStub ();
-                if ( fragmentStub != null && fragmentStub.length > 0 )
+                byte[] fragmentStub = fragment.getStubBuffer ();
+                int fragmentOffset = fragment.getStubOffset ();
+                int fragmentLength = fragment.getStubLength ();
+                if ( fragmentLength > 0 )
                 {
                     if ( logger.isLoggable ( Level.FINEST ) )
                     {
-                        logger.finest ( "[FRAGMENT'S STUB (new one)] Length is = " + fragmentStub.length );
+                        logger.finest ( "[FRAGMENT'S STUB (new one)] Length is = " + fragmentLength );
                     }
-                    byte[] tmp = new byte[stub.length + fragmentStub.length];
-                    System.arraycopy ( stub, 0, tmp, 0, stub.length );
-                    System.arraycopy ( fragmentStub, 0, tmp, stub.length, fragmentStub.length );
-                    stub = tmp;
+                    assembler.append ( fragmentStub, fragmentOffset, fragmentLength );
                     if ( logger.isLoggable ( Level.FINEST ) )
                     {
-                        logger.finest ( "[ADDED THIS STUB (previous stub + new one) into OLD STUB] Current Length of pieces assembled so far = " + stub.length );
+                        logger.finest ( "[ADDED THIS STUB (previous stub + new one) into OLD STUB] Current Length of pieces assembled so far = " + assembler.getLength () );
                         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                        jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), stub, 0, stub.length );
+                        jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), fragmentStub, fragmentOffset, fragmentLength );
                         logger.finest ( "\n" + byteArrayOutputStream.toString () );
                     }
                 }
+                fragment.releaseStub ();
             }
-            int length = stub.length;
+            int length = assembler.getLength ();
             if ( length > 0 )
             {
-                pdu.setStub ( stub );
+                byte[] stub = assembler.getBuffer ();
+                pdu.setStub ( stub, length );
                 pdu.setAllocationHint ( length );
                 if ( logger.isLoggable ( Level.FINEST ) )
                 {
                     logger.finest ( "[FULL AND FINAL STUB AFTER ASSEMBLY]\n" );
                     ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                    jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), stub, 0, stub.length );
+                    jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), stub, 0, length );
                     logger.finest ( "\n" + byteArrayOutputStream.toString () );
                 }
             }
             else
             {
+                BufferPool.release ( assembler.getBuffer () );
                 pdu.setStub ( null );
                 pdu.setAllocationHint ( 0 );
             }
@@ -225,7 +313,7 @@ public class ResponseCoPdu extends ConnectionOrientedPdu implements Fragmentable
         }
         catch ( Exception ex )
         {
-            throw new IOException ( "Unable to assemble PDU fragments." );
+            throw new IOException ( "Unable to assemble PDU fragments.", ex );
         }
     }
 
@@ -0,0 +1,94 @@
+/* Donated by Jarapac (http://jarapac.sourceforge.net/)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110, USA
+ */
+
+package rpc.pdu;
+
+import rpc.BufferPool;
+
+/**
+ * Joins the stubs of the fragments of a request or response. The buffer is
+ * sized from the alloc_hint of the first fragment, so that a well behaved peer
+ * costs a single copy per fragment. Fragments beyond the hint double the
+ * buffer. Buffers are leased from the {@link BufferPool}.
+ */
+public final class StubAssembler
+{
+
+    //alloc_hint is only a hint, do not let a bogus one allocate more than this upfront.
+    private static final int MAX_PRESIZE = 64 * 1024 * 1024;
+
+    private byte[] stub;
+
+    private int length;
+
+    public StubAssembler ( int allocationHint )
+    {
+        stub = BufferPool.lease ( allocationHint > 0 ? Math.min ( allocationHint, MAX_PRESIZE ) : 0 );
+    }
+
+    public void append ( byte[] fragmentStub, int fragmentLength )
+    {
+        append ( fragmentStub, 0, fragmentLength );
+    }
+
+    public void append ( byte[] fragmentStub, int offset, int fragmentLength )
+    {
+        if ( fragmentStub == null || fragmentLength == 0 )
+        {
+            return;
+        }
+        if ( length + fragmentLength > stub.length )
+        {
+            byte[] tmp = BufferPool.lease ( Math.max ( stub.length * 2, length + fragmentLength ) );
+            System.arraycopy ( stub, 0, tmp, 0, length );
+            BufferPool.release ( stub );
+            stub = tmp;
+        }
+        System.arraycopy ( fragmentStub, offset, stub, length, fragmentLength );
+        length += fragmentLength;
+    }
+
+    public int getLength ()
+    {
+        return length;
+    }
+
+    /**
+     * Returns the buffer holding the joined stub in its first
+     * {@link #getLength()} bytes.
+     */
+    public byte[] getBuffer ()
+    {
+        return stub;
+    }
+
+    /**
+     * Returns the joined stub as an array of its own length.
+     */
+    byte[] getStub ()
+    {
+        if ( length != stub.length )
+        {
+            byte[] tmp = new byte[length];
+            System.arraycopy ( stub, 0, tmp, 0, length );
+            BufferPool.release ( stub );
+            stub = tmp;
+        }
+        return stub;
+    }
+
+}
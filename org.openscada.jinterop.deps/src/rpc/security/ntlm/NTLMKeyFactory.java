@@ -130,6 +130,18 @@ class NTLMKeyFactory
         return retData;
     }
 
+    /**
+     * Applies the keystream to <code>length</code> bytes of <code>data</code>
+     * starting at <code>offset</code>, in place.
+     */
+    void applyARCFOUR ( IRandom keystream, byte[] data, int offset, int length ) throws IllegalStateException, LimitReachedException
+    {
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            data[i] = (byte) ( data[i] ^ keystream.nextByte () );
+        }
+    }
+
     byte[] decryptSecondarySessionKey ( byte[] encryptedData, byte[] key ) throws IllegalStateException, LimitReachedException
     {
         return applyARCFOUR ( getARCFOUR ( key ), encryptedData );
@@ -185,21 +197,20 @@ class NTLMKeyFactory
     }
 
     //TODO merge the signing routine for both client and server all that they differ by are keys...as expected
-    byte[] signingPt1 ( int sequenceNumber, byte[] signingKey, byte[] data, int lengthOfBuffer ) throws NoSuchAlgorithmException, IllegalStateException, LimitReachedException
+    byte[] signingPt1 ( int sequenceNumber, byte[] signingKey, byte[] data, int offset, int lengthOfBuffer ) throws NoSuchAlgorithmException, IllegalStateException, LimitReachedException
     {
-        byte[] seqNumPlusData = new byte[4 + lengthOfBuffer];
-
-        seqNumPlusData[0] = (byte) ( sequenceNumber & 0xFF );
-        seqNumPlusData[1] = (byte) ( ( sequenceNumber >> 8 ) & 0xFF );
-        seqNumPlusData[2] = (byte) ( ( sequenceNumber >> 16 ) & 0xFF );
-        seqNumPlusData[3] = (byte) ( ( sequenceNumber >> 24 ) & 0xFF );
+        byte[] seqNum = new byte[4];
 
-        System.arraycopy ( data, 0, seqNumPlusData, 4, lengthOfBuffer );
+        seqNum[0] = (byte) ( sequenceNumber & 0xFF );
+        seqNum[1] = (byte) ( ( sequenceNumber >> 8 ) & 0xFF );
+        seqNum[2] = (byte) ( ( sequenceNumber >> 16 ) & 0xFF );
+        seqNum[3] = (byte) ( ( sequenceNumber >> 24 ) & 0xFF );
 
         byte[] retval = new byte[16];
         retval[0] = 0x01; //Version number LE 1.
 
-        byte[] sign = Responses.hmacMD5 ( seqNumPlusData, signingKey );
+        //the data is hashed where it lies, no copy of the whole fragment.
+        byte[] sign = Responses.hmacMD5 ( seqNum, data, offset, lengthOfBuffer, signingKey );
 
         for ( int i = 0; i < 8; i++ )
         {
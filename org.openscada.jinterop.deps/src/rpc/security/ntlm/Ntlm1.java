@@ -121,25 +121,21 @@ public class Ntlm1 implements NtlmFlags, Security
                 cipher = clientCipher;
             }
 
-            byte[] data = new byte[length];
-            System.arraycopy ( ndr.getBuffer ().getBuffer (), index, data, 0, data.length );
-
             if ( getProtectionLevel () == PROTECTION_LEVEL_PRIVACY )
             {
-                data = keyFactory.applyARCFOUR ( cipher, data );
-                System.arraycopy ( data, 0, ndr.getBuffer ().buf, index, data.length );
+                keyFactory.applyARCFOUR ( cipher, buffer.getBuffer (), index, length );
             }
 
             if ( logger.isLoggable ( Level.FINEST ) )
             {
                 logger.finest ( "\n AFTER Decryption" );
                 ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), data, 0, data.length );
+                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), buffer.getBuffer (), index, length );
                 logger.finest ( "\n" + byteArrayOutputStream.toString () );
-                logger.finest ( "\nLength is: " + data.length );
+                logger.finest ( "\nLength is: " + length );
             }
 
-            byte[] verifier = keyFactory.signingPt1 ( responseCounter, signingKey, buffer.getBuffer (), verifierIndex );
+            byte[] verifier = keyFactory.signingPt1 ( responseCounter, signingKey, buffer.getBuffer (), buffer.start, verifierIndex - buffer.start );
             keyFactory.signingPt2 ( verifier, cipher );
 
             buffer.setIndex ( verifierIndex );
@@ -193,22 +189,19 @@ public class Ntlm1 implements NtlmFlags, Security
                 cipher = clientCipher;
             }
 
-            byte[] verifier = keyFactory.signingPt1 ( requestCounter, signingKey, buffer.getBuffer (), verifierIndex );
-            byte[] data = new byte[length];
-            System.arraycopy ( ndr.getBuffer ().getBuffer (), index, data, 0, data.length );
+            byte[] verifier = keyFactory.signingPt1 ( requestCounter, signingKey, buffer.getBuffer (), buffer.start, verifierIndex - buffer.start );
             if ( logger.isLoggable ( Level.FINEST ) )
             {
                 logger.finest ( "\n BEFORE Encryption" );
                 ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream ();
-                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), data, 0, data.length );
+                jcifs.util.Hexdump.hexdump ( new PrintStream ( byteArrayOutputStream ), buffer.getBuffer (), index, length );
                 logger.finest ( "\n" + byteArrayOutputStream.toString () );
-                logger.finest ( "\n Length is: " + data.length );
+                logger.finest ( "\n Length is: " + length );
             }
 
             if ( getProtectionLevel () == PROTECTION_LEVEL_PRIVACY )
             {
-                byte[] data2 = keyFactory.applyARCFOUR ( cipher, data );
-                System.arraycopy ( data2, 0, ndr.getBuffer ().buf, index, data2.length );
+                keyFactory.applyARCFOUR ( cipher, buffer.getBuffer (), index, length );
             }
             keyFactory.signingPt2 ( verifier, cipher );
             buffer.setIndex ( verifierIndex );
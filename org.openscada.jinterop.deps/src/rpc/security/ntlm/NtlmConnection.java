@@ -54,7 +54,12 @@ public class NtlmConnection extends DefaultConnection
 
     public void setReceiveLength ( int receiveLength )
     {
-        receiveBuffer = new NdrBuffer ( new byte[receiveLength], 0 );
+        //keep whatever has been received already behind the bind_ack.
+        NdrBuffer buffer = new NdrBuffer ( new byte[Math.max ( receiveLength, receiveBuffer.length )], 0 );
+        System.arraycopy ( receiveBuffer.buf, receiveBuffer.start, buffer.buf, 0, receiveBuffer.length );
+        buffer.length = receiveBuffer.length;
+        receiveBuffer = buffer;
+        this.receiveLength = receiveLength;
     }
 
     protected void incomingRebind ( AuthenticationVerifier verifier ) throws IOException
@@ -349,6 +349,48 @@ public class Responses
         return md5.digest ( content );
     }
 
+    /**
+     * Calculates the HMAC-MD5 hash of <code>prefix</code> followed by
+     * <code>length</code> bytes of <code>data</code> starting at
+     * <code>offset</code>, without copying the data.
+     * 
+     * @param prefix
+     *            Bytes hashed ahead of the data.
+     * @param data
+     *            The buffer holding the data.
+     * @param offset
+     *            Start of the data in the buffer.
+     * @param length
+     *            Length of the data.
+     * @param key
+     *            The hashing key.
+     * @return The HMAC-MD5 hash of the prefix and the data.
+     * @throws NoSuchAlgorithmException
+     */
+    static byte[] hmacMD5 ( byte[] prefix, byte[] data, int offset, int length, byte[] key ) throws NoSuchAlgorithmException
+    {
+        byte[] ipad = new byte[64];
+        byte[] opad = new byte[64];
+        for ( int i = 0; i < 64; i++ )
+        {
+            ipad[i] = (byte)0x36;
+            opad[i] = (byte)0x5c;
+        }
+        for ( int i = key.length - 1; i >= 0; i-- )
+        {
+            ipad[i] ^= key[i];
+            opad[i] ^= key[i];
+        }
+        MessageDigest md5 = MessageDigest.getInstance ( "MD5" );
+        md5.update ( ipad );
+        md5.update ( prefix );
+        md5.update ( data, offset, length );
+        byte[] inner = md5.digest ();
+        md5.update ( opad );
+        md5.update ( inner );
+        return md5.digest ();
+    }
+
     /**
      * Creates a DES encryption key from the given key material.
      * 